@@ -4,3 +4,22 @@ export const login = (data) => axiosInstance.post("/auth/login", data);
 export const register = (data) => axiosInstance.post("/auth/register", data);
 export const refresh = (data) => axiosInstance.post("/auth/refresh-token", data);
 export const logout = (data) => axiosInstance.post("/auth/logout", data);
+
+// 🔁 Lấy access token mới bằng refresh token; nhiều socket cùng gọi chỉ tạo 1 request
+let pendingRefresh = null;
+export const refreshAccessToken = () => {
+  const refreshToken = sessionStorage.getItem("refreshToken");
+  if (!refreshToken) return Promise.reject(new Error("No refresh token"));
+  if (!pendingRefresh) {
+    pendingRefresh = refresh({ refreshToken })
+      .then((res) => {
+        const accessToken = res.data.data.accessToken;
+        sessionStorage.setItem("accessToken", accessToken);
+        return accessToken;
+      })
+      .finally(() => {
+        pendingRefresh = null;
+      });
+  }
+  return pendingRefresh;
+};
@@ -233,6 +233,16 @@ const ChatSidebar = ({ onSelectUser }) => {
             });
             break;
 
+          case "presence-delta":
+            setOnlineUsers((prev) => {
+              const next = new Set(prev);
+              (data.changes || []).forEach((c) =>
+                c.online ? next.add(c.email) : next.delete(c.email)
+              );
+              return next;
+            });
+            break;
+
           default:
             break;
         }
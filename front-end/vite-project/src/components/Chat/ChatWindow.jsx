@@ -1,4 +1,4 @@
-import React, { useEffect, useState, useRef, useCallback } from "react";
+import React, { useEffect, useLayoutEffect, useState, useRef, useCallback } from "react";
 import { IoSend, IoArrowBackSharp } from "react-icons/io5";
 import { FaPhone } from "react-icons/fa";
 import axios from "axios";
@@ -16,6 +16,11 @@ const ChatWindow = ({ user, onBack }) => {
   const messagesEndRef = useRef(null);
   const typingTimeoutRef = useRef(null);
   const lastTypingSentRef = useRef(0);
+  const listRef = useRef(null);
+  const hasMoreRef = useRef(false);
+  const beforeCursorRef = useRef(null);
+  const loadingOlderRef = useRef(false);
+  const prependAnchorRef = useRef(null); // scrollHeight trước khi prepend trang cũ
 
   const token = sessionStorage.getItem("accessToken");
   const email =
@@ -24,6 +29,48 @@ const ChatWindow = ({ user, onBack }) => {
 
   const ts = () => new Date().toLocaleTimeString("vi-VN");
 
+  // Frame typing từ server là trạng thái tổng hợp; timeout chỉ là lưới an toàn nếu mất frame stop
+  const applyTypingState = (typing) => {
+    clearTimeout(typingTimeoutRef.current);
+    setIsTyping(typing);
+    if (typing) typingTimeoutRef.current = setTimeout(() => setIsTyping(false), 3500);
+  };
+
+  // 📑 Trang history: "before" → prepend (giữ vị trí cuộn), còn lại thay toàn bộ
+  const applyHistory = (msg, cacheKey) => {
+    const page = msg.messages || [];
+    hasMoreRef.current = !!msg.hasMore;
+    if (msg.page !== "after") beforeCursorRef.current = msg.beforeCursor || null;
+    loadingOlderRef.current = false;
+    if (msg.page === "before") {
+      prependAnchorRef.current = listRef.current?.scrollHeight ?? null;
+      setMessages((prev) => {
+        const updated = [...page, ...prev];
+        messageCache[cacheKey] = updated;
+        return updated;
+      });
+    } else {
+      setMessages(page);
+      messageCache[cacheKey] = page;
+    }
+  };
+
+  // ⬆️ Cuộn lên đầu → xin trang cũ hơn theo beforeCursor
+  const loadOlder = () => {
+    if (!hasMoreRef.current || !beforeCursorRef.current || loadingOlderRef.current) return;
+    loadingOlderRef.current = true;
+    wsChatManager.send(
+      user.isGroup
+        ? { type: "get-group-history", groupId: user.conversationId, before: beforeCursorRef.current }
+        : { type: "get-history", conversationId: user.conversationId, before: beforeCursorRef.current },
+      "/ws/chat"
+    );
+  };
+
+  const handleScroll = (e) => {
+    if (e.currentTarget.scrollTop < 40) loadOlder();
+  };
+
   // ===========================================================
   // 📥 Handle incoming WS messages
   // ===========================================================
@@ -32,8 +79,7 @@ const ChatWindow = ({ user, onBack }) => {
     switch (msg.type) {
       case "group-history":
         if (msg.groupId === user.conversationId) {
-          setMessages(msg.messages || []);
-          messageCache[msg.groupId] = msg.messages || [];
+          applyHistory(msg, msg.groupId);
         }
         break;
 
@@ -48,10 +94,8 @@ const ChatWindow = ({ user, onBack }) => {
         break;
 
       case "typing-group":
-        if (msg.groupId === user.conversationId && msg.from !== email) {
-          setIsTyping(true);
-          clearTimeout(typingTimeoutRef.current);
-          typingTimeoutRef.current = setTimeout(() => setIsTyping(false), 1800);
+        if (msg.groupId === user.conversationId) {
+          applyTypingState((msg.users || [msg.from]).some((u) => u && u !== email));
         }
         break;
 
@@ -65,9 +109,8 @@ const ChatWindow = ({ user, onBack }) => {
 
       case "chat-history":
         if (msg.conversationId === user.conversationId) {
-          setMessages(msg.messages || []);
-          messageCache[msg.conversationId] = msg.messages || [];
-          markConversationAsRead(msg.conversationId);
+          applyHistory(msg, msg.conversationId);
+          if (msg.page !== "before") markConversationAsRead(msg.conversationId);
         }
         break;
 
@@ -95,10 +138,8 @@ const ChatWindow = ({ user, onBack }) => {
         break;
 
       case "typing":
-        if (msg.from === user.email) {
-          setIsTyping(true);
-          clearTimeout(typingTimeoutRef.current);
-          typingTimeoutRef.current = setTimeout(() => setIsTyping(false), 1800);
+        if (msg.conversationId === user.conversationId) {
+          applyTypingState((msg.users || [msg.from]).includes(user.email));
         }
         break;
 
@@ -115,6 +156,16 @@ const ChatWindow = ({ user, onBack }) => {
         }
         break;
 
+      case "presence-delta":
+        if (!user.isGroup) {
+          const change = (msg.changes || []).find((c) => c.email === user.email);
+          if (change) {
+            setIsOnline(change.online);
+            setLastSeen(change.lastSeen || null);
+          }
+        }
+        break;
+
       default:
         console.debug(`[ChatWindow ${ts()}] ⚙️ Unhandled WS:`, msg.type);
     }
@@ -128,6 +179,10 @@ const ChatWindow = ({ user, onBack }) => {
 
     console.log(`[ChatWindow ${ts()}] 🎯 Open chat: ${user.conversationId}`);
 
+    hasMoreRef.current = false;
+    beforeCursorRef.current = null;
+    loadingOlderRef.current = false;
+
     if (messageCache[user.conversationId]) {
       setMessages(messageCache[user.conversationId]);
     }
@@ -190,9 +245,19 @@ const ChatWindow = ({ user, onBack }) => {
   };
 
   // ===========================================================
-  // Cuộn xuống cuối khi có tin mới
+  // Cuộn xuống cuối khi có tin mới (trừ khi vừa prepend trang cũ)
   // ===========================================================
+  useLayoutEffect(() => {
+    const anchor = prependAnchorRef.current;
+    if (anchor == null || !listRef.current) return;
+    listRef.current.scrollTop += listRef.current.scrollHeight - anchor;
+  }, [messages]);
+
   useEffect(() => {
+    if (prependAnchorRef.current != null) {
+      prependAnchorRef.current = null;
+      return;
+    }
     const timer = setTimeout(() => {
       messagesEndRef.current?.scrollIntoView({ behavior: "smooth" });
     }, 120);
@@ -202,17 +267,23 @@ const ChatWindow = ({ user, onBack }) => {
   // ===========================================================
   // ✍️ Gửi typing
   // ===========================================================
-  const sendTyping = useCallback(() => {
+  // Server giữ trạng thái + gộp frame; client chỉ gửi heartbeat (start) và stop
+  const sendTyping = useCallback((state = "start") => {
     const now = Date.now();
-    if (now - lastTypingSentRef.current > 1000) {
+    if (state === "stop") {
+      if (!lastTypingSentRef.current) return;
+      lastTypingSentRef.current = 0;
+    } else if (now - lastTypingSentRef.current > 1000) {
       lastTypingSentRef.current = now;
-      wsChatManager.send(
-        user.isGroup
-          ? { type: "typing-group", groupId: user.conversationId, from: email }
-          : { type: "typing", conversationId: user.conversationId, from: email },
-        "/ws/chat"
-      );
+    } else {
+      return;
     }
+    wsChatManager.send(
+      user.isGroup
+        ? { type: "typing-group", groupId: user.conversationId, from: email, state }
+        : { type: "typing", conversationId: user.conversationId, from: email, state },
+      "/ws/chat"
+    );
   }, [user?.conversationId, email, user?.isGroup]);
 
   // ===========================================================
@@ -226,6 +297,8 @@ const ChatWindow = ({ user, onBack }) => {
 
     wsChatManager.send(payload, "/ws/chat");
     console.log(`[ChatWindow ${ts()}] ✉️ Sent message:`, newMsg.trim());
+    // Server tự xóa trạng thái typing khi nhận tin nhắn
+    lastTypingSentRef.current = 0;
     setNewMsg("");
   };
 
@@ -299,7 +372,11 @@ const ChatWindow = ({ user, onBack }) => {
       </div>
 
       {/* Messages */}
-      <div className="flex-1 overflow-y-auto p-5 bg-gradient-to-b from-gray-50 to-white space-y-2">
+      <div
+        ref={listRef}
+        onScroll={handleScroll}
+        className="flex-1 overflow-y-auto p-5 bg-gradient-to-b from-gray-50 to-white space-y-2"
+      >
         {messages.map((msg, idx) => (
           <div
             key={`${msg.timestamp}-${idx}`}
@@ -348,7 +425,7 @@ const ChatWindow = ({ user, onBack }) => {
           value={newMsg}
           onChange={(e) => {
             setNewMsg(e.target.value);
-            sendTyping();
+            sendTyping(e.target.value ? "start" : "stop");
           }}
           placeholder="Nhập tin nhắn..."
           onKeyDown={(e) => e.key === "Enter" && sendMessage()}
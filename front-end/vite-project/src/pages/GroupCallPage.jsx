@@ -43,6 +43,8 @@ export default function GroupCallPage() {
   const screenTrackRef = useRef(null);
   const [focusedUser, setFocusedUser] = useState(null);
   const fileManagerRef = useRef(null); // FileP2PManager ref
+  const rosterVersionRef = useRef(null); // version của room state (snapshot + delta)
+  const roleRef = useRef("presenter"); // webinar: "viewer" chỉ nhận media, không tự tạo offer
   const [incomingFile, setIncomingFile] = useState(null);
 
   const [participants, setParticipants] = useState([]);
@@ -220,31 +222,120 @@ export default function GroupCallPage() {
     }
   };
 
+  /**
+   * 🔢 Delta roster có version: chỉ áp dụng khi đúng version + 1.
+   * Lệch version → xin snapshot mới (resync), bỏ qua delta cũ / delta đến trước snapshot.
+   */
+  const acceptRosterDelta = (msg) => {
+    if (msg.version == null) return true;
+    const current = rosterVersionRef.current;
+    if (current == null || msg.version <= current) return false;
+    if (msg.version !== current + 1) {
+      console.warn(`🔄 Roster gap ${current} → ${msg.version}, resync`);
+      wsMeetingManager.send({ type: "resync" }, "/ws/meeting");
+      return false;
+    }
+    rosterVersionRef.current = msg.version;
+    return true;
+  };
+
   /** WS message */
   const handleSocketMessage = async (msg) => {
     switch (msg.type) {
-      case "participant-list":
-        setParticipants(msg.participants || []);
+      case "participant-list": {
+        if (msg.version != null) {
+          if (rosterVersionRef.current != null && msg.version < rosterVersionRef.current) break;
+          rosterVersionRef.current = msg.version;
+        }
+        const list = msg.participants || [];
+        const viewers = msg.viewers || [];
+        roleRef.current = "presenter";
+        setParticipants(list);
+        if (msg.mode === "WEBINAR") setStatus(`🎤 Webinar · ${msg.viewerCount ?? viewers.length} viewers`);
+        // Snapshot là nguồn chuẩn: bỏ peer không còn trong phòng (sau resync)
+        Object.keys(peersRef.current).forEach((email) => {
+          if (!list.includes(email) && !viewers.includes(email)) removePeer(email);
+        });
+        const sharing = Object.keys(msg.flags || {}).find(
+          (email) => msg.flags[email]?.screenSharing && email !== user.email
+        );
+        if (sharing) setFocusedUser(sharing);
         await delay(50);
         msg.participants?.forEach(async (email) => {
           if (email !== user.email && user.email < email && !peersRef.current[email]) {
             await createOffer(email);
           }
         });
+        // 🎤 Presenter webinar chủ động tạo offer cho mọi viewer
+        viewers.forEach(async (email) => {
+          if (!peersRef.current[email]) await createOffer(email);
+        });
+        break;
+      }
+      case "webinar-state": {
+        // 👀 Viewer: chỉ biết presenter + số viewer, chờ presenter gửi offer
+        if (rosterVersionRef.current != null && msg.version < rosterVersionRef.current) break;
+        rosterVersionRef.current = msg.version;
+        roleRef.current = "viewer";
+        const presenters = msg.presenters || [];
+        setParticipants(presenters);
+        setStatus(`👀 Webinar · ${msg.viewerCount} viewers`);
+        Object.keys(peersRef.current).forEach((email) => {
+          if (!presenters.includes(email)) removePeer(email);
+        });
+        const sharing = Object.keys(msg.flags || {}).find((email) => msg.flags[email]?.screenSharing);
+        if (sharing) setFocusedUser(sharing);
+        break;
+      }
+      case "viewer-joined":
+        if (msg.email !== user.email && !peersRef.current[msg.email]) {
+          await delay(50);
+          await createOffer(msg.email);
+        }
+        break;
+      case "viewer-left":
+        removePeer(msg.email);
+        break;
+      case "viewer-count":
+        setStatus(`${roleRef.current === "viewer" ? "👀" : "🎤"} Webinar · ${msg.viewerCount} viewers`);
         break;
       case "participant-joined":
+        if (!acceptRosterDelta(msg)) break;
         toast.success(`${msg.email} joined`);
         setParticipants((prev) => [...new Set([...prev, msg.email])]);
         await delay(50);
+        if (roleRef.current === "viewer") break;
         if (msg.email !== user.email && user.email < msg.email && !peersRef.current[msg.email]) {
           await createOffer(msg.email);
         }
         break;
       case "participant-left":
+        if (!acceptRosterDelta(msg)) break;
         toast.error(`${msg.email} left`);
         setParticipants((prev) => prev.filter((p) => p !== msg.email));
         removePeer(msg.email);
         break;
+      case "roster-update": {
+        // 👥 Join storm: server gom nhiều join / leave trong 1 frame (left áp dụng trước joined)
+        if (!acceptRosterDelta(msg)) break;
+        const left = msg.left || [];
+        const joined = (msg.joined || []).filter((email) => email !== user.email);
+        left.forEach((email) => removePeer(email));
+        setParticipants((prev) => [
+          ...new Set([...prev.filter((p) => !left.includes(p)), ...(msg.joined || [])]),
+        ]);
+        if (joined.length > 0) {
+          toast.success(joined.length === 1 ? `${joined[0]} joined` : `${joined.length} people joined`);
+        }
+        await delay(50);
+        if (roleRef.current === "viewer") break;
+        for (const email of joined) {
+          if (user.email < email && !peersRef.current[email]) {
+            await createOffer(email);
+          }
+        }
+        break;
+      }
       case "offer":
         await handleOffer(msg);
         break;
@@ -254,6 +345,12 @@ export default function GroupCallPage() {
       case "ice-candidate":
         await handleIce(msg);
         break;
+      case "ice-candidates":
+        // 🧊 Server gom nhiều candidate của cùng peer thành 1 frame
+        for (const candidate of msg.candidates || []) {
+          await handleIce({ from: msg.from, candidate });
+        }
+        break;
       case "meeting-chat":
         setChatMessages((prev) => [
           ...prev,
@@ -268,6 +365,17 @@ export default function GroupCallPage() {
           },
         ]);
         break;
+      case "meeting-chat-batch":
+        // 👀 Viewer webinar: server gom tin chat theo cửa sổ
+        setChatMessages((prev) => [
+          ...prev,
+          ...(msg.messages || []).map((m) => ({
+            from: m.sender,
+            message: m.message,
+            time: m.timestamp || new Date().toISOString(),
+          })),
+        ]);
+        break;
       case "meeting-history":
         setChatMessages((prev) => [
           ...msg.messages.map((m) => ({
@@ -283,6 +391,7 @@ export default function GroupCallPage() {
         endCall(true);
         break;
       case "screen-share":
+        if (!acceptRosterDelta(msg) || msg.email === user.email) break;
         if (msg.active) {
           setFocusedUser(msg.email);
           toast(`${msg.email} đang chia sẻ màn hình`);
@@ -360,7 +469,10 @@ export default function GroupCallPage() {
       ? new MediaStream([screenTrackRef.current])
       : localStreamRef.current;
 
-    if (activeStream) {
+    if (roleRef.current === "viewer") {
+      // 👀 Viewer webinar: không gửi media → answer recvonly
+      console.log(`[RTC] 👀 Viewer mode, no local tracks for ${peerEmail}`);
+    } else if (activeStream) {
       activeStream.getTracks().forEach((track) => pc.addTrack(track, activeStream));
       console.log(`[RTC] 🎥 Added ${activeStream.getTracks().length} tracks for ${peerEmail}`);
     } else {
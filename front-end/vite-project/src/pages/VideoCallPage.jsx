@@ -142,6 +142,13 @@ const VideoCallPage = () => {
         await addRemoteCandidate(msg.candidate);
         break;
 
+      case "ice-candidates":
+        logger.log("🧊 Received ICE batch from", msg.from, (msg.candidates || []).length);
+        for (const candidate of msg.candidates || []) {
+          if (candidate) await addRemoteCandidate(candidate);
+        }
+        break;
+
       // ✅ Khi nhận tín hiệu end-call từ đối phương
       case "end-call":
         logger.log("🔴 End call received, cleaning up");
@@ -1,3 +1,5 @@
+import { refreshAccessToken } from "../api/authApi";
+
 class WebSocketManager {
   constructor(name = "default") {
     this.name = name;
@@ -129,6 +131,23 @@ class WebSocketManager {
       ws.onmessage = (e) => {
         try {
           const msg = JSON.parse(e.data);
+
+          // 🔑 Server yêu cầu làm mới token trên socket đang mở (không cần reconnect)
+          // Token trong sessionStorage chính là token sắp hết hạn → phải refresh trước khi trả lời
+          if (msg.type === "reauth-required") {
+            refreshAccessToken()
+              .then((token) => {
+                this.lastToken = token;
+                if (ws.readyState === WebSocket.OPEN) ws.send(JSON.stringify({ type: "reauth", token }));
+              })
+              .catch((err) => console.warn(`[WS:${this.name}][${endpoint}] ⚠️ Token refresh failed:`, err));
+            return;
+          }
+          if (msg.type === "reauth-ok" || msg.type === "reauth-failed") {
+            console.log(`[WS:${this.name}][${endpoint}] 🔑 ${msg.type}`, msg.reason || msg.expiresAt);
+            return;
+          }
+
           const list = this.listeners.get(endpoint);
           if (list && list.size > 0) {
             list.forEach((cb) => {
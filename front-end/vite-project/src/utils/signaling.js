@@ -1,3 +1,5 @@
+import { refreshAccessToken } from "../api/authApi";
+
 export const createSignalingSocket = (token, onMessage) => {
   if (!token) throw new Error("createSignalingSocket: token required");
   const encoded = encodeURIComponent(token);
@@ -31,6 +33,16 @@ export const createSignalingSocket = (token, onMessage) => {
   sock.onmessage = (ev) => {
     try {
       const msg = JSON.parse(ev.data);
+      // 🔑 Làm mới token trên socket đang mở
+      if (msg.type === "reauth-required") {
+        refreshAccessToken()
+          .then((fresh) => {
+            if (sock.readyState === WebSocket.OPEN) sock.send(JSON.stringify({ type: "reauth", token: fresh }));
+          })
+          .catch((err) => console.warn("[Signaling] ⚠️ Token refresh failed:", err));
+        return;
+      }
+      if (msg.type === "reauth-ok" || msg.type === "reauth-failed") return;
       if (typeof sock._onMessage === "function") sock._onMessage(msg);
     } catch (e) {
       console.error("[Signaling] invalid JSON:", ev.data);
@@ -5,13 +5,33 @@ import org.springframework.data.jpa.repository.JpaRepository;
 import org.springframework.data.jpa.repository.Query;
 import org.springframework.data.repository.query.Param;
 
+import java.util.Collection;
 import java.util.List;
 import java.util.Optional;
+import java.util.Set;
 
 public interface UserRepository extends JpaRepository<User, Long> {
     Optional<User> findByEmail(String email);
+
+    /** Projection nhẹ chỉ lấy tên (không kéo roles EAGER) */
+    interface NameView {
+        String getEmail();
+        String getFirstName();
+        String getLastName();
+    }
+
+    List<NameView> findNamesByEmailIn(Collection<String> emails);
     boolean existsByEmail(String email);
 
+    /** Tên quyền hiệu lực của user (1 query join, không load entity) */
+    @Query("""
+        SELECT DISTINCT p.name FROM User u
+        JOIN u.roles r
+        JOIN r.permissions p
+        WHERE u.email = :email
+    """)
+    Set<String> findPermissionNamesByEmail(@Param("email") String email);
+
     @Query("""
         SELECT u FROM User u
         WHERE (LOWER(u.firstName) LIKE LOWER(CONCAT('%', :keyword, '%'))
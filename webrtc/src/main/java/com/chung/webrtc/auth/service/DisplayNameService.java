@@ -0,0 +1,115 @@
+package com.chung.webrtc.auth.service;
+
+import com.chung.webrtc.auth.repository.UserRepository;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.*;
+
+/**
+ * 👤 Tên hiển thị của user (firstName + lastName trong MySQL).
+ * - Cache LRU có giới hạn + TTL → hot path chat không chạm MySQL.
+ * - Batch: 1 query IN cho cả trang lịch sử.
+ * - Không có user / chưa đặt tên → rút gọn từ email như trước.
+ */
+@Slf4j
+@Service
+@RequiredArgsConstructor
+public class DisplayNameService {
+
+    private final UserRepository userRepository;
+
+    @Value("${app.display-name.cache.max-size:50000}")
+    private int maxSize;
+
+    @Value("${app.display-name.cache.ttl-minutes:30}")
+    private long ttlMinutes;
+
+    private record CachedName(String name, Instant loadedAt) {}
+
+    private final LinkedHashMap<String, CachedName> cache = new LinkedHashMap<>(1024, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, CachedName> eldest) {
+            return size() > maxSize;
+        }
+    };
+
+    public String getDisplayName(String email) {
+        if (email == null) return "Unknown";
+        String cached = lookup(email);
+        if (cached != null) return cached;
+        return getDisplayNames(List.of(email)).get(email);
+    }
+
+    /** 📦 Resolve nhiều email, chỉ các email chưa có trong cache mới đi DB (1 query IN) */
+    public Map<String, String> getDisplayNames(Collection<String> emails) {
+        Map<String, String> result = new HashMap<>();
+        Set<String> missing = new HashSet<>();
+        for (String email : emails) {
+            if (email == null || result.containsKey(email)) continue;
+            String cached = lookup(email);
+            if (cached != null) result.put(email, cached);
+            else missing.add(email);
+        }
+        if (missing.isEmpty()) return result;
+
+        Map<String, String> loaded = new HashMap<>();
+        try {
+            userRepository.findNamesByEmailIn(missing)
+                    .forEach(u -> loaded.put(u.getEmail(), fullName(u.getFirstName(), u.getLastName())));
+        } catch (Exception e) {
+            log.warn("⚠️ Cannot load display names for {} users: {}", missing.size(), e.getMessage());
+        }
+
+        Instant now = Instant.now();
+        synchronized (cache) {
+            for (String email : missing) {
+                String name = loaded.get(email);
+                if (name == null) name = fromEmail(email);
+                cache.put(email, new CachedName(name, now));
+                result.put(email, name);
+            }
+        }
+        return result;
+    }
+
+    /** 🔄 Gọi khi user đổi tên / email */
+    public void invalidate(String... emails) {
+        synchronized (cache) {
+            for (String email : emails) {
+                if (email != null) cache.remove(email);
+            }
+        }
+    }
+
+    private String lookup(String email) {
+        synchronized (cache) {
+            CachedName cached = cache.get(email);
+            if (cached == null) return null;
+            if (cached.loadedAt().plus(Duration.ofMinutes(ttlMinutes)).isBefore(Instant.now())) {
+                cache.remove(email);
+                return null;
+            }
+            return cached.name();
+        }
+    }
+
+    private String fullName(String firstName, String lastName) {
+        String name = ((firstName != null ? firstName.trim() : "") + " "
+                + (lastName != null ? lastName.trim() : "")).trim();
+        return name.isEmpty() ? null : name;
+    }
+
+    private String fromEmail(String email) {
+        try {
+            String namePart = email.split("@")[0];
+            return namePart.substring(0, 1).toUpperCase() + namePart.substring(1);
+        } catch (Exception e) {
+            return email;
+        }
+    }
+}
@@ -0,0 +1,21 @@
+package com.chung.webrtc.auth.service;
+
+import java.time.Instant;
+import java.util.List;
+
+/**
+ * 🔑 Kết quả xác thực JWT (đã verify chữ ký + hạn dùng), bất biến.
+ *
+ * @param email       subject của token
+ * @param roles       claim roles (rỗng với refresh token)
+ * @param permissions claim permissions (rỗng với refresh token)
+ * @param expiresAt   thời điểm hết hạn (exp)
+ * @param authorities "ROLE_" + roles và permissions, compile sẵn thành bitset
+ */
+public record JwtPrincipal(String email, List<String> roles, List<String> permissions, Instant expiresAt,
+                           PermissionBits authorities) {
+
+    public boolean isExpired(Instant now) {
+        return expiresAt != null && !expiresAt.isAfter(now);
+    }
+}
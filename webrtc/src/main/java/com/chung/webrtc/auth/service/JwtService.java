@@ -5,17 +5,24 @@ import com.chung.webrtc.auth.entity.Permission;
 import com.chung.webrtc.auth.entity.Role;
 import com.chung.webrtc.auth.entity.User;
 import io.jsonwebtoken.Claims;
+import io.jsonwebtoken.ExpiredJwtException;
 import io.jsonwebtoken.JwtException;
+import io.jsonwebtoken.JwtParser;
 import io.jsonwebtoken.Jwts;
 import io.jsonwebtoken.SignatureAlgorithm;
 import io.jsonwebtoken.security.Keys;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
 import jakarta.servlet.http.HttpServletRequest;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
-import org.springframework.web.socket.WebSocketSession;
 
+import java.nio.charset.StandardCharsets;
 import java.security.Key;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.Instant;
 import java.util.*;
 import java.util.stream.Collectors;
 import java.util.stream.Stream;
@@ -26,15 +33,39 @@ public class JwtService {
     private final Key key;
     private final long jwtExpirationMs;
     private final long refreshExpirationMs;
+    private final JwtParser parser;
+    private final PermissionRegistry permissionRegistry;
+
+    /**
+     * Cache claims đã verify, key = SHA-256 của token (không giữ token gốc).
+     * Token trùng lặp (mỗi request của cùng 1 client) bỏ qua HMAC + parse JSON; vẫn tôn trọng exp.
+     */
+    private final LinkedHashMap<String, JwtPrincipal> verifiedCache;
+    private final Counter cacheHits;
+    private final Counter cacheMisses;
 
     public JwtService(
             @Value("${application.security.jwt.secret-key}") String secretKey,
             @Value("${application.security.jwt.expiration}") long jwtExpirationMs,
-            @Value("${application.security.jwt.refresh-token.expiration}") long refreshExpirationMs
+            @Value("${application.security.jwt.refresh-token.expiration}") long refreshExpirationMs,
+            @Value("${application.security.jwt.claims-cache.max-size:10000}") int claimsCacheMaxSize,
+            MeterRegistry meterRegistry,
+            PermissionRegistry permissionRegistry
     ) {
+        this.permissionRegistry = permissionRegistry;
         this.key = Keys.hmacShaKeyFor(secretKey.getBytes());
         this.jwtExpirationMs = jwtExpirationMs;
         this.refreshExpirationMs = refreshExpirationMs;
+        // Parser thread-safe, dựng 1 lần
+        this.parser = Jwts.parserBuilder().setSigningKey(key).build();
+        this.verifiedCache = new LinkedHashMap<>(1024, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, JwtPrincipal> eldest) {
+                return size() > claimsCacheMaxSize;
+            }
+        };
+        this.cacheHits = Counter.builder("auth.jwt.claims_cache.hits").register(meterRegistry);
+        this.cacheMisses = Counter.builder("auth.jwt.claims_cache.misses").register(meterRegistry);
     }
 
     // 🔹 Sinh access token có roles & permissions
@@ -73,17 +104,63 @@ public class JwtService {
                 .compact();
     }
 
-    public boolean isTokenValid(String token) {
+    /**
+     * 🔑 Verify token 1 lần → principal (cache theo digest, tôn trọng exp).
+     *
+     * @throws JwtException / IllegalArgumentException nếu token sai chữ ký, hết hạn hoặc rỗng
+     */
+    public JwtPrincipal verify(String token) {
+        if (token == null || token.isBlank()) {
+            throw new IllegalArgumentException("JWT token is empty");
+        }
+        String digest = digest(token);
+        Instant now = Instant.now();
+        synchronized (verifiedCache) {
+            JwtPrincipal cached = verifiedCache.get(digest);
+            if (cached != null) {
+                if (!cached.isExpired(now)) {
+                    cacheHits.increment();
+                    return cached;
+                }
+                verifiedCache.remove(digest);
+            }
+        }
+
+        cacheMisses.increment();
+        JwtPrincipal principal = toPrincipal(parseClaims(token));
+        synchronized (verifiedCache) {
+            verifiedCache.put(digest, principal);
+        }
+        return principal;
+    }
+
+    /**
+     * 🤝 Handshake WebSocket: chữ ký vẫn phải đúng nhưng chấp nhận token đã hết hạn
+     * (socket sẽ được yêu cầu re-auth ngay sau khi mở).
+     */
+    public JwtPrincipal verifyAllowingExpired(String token) {
         try {
-            Jwts.parserBuilder().setSigningKey(key).build().parseClaimsJws(token);
-            return true;
+            return verify(token);
+        } catch (ExpiredJwtException e) {
+            return toPrincipal(e.getClaims());
+        }
+    }
+
+    /** Như verify nhưng trả về empty thay vì ném lỗi */
+    public Optional<JwtPrincipal> tryVerify(String token) {
+        try {
+            return Optional.of(verify(token));
         } catch (JwtException | IllegalArgumentException ex) {
-            return false;
+            return Optional.empty();
         }
     }
 
+    public boolean isTokenValid(String token) {
+        return tryVerify(token).isPresent();
+    }
+
     public Claims parseClaims(String token) {
-        return Jwts.parserBuilder().setSigningKey(key).build().parseClaimsJws(token).getBody();
+        return parser.parseClaimsJws(token).getBody();
     }
 
     public String extractToken(HttpServletRequest request) {
@@ -95,7 +172,7 @@ public class JwtService {
     }
 
     public String extractUsername(String token) {
-        return parseClaims(token).getSubject();
+        return verify(token).email();
     }
 
     public long refreshExpirationMs() {
@@ -105,21 +182,11 @@ public class JwtService {
     // ✅ Thêm 3 hàm tiện ích mới cho JwtAuthenticationFilter
 
     public List<String> extractRoles(String token) {
-        Claims claims = parseClaims(token);
-        Object rolesObj = claims.get(SecurityConstants.CLAIM_ROLES);
-        if (rolesObj instanceof Collection<?>) {
-            return ((Collection<?>) rolesObj).stream().map(Object::toString).collect(Collectors.toList());
-        }
-        return Collections.emptyList();
+        return verify(token).roles();
     }
 
     public List<String> extractPermissions(String token) {
-        Claims claims = parseClaims(token);
-        Object permissionsObj = claims.get(SecurityConstants.CLAIM_PERMISSIONS);
-        if (permissionsObj instanceof Collection<?>) {
-            return ((Collection<?>) permissionsObj).stream().map(Object::toString).collect(Collectors.toList());
-        }
-        return Collections.emptyList();
+        return verify(token).permissions();
     }
 
     public <T> T extractClaim(String token, java.util.function.Function<Claims, T> claimsResolver) {
@@ -127,23 +194,36 @@ public class JwtService {
         return claimsResolver.apply(claims);
     }
 
-    public String extractEmailFromSession(WebSocketSession session) {
-        // Ưu tiên lấy từ attribute
-        Object emailAttr = session.getAttributes().get("email");
-        if (emailAttr != null) return emailAttr.toString();
+    private JwtPrincipal toPrincipal(Claims claims) {
+        List<String> roles = stringList(claims.get(SecurityConstants.CLAIM_ROLES));
+        List<String> permissions = stringList(claims.get(SecurityConstants.CLAIM_PERMISSIONS));
+
+        // Authority giống hệt JwtAuthenticationFilter: ROLE_ + role, cộng permission
+        List<String> authorities = new ArrayList<>(roles.size() + permissions.size());
+        roles.forEach(r -> authorities.add("ROLE_" + r));
+        authorities.addAll(permissions);
+
+        return new JwtPrincipal(
+                claims.getSubject(),
+                roles,
+                permissions,
+                claims.getExpiration() != null ? claims.getExpiration().toInstant() : null,
+                permissionRegistry.compile(authorities));
+    }
 
-        // Fallback: lấy từ token trong query param
+    private static List<String> stringList(Object claim) {
+        if (claim instanceof Collection<?> values) {
+            return values.stream().map(Object::toString).toList();
+        }
+        return List.of();
+    }
+
+    private static String digest(String token) {
         try {
-            String query = session.getUri().getQuery();
-            if (query != null && query.startsWith("token=")) {
-                String token = query.substring(6);
-                if (isTokenValid(token)) {
-                    return extractUsername(token);
-                }
-            }
-        } catch (Exception e) {
-            log.warn("⚠️ extractEmailFromSession failed: {}", e.getMessage());
+            byte[] hash = MessageDigest.getInstance("SHA-256").digest(token.getBytes(StandardCharsets.US_ASCII));
+            return Base64.getEncoder().encodeToString(hash);
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 not available", e);
         }
-        return null;
     }
 }
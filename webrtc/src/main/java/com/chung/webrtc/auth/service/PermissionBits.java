@@ -0,0 +1,57 @@
+package com.chung.webrtc.auth.service;
+
+import java.util.Arrays;
+import java.util.BitSet;
+
+/**
+ * 🧮 Tập authority đã compile thành bitset (id từ {@link PermissionRegistry}).
+ * Bất biến; kiểm tra quyền chỉ còn là phép test bit.
+ */
+public final class PermissionBits {
+
+    public static final PermissionBits EMPTY = new PermissionBits(new long[0]);
+
+    private final long[] words;
+
+    private PermissionBits(long[] words) {
+        this.words = words;
+    }
+
+    public static PermissionBits of(BitSet bits) {
+        return bits.isEmpty() ? EMPTY : new PermissionBits(bits.toLongArray());
+    }
+
+    public boolean contains(int id) {
+        if (id < 0) return false;
+        int word = id >>> 6;
+        return word < words.length && (words[word] & (1L << id)) != 0;
+    }
+
+    /** Có ít nhất 1 bit của mask */
+    public boolean containsAny(PermissionBits mask) {
+        int n = Math.min(words.length, mask.words.length);
+        for (int i = 0; i < n; i++) {
+            if ((words[i] & mask.words[i]) != 0) return true;
+        }
+        return false;
+    }
+
+    /** Có đủ mọi bit của mask */
+    public boolean containsAll(PermissionBits mask) {
+        for (int i = 0; i < mask.words.length; i++) {
+            long have = i < words.length ? words[i] : 0L;
+            if ((have & mask.words[i]) != mask.words[i]) return false;
+        }
+        return true;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        return o instanceof PermissionBits other && Arrays.equals(words, other.words);
+    }
+
+    @Override
+    public int hashCode() {
+        return Arrays.hashCode(words);
+    }
+}
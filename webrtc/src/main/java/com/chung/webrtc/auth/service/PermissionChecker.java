@@ -2,17 +2,22 @@ package com.chung.webrtc.auth.service;
 
 import com.chung.webrtc.common.exception.AppException;
 import com.chung.webrtc.common.exception.ErrorCode;
+import lombok.RequiredArgsConstructor;
 import org.springframework.security.core.Authentication;
+import org.springframework.security.core.GrantedAuthority;
 import org.springframework.security.core.context.SecurityContextHolder;
 import org.springframework.stereotype.Component;
 
-import java.util.Arrays;
-import java.util.Set;
-import java.util.stream.Collectors;
-
+/**
+ * 🔐 Kiểm tra quyền của request hiện tại bằng bitset authority đã compile lúc verify JWT.
+ * Authentication không đến từ JWT (không có JwtPrincipal) → compile từ authorities.
+ */
 @Component
+@RequiredArgsConstructor
 public class PermissionChecker {
 
+    private final PermissionRegistry permissionRegistry;
+
     /**
      * ✅ Kiểm tra bắt buộc phải có quyền — nếu không có sẽ throw AppException
      */
@@ -22,8 +27,7 @@ public class PermissionChecker {
             throw new AppException(ErrorCode.AUTH_INVALID_CREDENTIALS, "Unauthenticated request");
         }
 
-        boolean hasPermission = auth.getAuthorities().stream()
-                .anyMatch(a -> a.getAuthority().equalsIgnoreCase(permissionName));
+        boolean hasPermission = authorityBits(auth).contains(permissionRegistry.lookup(permissionName));
 
         if (!hasPermission) {
             throw new AppException(ErrorCode.FORBIDDEN,
@@ -40,13 +44,11 @@ public class PermissionChecker {
         if (auth == null || !auth.isAuthenticated() || auth.getAuthorities() == null)
             return false;
 
-        Set<String> userPerms = auth.getAuthorities().stream()
-                .map(a -> a.getAuthority().toUpperCase())
-                .collect(Collectors.toSet());
-
-        return Arrays.stream(permissions)
-                .map(String::toUpperCase)
-                .anyMatch(userPerms::contains);
+        PermissionBits bits = authorityBits(auth);
+        for (String permission : permissions) {
+            if (bits.contains(permissionRegistry.lookup(permission))) return true;
+        }
+        return false;
     }
 
     /**
@@ -57,12 +59,20 @@ public class PermissionChecker {
         if (auth == null || !auth.isAuthenticated() || auth.getAuthorities() == null)
             return false;
 
-        Set<String> userPerms = auth.getAuthorities().stream()
-                .map(a -> a.getAuthority().toUpperCase())
-                .collect(Collectors.toSet());
+        PermissionBits bits = authorityBits(auth);
+        for (String permission : permissions) {
+            if (!bits.contains(permissionRegistry.lookup(permission))) return false;
+        }
+        return true;
+    }
 
-        return Arrays.stream(permissions)
-                .map(String::toUpperCase)
-                .allMatch(userPerms::contains);
+    private PermissionBits authorityBits(Authentication auth) {
+        if (auth.getDetails() instanceof JwtPrincipal principal) {
+            return principal.authorities();
+        }
+        if (auth.getAuthorities() == null) return PermissionBits.EMPTY;
+        return permissionRegistry.compile(auth.getAuthorities().stream()
+                .map(GrantedAuthority::getAuthority)
+                .toList());
     }
 }
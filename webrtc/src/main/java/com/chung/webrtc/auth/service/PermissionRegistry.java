@@ -0,0 +1,69 @@
+package com.chung.webrtc.auth.service;
+
+import com.chung.webrtc.auth.entity.Permission;
+import com.chung.webrtc.auth.repository.PermissionRepository;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Component;
+
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * 🔢 Gán id liên tục cho tên authority (permission + "ROLE_" + role), không phân biệt hoa thường.
+ * - Seed từ bảng permissions khi app sẵn sàng (sau AdminInitializer) → các quyền phổ biến có id nhỏ.
+ * - Tên mới (tạo permission sau khi chạy, token cũ) được intern khi gặp lần đầu.
+ */
+@Slf4j
+@Component
+@RequiredArgsConstructor
+public class PermissionRegistry {
+
+    private final PermissionRepository permissionRepository;
+
+    /** Giữ cả key gốc lẫn key upper-case → lookup tên đã chuẩn không cần toUpperCase */
+    private final Map<String, Integer> ids = new ConcurrentHashMap<>();
+    private int nextId;
+
+    @EventListener(ApplicationReadyEvent.class)
+    public void seed() {
+        permissionRepository.findAll().stream()
+                .sorted(Comparator.comparing(Permission::getId))
+                .forEach(p -> intern(p.getName()));
+        log.info("🔢 Permission registry seeded with {} authorities", nextId);
+    }
+
+    /** Id của authority, cấp mới nếu chưa có */
+    public int intern(String name) {
+        Integer id = ids.get(name);
+        if (id != null) return id;
+        String key = name.toUpperCase(Locale.ROOT);
+        synchronized (this) {
+            id = ids.computeIfAbsent(key, k -> nextId++);
+        }
+        ids.putIfAbsent(name, id);
+        return id;
+    }
+
+    /** Id của authority hoặc -1 nếu chưa ai từng có quyền này */
+    public int lookup(String name) {
+        Integer id = ids.get(name);
+        if (id == null) id = ids.get(name.toUpperCase(Locale.ROOT));
+        return id != null ? id : -1;
+    }
+
+    /** Compile 1 lần cho mỗi principal */
+    public PermissionBits compile(Collection<String> authorities) {
+        BitSet bits = new BitSet();
+        for (String authority : authorities) {
+            bits.set(intern(authority));
+        }
+        return PermissionBits.of(bits);
+    }
+}
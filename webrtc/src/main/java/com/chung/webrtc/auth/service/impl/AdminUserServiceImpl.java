@@ -10,6 +10,7 @@ import com.chung.webrtc.auth.repository.UserRepository;
 import com.chung.webrtc.auth.service.AdminUserService;
 import com.chung.webrtc.common.exception.AppException;
 import com.chung.webrtc.common.exception.ErrorCode;
+import com.chung.webrtc.common.util.PermissionUtil;
 import lombok.RequiredArgsConstructor;
 import org.springframework.stereotype.Service;
 
@@ -24,6 +25,7 @@ public class AdminUserServiceImpl implements AdminUserService {
     private final UserRepository userRepository;
     private final RoleRepository roleRepository;
     private final UserMapper userMapper;
+    private final PermissionUtil permissionUtil;
 
     @Override
     public List<UserResponse> getAllUsers() {
@@ -97,6 +99,9 @@ public class AdminUserServiceImpl implements AdminUserService {
     }
 
     private User saveUser(User user) {
-        return userRepository.save(user);
+        User saved = userRepository.save(user);
+        // 🔄 Role thay đổi → quyền hiệu lực của user phải nạp lại
+        permissionUtil.invalidate(saved.getEmail());
+        return saved;
     }
 }
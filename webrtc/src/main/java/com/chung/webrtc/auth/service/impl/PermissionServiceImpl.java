@@ -5,9 +5,11 @@ import com.chung.webrtc.auth.dto.response.PermissionResponse;
 import com.chung.webrtc.auth.entity.Permission;
 import com.chung.webrtc.auth.mapper.PermissionMapper;
 import com.chung.webrtc.auth.repository.PermissionRepository;
+import com.chung.webrtc.auth.service.PermissionRegistry;
 import com.chung.webrtc.auth.service.PermissionService;
 import com.chung.webrtc.common.exception.AppException;
 import com.chung.webrtc.common.exception.ErrorCode;
+import com.chung.webrtc.common.util.PermissionUtil;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.stereotype.Service;
@@ -22,6 +24,8 @@ public class PermissionServiceImpl implements PermissionService {
 
     private final PermissionRepository permissionRepository;
     private final PermissionMapper permissionMapper;
+    private final PermissionUtil permissionUtil;
+    private final PermissionRegistry permissionRegistry;
 
     @Override
     @Transactional
@@ -39,6 +43,7 @@ public class PermissionServiceImpl implements PermissionService {
                 .build();
 
         Permission saved = permissionRepository.save(permission);
+        permissionRegistry.intern(saved.getName());
         log.info("Permission created successfully: id={}, name={}", saved.getId(), saved.getName());
         return permissionMapper.toResponse(saved);
     }
@@ -68,6 +73,7 @@ public class PermissionServiceImpl implements PermissionService {
         permission.setDescription(req.getDescription());
 
         Permission updated = permissionRepository.save(permission);
+        permissionUtil.invalidateAll();
         log.info("Permission updated successfully: id={}, name={}", updated.getId(), updated.getName());
         return permissionMapper.toResponse(updated);
     }
@@ -80,6 +86,7 @@ public class PermissionServiceImpl implements PermissionService {
             throw new AppException(ErrorCode.PERMISSION_NOT_FOUND, "Permission not found");
         }
         permissionRepository.deleteById(id);
+        permissionUtil.invalidateAll();
         log.info("Permission deleted successfully: id={}", id);
     }
 }
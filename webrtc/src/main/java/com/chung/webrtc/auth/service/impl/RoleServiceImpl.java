@@ -9,6 +9,7 @@ import com.chung.webrtc.auth.repository.RoleRepository;
 import com.chung.webrtc.auth.service.RoleService;
 import com.chung.webrtc.common.exception.AppException;
 import com.chung.webrtc.common.exception.ErrorCode;
+import com.chung.webrtc.common.util.PermissionUtil;
 import lombok.RequiredArgsConstructor;
 import org.springframework.stereotype.Service;
 
@@ -22,6 +23,7 @@ import java.util.stream.Collectors;
 public class RoleServiceImpl implements RoleService {
     private final RoleRepository roleRepository;
     private final PermissionRepository permissionRepository;
+    private final PermissionUtil permissionUtil;
 
     @Override
     public RoleResponse createRole(CreateRoleRequest req) {
@@ -69,6 +71,7 @@ public class RoleServiceImpl implements RoleService {
         }
 
         Role updated = roleRepository.save(role);
+        permissionUtil.invalidateAll();
         return toResponse(updated);
     }
 
@@ -77,6 +80,7 @@ public class RoleServiceImpl implements RoleService {
         Role role = roleRepository.findById(id)
                 .orElseThrow(() -> new AppException(ErrorCode.ROLE_NOT_FOUND, "Role not found"));
         roleRepository.delete(role);
+        permissionUtil.invalidateAll();
     }
 
     private RoleResponse toResponse(Role r) {
@@ -6,10 +6,12 @@ import com.chung.webrtc.auth.entity.User;
 import com.chung.webrtc.auth.mapper.UserMapper;
 import com.chung.webrtc.auth.repository.RefreshTokenRepository;
 import com.chung.webrtc.auth.repository.UserRepository;
+import com.chung.webrtc.auth.service.DisplayNameService;
 import com.chung.webrtc.auth.service.JwtService;
 import com.chung.webrtc.auth.service.UserService;
 import com.chung.webrtc.common.exception.AppException;
 import com.chung.webrtc.common.exception.ErrorCode;
+import com.chung.webrtc.common.util.PermissionUtil;
 import lombok.RequiredArgsConstructor;
 import org.springframework.security.core.Authentication;
 import org.springframework.security.core.context.SecurityContextHolder;
@@ -27,6 +29,8 @@ public class UserServiceImpl implements UserService {
     private final RefreshTokenRepository refreshTokenRepository;
     private final UserMapper userMapper;
     private final JwtService jwtService;
+    private final DisplayNameService displayNameService;
+    private final PermissionUtil permissionUtil;
 
     private User getAuthenticatedUser() {
         Authentication auth = SecurityContextHolder.getContext().getAuthentication();
@@ -43,10 +47,13 @@ public class UserServiceImpl implements UserService {
     @Override
     public UserResponse updateCurrentUser(UserUpdateRequest request) {
         User user = getAuthenticatedUser();
+        String oldEmail = user.getEmail();
         if (request.getEmail() != null) user.setEmail(request.getEmail());
         if (request.getFirstName() != null) user.setFirstName(request.getFirstName());
         if (request.getLastName() != null) user.setLastName(request.getLastName());
         userRepository.save(user);
+        displayNameService.invalidate(oldEmail, user.getEmail());
+        permissionUtil.invalidate(oldEmail, user.getEmail());
         return userMapper.toResponse(user);
     }
 
@@ -1,8 +1,10 @@
 package com.chung.webrtc.chat.controller;
 
+import com.chung.webrtc.chat.dto.SidebarEntry;
+import com.chung.webrtc.chat.dto.response.MessagePageResponse;
 import com.chung.webrtc.chat.entity.Conversation;
-import com.chung.webrtc.chat.entity.Message;
 import com.chung.webrtc.chat.service.ChatService;
+import com.chung.webrtc.chat.service.SidebarService;
 import com.chung.webrtc.common.util.MongoKeyUtil;
 import lombok.RequiredArgsConstructor;
 import org.springframework.http.ResponseEntity;
@@ -22,11 +24,17 @@ import java.util.stream.Collectors;
 public class ChatController {
 
     private final ChatService chatService;
+    private final SidebarService sidebarService;
 
-    /** 📜 Lấy lịch sử tin nhắn của 1 conversation */
+    /** 📜 Lấy lịch sử tin nhắn của 1 conversation (keyset: before/after cursor) */
     @GetMapping("/{conversationId}")
-    public ResponseEntity<List<Message>> getChatHistory(@PathVariable String conversationId) {
-        return ResponseEntity.ok(chatService.getMessages(conversationId));
+    public ResponseEntity<MessagePageResponse> getChatHistory(
+            @PathVariable String conversationId,
+            @RequestParam(required = false) String before,
+            @RequestParam(required = false) String after,
+            @RequestParam(required = false) Integer limit
+    ) {
+        return ResponseEntity.ok(chatService.getMessagePage(conversationId, before, after, limit));
     }
 
     /** 🧩 Tạo hoặc lấy conversation giữa 2 user */
@@ -38,45 +46,49 @@ public class ChatController {
         return ResponseEntity.ok(chatService.getOrCreateConversation(userA, userB));
     }
 
-    /** 🆕 Lấy danh sách conversation của user (đã decode participants + unreadMap + sort) */
+    /** 🆕 Lấy danh sách conversation của user (phục vụ từ sidebar cache, đã decode participants + sort) */
     @GetMapping("/my-conversations")
     public ResponseEntity<List<Map<String, Object>>> getMyConversations(@RequestParam String email) {
         // Lay ds conversation, tru Type = MEETING
-        List<Conversation> conversations = chatService.getConversationsByUser(email);
+        List<SidebarEntry> entries = sidebarService.getSidebar(email);
 
-        List<Map<String, Object>> response = conversations.stream()
-                .map(conv -> {
+        List<Map<String, Object>> response = entries.stream()
+                .sorted(Comparator.comparing(SidebarEntry::getCreatedAt,
+                        Comparator.nullsLast(Comparator.<Instant>reverseOrder())))
+                .map(entry -> {
                     Map<String, Object> map = new HashMap<>();
-                    map.put("id", conv.getId());
-                    map.put("type", conv.getType());
-                    map.put("createdAt", conv.getCreatedAt());
-                    map.put("lastMessage", conv.getLastMessage());
-                    map.put("lastMessageTime", conv.getLastMessageTime());
-                    map.put("unreadMap", chatService.decodeUnreadMap(conv.getUnreadMap()));
+                    map.put("id", entry.getId());
+                    map.put("type", entry.getType());
+                    map.put("createdAt", entry.getCreatedAt());
+                    map.put("lastMessage", entry.getLastMessage());
+                    map.put("lastMessageTime", entry.getLastMessageTime());
+                    map.put("unreadMap", Map.of(email, entry.getUnreadCount() > 0));
+                    map.put("unreadCount", entry.getUnreadCount());
 
                     // ✅ NEW: thêm 2 trường người gửi cuối cùng
-                    map.put("lastSender", conv.getLastSender());
-                    map.put("lastSenderName", conv.getLastSenderName());
+                    map.put("lastSender", entry.getLastSender());
+                    map.put("lastSenderName", entry.getLastSenderName());
 
                     // ✅ Giải mã participants để frontend không bị undefined
-                    Set<String> decodedParticipants = conv.getParticipants().stream()
+                    Set<String> decodedParticipants = entry.getParticipants().stream()
                             .map(MongoKeyUtil::decode)
                             .collect(Collectors.toSet());
                     map.put("participants", decodedParticipants);
 
                     return map;
                 })
-                .sorted((a, b) -> {
-                    Instant ta = (Instant) a.get("createdAt");
-                    Instant tb = (Instant) b.get("createdAt");
-                    return tb.compareTo(ta);
-                })
                 .collect(Collectors.toList());
 
         return ResponseEntity.ok(response);
     }
 
-    /** ✅ Đánh dấu đã đọc 1 conversation */
+    /** 🔔 Tổng số tin chưa đọc của user (badge) */
+    @GetMapping("/unread-total")
+    public ResponseEntity<Map<String, Long>> getUnreadTotal(@RequestParam String email) {
+        return ResponseEntity.ok(Map.of("total", chatService.countUnreadTotal(email)));
+    }
+
+    /** ✅ Đánh dấu đã đọc 1 conversation (đẩy watermark) */
     @PutMapping("/mark-read")
     public ResponseEntity<Void> markAsRead(
             @RequestParam String conversationId,
@@ -0,0 +1,55 @@
+package com.chung.webrtc.chat.dto;
+
+import com.chung.webrtc.chat.entity.Message;
+import com.chung.webrtc.common.exception.AppException;
+import com.chung.webrtc.common.exception.ErrorCode;
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+import org.bson.types.ObjectId;
+
+import java.time.Instant;
+
+/**
+ * ✅ Cursor keyset cho lịch sử tin nhắn, sắp theo (timestamp, _id).
+ * Dạng chuỗi gửi cho client: "<epochMillis>_<objectIdHex>".
+ */
+@Getter
+@AllArgsConstructor
+public class MessageCursor {
+
+    private static final char SEPARATOR = '_';
+
+    private final Instant timestamp;
+    private final ObjectId id;
+
+    public static MessageCursor of(Message message) {
+        Instant ts = message.getTimestamp() != null ? message.getTimestamp() : Instant.EPOCH;
+        return new MessageCursor(ts, new ObjectId(message.getId()));
+    }
+
+    /** 🔍 Parse cursor từ client, trả null nếu rỗng */
+    public static MessageCursor decode(String cursor) {
+        if (cursor == null || cursor.isBlank()) return null;
+
+        int idx = cursor.indexOf(SEPARATOR);
+        if (idx <= 0 || idx == cursor.length() - 1) {
+            throw new AppException(ErrorCode.VALIDATION_ERROR, "Invalid history cursor: " + cursor);
+        }
+
+        String millis = cursor.substring(0, idx);
+        String hexId = cursor.substring(idx + 1);
+        if (!ObjectId.isValid(hexId)) {
+            throw new AppException(ErrorCode.VALIDATION_ERROR, "Invalid history cursor: " + cursor);
+        }
+
+        try {
+            return new MessageCursor(Instant.ofEpochMilli(Long.parseLong(millis)), new ObjectId(hexId));
+        } catch (NumberFormatException e) {
+            throw new AppException(ErrorCode.VALIDATION_ERROR, "Invalid history cursor: " + cursor);
+        }
+    }
+
+    public String encode() {
+        return timestamp.toEpochMilli() + String.valueOf(SEPARATOR) + id.toHexString();
+    }
+}
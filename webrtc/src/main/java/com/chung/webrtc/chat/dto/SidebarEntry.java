@@ -0,0 +1,44 @@
+package com.chung.webrtc.chat.dto;
+
+import com.chung.webrtc.chat.enums.ConversationType;
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.time.Instant;
+import java.util.Set;
+
+/**
+ * 🗂️ 1 dòng sidebar của user (conversation 1-1 hoặc group) kèm preview & unread.
+ * Được giữ trong SidebarCache và vá tại chỗ theo event chat / group / read.
+ */
+@Data
+@Builder(toBuilder = true)
+@NoArgsConstructor
+@AllArgsConstructor
+public class SidebarEntry {
+
+    private String id;                 // conversationId (= groupId với group)
+    private ConversationType type;
+
+    // Chỉ có với group
+    private String name;
+    private String description;
+    private String avatar;
+    private String createdBy;
+
+    private Set<String> participants;  // members với group
+    private Instant createdAt;
+
+    private String lastMessage;
+    private String lastSender;
+    private String lastSenderName;
+    private Instant lastMessageTime;
+
+    private long unreadCount;
+
+    public boolean isGroup() {
+        return type == ConversationType.GROUP;
+    }
+}
@@ -0,0 +1,22 @@
+package com.chung.webrtc.chat.dto.response;
+
+import com.chung.webrtc.chat.entity.Message;
+import lombok.Builder;
+import lombok.Data;
+
+import java.util.List;
+
+/**
+ * ✅ Một trang lịch sử tin nhắn (luôn sắp tăng dần theo thời gian).
+ * - beforeCursor: dùng để tải trang cũ hơn
+ * - afterCursor: dùng để tải trang mới hơn
+ */
+@Data
+@Builder
+public class MessagePageResponse {
+    private String conversationId;
+    private List<Message> messages;
+    private boolean hasMore;
+    private String beforeCursor;
+    private String afterCursor;
+}
@@ -1,6 +1,7 @@
 package com.chung.webrtc.chat.entity;
 
 import com.chung.webrtc.chat.enums.ConversationType;
+import com.chung.webrtc.common.util.MongoKeyUtil;
 import jakarta.persistence.Id;
 import lombok.AllArgsConstructor;
 import lombok.Builder;
@@ -41,8 +42,24 @@ public class Conversation {
     private String lastSender;
     private String lastSenderName;
     /**
-     * ✅ Map<userEmail, unreadFlag>
-     * true nếu người đó có tin chưa đọc.
+     * ⚠️ Legacy: Map<userEmail, unreadFlag>, không còn được ghi.
+     * Chỉ dùng làm fallback cho conversation cũ chưa có messageSeq.
      */
     private Map<String, Boolean> unreadMap;
+
+    /** 🔢 Số thứ tự tin nhắn cuối cùng ($inc mỗi khi có tin mới) */
+    private long messageSeq;
+
+    /** 👁️ Map<encodedEmail, seq đã đọc tới> — watermark đọc của từng người */
+    private Map<String, Long> readSeq;
+
+    /** ✅ Số tin chưa đọc của user = messageSeq - watermark */
+    public long unreadCountOf(String email) {
+        String key = MongoKeyUtil.encode(email);
+        if (messageSeq == 0) {
+            return unreadMap != null && Boolean.TRUE.equals(unreadMap.get(key)) ? 1 : 0;
+        }
+        long read = readSeq != null ? readSeq.getOrDefault(key, 0L) : 0L;
+        return Math.max(0, messageSeq - read);
+    }
 }
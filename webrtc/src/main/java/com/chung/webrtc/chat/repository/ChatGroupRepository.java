@@ -2,9 +2,15 @@ package com.chung.webrtc.chat.repository;
 
 import com.chung.webrtc.chat.entity.Group;
 import org.springframework.data.mongodb.repository.MongoRepository;
+import org.springframework.data.mongodb.repository.Query;
 
 import java.util.List;
+import java.util.Optional;
 
 public interface ChatGroupRepository extends MongoRepository<Group, String> {
     List<Group> findByMembersContaining(String email);
-}
\ No newline at end of file
+
+    /** 👥 Chỉ members (nạp cache membership) */
+    @Query(value = "{ '_id': ?0 }", fields = "{ 'members': 1 }")
+    Optional<Group> findMembershipById(String id);
+}
@@ -4,6 +4,7 @@ import com.chung.webrtc.chat.entity.Conversation;
 import org.springframework.data.mongodb.repository.MongoRepository;
 import org.springframework.data.mongodb.repository.Query;
 
+import java.util.Collection;
 import java.util.List;
 import java.util.Optional;
 
@@ -11,7 +12,7 @@ import java.util.Optional;
  * Repository cho collection "conversation"
  * Hỗ trợ truy vấn các cuộc trò chuyện 1-1, nhóm, và meeting.
  */
-public interface ConversationRepository extends MongoRepository<Conversation, String> {
+public interface ConversationRepository extends MongoRepository<Conversation, String>, ConversationRepositoryCustom {
 
     /**
      * ✅ FIXED: Tìm cuộc trò chuyện 1-1 giữa 2 người (bất kể thứ tự)
@@ -36,4 +37,10 @@ public interface ConversationRepository extends MongoRepository<Conversation, St
      * Ví dụ: "DIRECT", "GROUP", "MEETING"
      */
     List<Conversation> findByParticipantsContainingAndType(String email, String type);
+
+    /**
+     * 👥 Chỉ lấy participants của nhiều conversation trong 1 query (định tuyến read receipt)
+     */
+    @Query(value = "{ '_id': { $in: ?0 } }", fields = "{ 'participants': 1 }")
+    List<Conversation> findParticipantsByIdIn(Collection<String> ids);
 }
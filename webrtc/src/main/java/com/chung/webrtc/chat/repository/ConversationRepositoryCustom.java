@@ -0,0 +1,24 @@
+package com.chung.webrtc.chat.repository;
+
+import java.time.Instant;
+
+/**
+ * ⚡ Các update tại chỗ trên conversation (1 round trip, không đọc-sửa-ghi cả document).
+ */
+public interface ConversationRepositoryCustom {
+
+    /** 📝 Preview chat trong meeting (tạo conversation MEETING nếu chưa có) */
+    void upsertMeetingPreview(String meetingCode, String sender, String senderName, String content, Instant at);
+
+    /** 👁️ Đẩy watermark readSeq.<email> lên messageSeq hiện tại */
+    void markAsRead(String conversationId, String email);
+
+    void addParticipant(String conversationId, String email);
+
+    void removeParticipant(String conversationId, String email);
+
+    void setLastMessage(String conversationId, String lastMessage);
+
+    /** 🔔 Tổng số tin chưa đọc của user trên mọi conversation DIRECT / GROUP (1 aggregation) */
+    long countUnreadTotal(String email);
+}
@@ -0,0 +1,76 @@
+package com.chung.webrtc.chat.repository;
+
+import com.chung.webrtc.chat.entity.Conversation;
+import com.chung.webrtc.chat.enums.ConversationType;
+import lombok.RequiredArgsConstructor;
+import org.bson.Document;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.aggregation.Aggregation;
+import org.springframework.data.mongodb.core.aggregation.AggregationOperation;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
+
+import java.time.Instant;
+import java.util.List;
+import java.util.Set;
+
+@RequiredArgsConstructor
+public class ConversationRepositoryImpl implements ConversationRepositoryCustom {
+
+    private final MongoTemplate mongoTemplate;
+
+    @Override
+    public void upsertMeetingPreview(String meetingCode, String sender, String senderName, String content, Instant at) {
+        Update update = ConversationUpdates.preview(sender, senderName, content, at)
+                .setOnInsert("type", ConversationType.MEETING)
+                .setOnInsert("createdAt", at)
+                .setOnInsert("participants", Set.of(sender));
+        mongoTemplate.upsert(byId(meetingCode), update, Conversation.class);
+    }
+
+    @Override
+    public void markAsRead(String conversationId, String email) {
+        mongoTemplate.updateFirst(byId(conversationId), ConversationUpdates.markRead(email), Conversation.class);
+    }
+
+    @Override
+    public void addParticipant(String conversationId, String email) {
+        mongoTemplate.updateFirst(byId(conversationId), ConversationUpdates.addParticipant(email), Conversation.class);
+    }
+
+    @Override
+    public void removeParticipant(String conversationId, String email) {
+        mongoTemplate.updateFirst(byId(conversationId),
+                new Update().pull("participants", email)
+                        .unset(ConversationUpdates.readSeqKey(email))
+                        .unset(ConversationUpdates.legacyUnreadKey(email)),
+                Conversation.class);
+    }
+
+    @Override
+    public void setLastMessage(String conversationId, String lastMessage) {
+        mongoTemplate.updateFirst(byId(conversationId), new Update().set("lastMessage", lastMessage), Conversation.class);
+    }
+
+    @Override
+    public long countUnreadTotal(String email) {
+        Document unread = ConversationUpdates.unreadCountExpression("", email);
+
+        AggregationOperation sum = context -> new Document("$group",
+                new Document("_id", null).append("total", new Document("$sum", unread)));
+
+        Aggregation aggregation = Aggregation.newAggregation(
+                Aggregation.match(Criteria.where("participants").is(email)
+                        .and("type").ne(ConversationType.MEETING.name())),
+                sum);
+
+        Document result = mongoTemplate.aggregate(aggregation, Conversation.class, Document.class)
+                .getUniqueMappedResult();
+        return result != null ? ((Number) result.get("total")).longValue() : 0L;
+    }
+
+    private Query byId(String conversationId) {
+        return Query.query(Criteria.where("_id").is(conversationId));
+    }
+}
@@ -0,0 +1,110 @@
+package com.chung.webrtc.chat.repository;
+
+import com.chung.webrtc.common.util.MongoKeyUtil;
+import org.bson.Document;
+import org.springframework.data.mongodb.core.aggregation.AggregationOperation;
+import org.springframework.data.mongodb.core.aggregation.AggregationUpdate;
+import org.springframework.data.mongodb.core.query.Update;
+
+import java.time.Instant;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 🧱 Dựng Update / expression cho conversation, dùng chung cho update đơn lẻ,
+ * BulkOperations và aggregation.
+ * Unread = messageSeq - readSeq.<email>: gửi tin chỉ $inc messageSeq và đẩy watermark
+ * của người gửi, không đụng tới key của participant khác.
+ */
+public final class ConversationUpdates {
+
+    private ConversationUpdates() {}
+
+    /** Chỉ $set các field preview (meeting chat không đếm unread) */
+    public static Update preview(String sender, String senderName, String content, Instant at) {
+        return new Update()
+                .set("lastMessage", content)
+                .set("lastMessageTime", at)
+                .set("lastSender", sender)
+                .set("lastSenderName", senderName);
+    }
+
+    /**
+     * 💬 Thêm {@code count} tin vào conversation trong 1 update pipeline:
+     * preview = tin cuối (chỉ khi không cũ hơn preview hiện tại — tin ghi lại sau retry),
+     * messageSeq += count, readSeq.<sender> = seq của tin cuối mà sender đó gửi (offset 1..count trong lô).
+     */
+    public static AggregationUpdate append(String lastSender, String lastSenderName, String lastContent,
+                                           Instant lastAt, long count, Map<String, Long> senderOffsets) {
+        Document currentSeq = new Document("$ifNull", List.of("$messageSeq", 0L));
+        Date at = Date.from(lastAt);
+        Document newer = new Document("$gte", List.of(at,
+                new Document("$ifNull", List.of("$lastMessageTime", new Date(0)))));
+
+        Document set = new Document()
+                .append("lastMessage", keepIfOlder(newer, "lastMessage", new Document("$literal", lastContent)))
+                .append("lastSender", keepIfOlder(newer, "lastSender", new Document("$literal", lastSender)))
+                .append("lastSenderName", keepIfOlder(newer, "lastSenderName", new Document("$literal", lastSenderName)))
+                .append("lastMessageTime", keepIfOlder(newer, "lastMessageTime", at))
+                .append("messageSeq", new Document("$add", List.of(currentSeq, count)));
+
+        senderOffsets.forEach((sender, offset) ->
+                set.append(readSeqKey(sender), new Document("$add", List.of(currentSeq, offset))));
+
+        return pipeline(set);
+    }
+
+    /** 👁️ Đẩy watermark của user lên messageSeq hiện tại (không bao giờ lùi) */
+    public static AggregationUpdate markRead(String email) {
+        String key = readSeqKey(email);
+        Document set = new Document(key, new Document("$max", List.of(
+                new Document("$ifNull", List.of("$" + key, 0L)),
+                new Document("$ifNull", List.of("$messageSeq", 0L)))));
+        return pipeline(set);
+    }
+
+    /** ➕ Thành viên mới: chỉ tính unread từ thời điểm được thêm */
+    public static AggregationUpdate addParticipant(String email) {
+        Document set = new Document()
+                .append("participants", new Document("$setUnion", List.of(
+                        new Document("$ifNull", List.of("$participants", List.of())),
+                        new Document("$literal", List.of(email)))))
+                .append(readSeqKey(email), new Document("$ifNull", List.of("$messageSeq", 0L)));
+        return pipeline(set);
+    }
+
+    /**
+     * 🔢 Expression số tin chưa đọc của user trên 1 conversation.
+     * @param prefix đường dẫn tới conversation trong pipeline ("" nếu là document gốc, "conv." nếu sau $lookup)
+     */
+    public static Document unreadCountExpression(String prefix, String email) {
+        String seq = "$" + prefix + "messageSeq";
+        String read = "$" + prefix + readSeqKey(email);
+        String legacy = "$" + prefix + legacyUnreadKey(email);
+
+        // messageSeq > 0: messageSeq - watermark; conversation cũ: fallback cờ unreadMap
+        return new Document("$cond", List.of(
+                new Document("$gt", List.of(new Document("$ifNull", List.of(seq, 0L)), 0L)),
+                new Document("$max", List.of(0L, new Document("$subtract", List.of(
+                        seq, new Document("$ifNull", List.of(read, 0L)))))),
+                new Document("$cond", List.of(new Document("$eq", List.of(legacy, true)), 1L, 0L))));
+    }
+
+    public static String readSeqKey(String email) {
+        return "readSeq." + MongoKeyUtil.encode(email);
+    }
+
+    public static String legacyUnreadKey(String email) {
+        return "unreadMap." + MongoKeyUtil.encode(email);
+    }
+
+    private static Document keepIfOlder(Document newer, String field, Object value) {
+        return new Document("$cond", List.of(newer, value, "$" + field));
+    }
+
+    private static AggregationUpdate pipeline(Document set) {
+        AggregationOperation stage = context -> new Document("$set", set);
+        return AggregationUpdate.from(List.of(stage));
+    }
+}
@@ -1,8 +1,12 @@
 package com.chung.webrtc.chat.repository;
 
 import com.chung.webrtc.chat.entity.Message;
+import org.bson.types.ObjectId;
+import org.springframework.data.domain.Pageable;
 import org.springframework.data.mongodb.repository.MongoRepository;
+import org.springframework.data.mongodb.repository.Query;
 
+import java.time.Instant;
 import java.util.List;
 import java.util.Optional;
 
@@ -10,4 +14,21 @@ public interface MessageRepository extends MongoRepository<Message, String> {
     List<Message> findByConversationIdOrderByTimestampAsc(String conversationId);
 
     Optional<Message> findTopByConversationIdOrderByTimestampDesc(String conversationId);
-}
\ No newline at end of file
+
+    /**
+     * 📜 Trang mới nhất (sort + limit lấy từ Pageable)
+     */
+    List<Message> findByConversationId(String conversationId, Pageable pageable);
+
+    /**
+     * ⬆️ Keyset: các tin nhắn cũ hơn cursor (timestamp, _id)
+     */
+    @Query("{ 'conversationId': ?0, $or: [ { 'timestamp': { $lt: ?1 } }, { 'timestamp': ?1, '_id': { $lt: ?2 } } ] }")
+    List<Message> findPageBefore(String conversationId, Instant timestamp, ObjectId id, Pageable pageable);
+
+    /**
+     * ⬇️ Keyset: các tin nhắn mới hơn cursor (timestamp, _id)
+     */
+    @Query("{ 'conversationId': ?0, $or: [ { 'timestamp': { $gt: ?1 } }, { 'timestamp': ?1, '_id': { $gt: ?2 } } ] }")
+    List<Message> findPageAfter(String conversationId, Instant timestamp, ObjectId id, Pageable pageable);
+}
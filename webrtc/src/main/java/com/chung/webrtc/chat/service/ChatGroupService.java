@@ -2,6 +2,7 @@ package com.chung.webrtc.chat.service;
 
 import com.chung.webrtc.chat.dto.request.*;
 import com.chung.webrtc.chat.dto.response.GroupResponse;
+import com.chung.webrtc.chat.dto.response.MessagePageResponse;
 import com.chung.webrtc.chat.entity.Conversation;
 import com.chung.webrtc.chat.entity.Group;
 import com.chung.webrtc.chat.entity.Message;
@@ -34,6 +35,9 @@ public class ChatGroupService {
     private final MessageRepository messageRepo;
     private final ChatSessionRegistry chatSessionRegistry;
     private final ChatService chatService;
+    private final MessageWriteBehind messageWriteBehind;
+    private final SidebarCache sidebarCache;
+    private final GroupMembershipCache groupMembership;
     private final PermissionUtil permissionUtil;
     private final ObjectMapper mapper = new ObjectMapper();
 
@@ -65,6 +69,7 @@ public class ChatGroupService {
         members.forEach(m -> group.addMember(m, "USER"));
 
         Group saved = chatGroupRepo.save(group);
+        groupMembership.put(saved);
 
         // Tạo conversation tương ứng
         if (!saved.getMembers().isEmpty()) {
@@ -73,12 +78,13 @@ public class ChatGroupService {
                     .type(ConversationType.GROUP)
                     .participants(new HashSet<>(saved.getMembers()))
                     .createdAt(saved.getCreatedAt())
-                    .unreadMap(new HashMap<>())
+                    .readSeq(new HashMap<>())
                     .build();
             conversationRepo.save(conv);
             log.info("✅ Created group [{}] with {} members", saved.getName(), saved.getMembers().size());
         }
 
+        sidebarCache.invalidate(saved.getMembers());
         broadcastEventToGroup(saved.getId(), saved.getMembers(), buildGroupEvent("group-created", saved));
         return GroupMapper.toResponse(saved);
     }
@@ -94,11 +100,10 @@ public class ChatGroupService {
         group.addMember(req.getMemberEmail(), req.getRoleName());
         group.setUpdatedAt(Instant.now());
         chatGroupRepo.save(group);
+        groupMembership.put(group);
 
-        conversationRepo.findById(groupId).ifPresent(conv -> {
-            conv.getParticipants().add(req.getMemberEmail());
-            conversationRepo.save(conv);
-        });
+        conversationRepo.addParticipant(groupId, req.getMemberEmail());
+        sidebarCache.onMemberAdded(groupId, req.getMemberEmail());
 
         broadcastEventToGroup(groupId, group.getMembers(),
                 simpleEvent("group-member-added", groupId, req.getMemberEmail(), req.getRoleName()));
@@ -121,11 +126,10 @@ public class ChatGroupService {
         group.removeMember(req.getMemberEmail());
         group.setUpdatedAt(Instant.now());
         chatGroupRepo.save(group);
+        groupMembership.put(group);
 
-        conversationRepo.findById(groupId).ifPresent(conv -> {
-            conv.getParticipants().remove(req.getMemberEmail());
-            conversationRepo.save(conv);
-        });
+        conversationRepo.removeParticipant(groupId, req.getMemberEmail());
+        sidebarCache.onMemberRemoved(groupId, req.getMemberEmail());
 
         broadcastEventToGroup(groupId, group.getMembers(),
                 simpleEvent("group-member-removed", groupId, req.getMemberEmail(), null));
@@ -160,10 +164,9 @@ public class ChatGroupService {
         group.setUpdatedAt(Instant.now());
         Group updatedGroup = chatGroupRepo.save(group);
 
-        conversationRepo.findById(groupId).ifPresent(conv -> {
-            conv.setLastMessage("Group info updated");
-            conversationRepo.save(conv);
-        });
+        conversationRepo.setLastMessage(groupId, "Group info updated");
+        sidebarCache.onGroupInfoUpdated(groupId, updatedGroup.getName(), updatedGroup.getDescription(),
+                updatedGroup.getAvatar(), "Group info updated");
 
         broadcastEventToGroup(groupId, group.getMembers(), buildGroupEvent("group-updated", updatedGroup));
         return GroupMapper.toResponse(updatedGroup);
@@ -180,6 +183,7 @@ public class ChatGroupService {
         group.getRoleMap().put(MongoKeyUtil.encode(req.getMemberEmail()), req.getNewRole());
         group.setUpdatedAt(Instant.now());
         chatGroupRepo.save(group);
+        groupMembership.put(group);
 
         broadcastEventToGroup(groupId, group.getMembers(),
                 roleEvent("group-role-updated", groupId, req.getMemberEmail(), req.getNewRole()));
@@ -192,7 +196,9 @@ public class ChatGroupService {
 
         Group group = getGroupOrThrow(groupId);
         chatGroupRepo.delete(group);
+        groupMembership.evict(groupId);
         conversationRepo.deleteById(groupId);
+        sidebarCache.onConversationRemoved(groupId);
 
         broadcastEventToGroup(groupId, group.getMembers(),
                 simpleEvent("group-deleted", groupId, null, null));
@@ -212,8 +218,10 @@ public class ChatGroupService {
     public Message saveGroupMessage(String groupId, String sender, String content) {
         permissionUtil.validatePermission(sender, "CHAT_SEND");
 
-        Group group = getGroupOrThrow(groupId);
-        if (!group.getMembers().contains(sender)) {
+        // 👥 Membership từ cache (không đọc Mongo trên hot path)
+        GroupMembershipCache.Membership membership = groupMembership.get(groupId)
+                .orElseThrow(() -> new AppException(ErrorCode.BUSINESS_CONFLICT, "Group not found"));
+        if (!membership.isMember(sender)) {
             throw new AppException(ErrorCode.FORBIDDEN, "Sender is not a member of group");
         }
 
@@ -226,21 +234,19 @@ public class ChatGroupService {
                 .isGroup(true)
                 .build();
 
-        Message saved = messageRepo.save(msg);
-
-        conversationRepo.findById(groupId).ifPresent(conv -> updateConversation(conv, sender, content, now));
-
-        group.setUpdatedAt(now);
-        chatGroupRepo.save(group);
-
+        // ✅ Message, preview conversation và updatedAt của group được ghi theo lô
+        String senderName = chatService.getDisplayNameByEmail(sender);
+        Message saved = messageWriteBehind.submit(msg, senderName);
+        sidebarCache.onMessage(groupId, sender, senderName, content, saved.getTimestamp());
         return saved;
     }
 
-    public List<Message> getGroupMessages(String groupId) {
+    public MessagePageResponse getGroupMessages(String groupId, String before, String after, Integer limit) {
         Group group = getGroupOrThrow(groupId);
-        List<Message> messages = messageRepo.findByConversationIdOrderByTimestampAsc(groupId);
-        log.info("📜 Loaded {} messages for group {}", messages.size(), group.getName());
-        return messages;
+        MessagePageResponse page = chatService.getMessagePage(groupId, before, after, limit);
+        log.info("📜 Loaded {} messages for group {} (hasMore={})",
+                page.getMessages().size(), group.getName(), page.isHasMore());
+        return page;
     }
 
     // 💬 Meeting Chat Reuse
@@ -250,23 +256,9 @@ public class ChatGroupService {
 
         Instant now = Instant.now();
 
-        // ✅ Không lưu Message vào messageRepo (chỉ lưu Conversation metadata)
-        conversationRepo.findById(meetingCode).ifPresentOrElse(conv -> {
-            updateConversation(conv, sender, content, now);
-        }, () -> {
-            Conversation conv = Conversation.builder()
-                    .id(meetingCode)
-                    .type(ConversationType.MEETING)
-                    .participants(Set.of(sender))
-                    .createdAt(now)
-                    .lastMessage(content)
-                    .lastSender(sender)
-                    .lastSenderName(chatService.getDisplayNameByEmail(sender))
-                    .lastMessageTime(now)
-                    .unreadMap(new HashMap<>())
-                    .build();
-            conversationRepo.save(conv);
-        });
+        // ✅ Không lưu Message vào messageRepo (chỉ cập nhật preview Conversation tại chỗ)
+        conversationRepo.upsertMeetingPreview(meetingCode, sender,
+                chatService.getDisplayNameByEmail(sender), content, now);
 
         // ⚠️ Không lưu thực vào messageRepo, chỉ trả message tạm để gửi realtime
         return Message.builder()
@@ -297,19 +289,6 @@ public class ChatGroupService {
         }
     }
 
-    private void updateConversation(Conversation conv, String sender, String content, Instant now) {
-        conv.setLastMessage(content);
-        conv.setLastMessageTime(now);
-        conv.setLastSender(sender);
-        conv.setLastSenderName(chatService.getDisplayNameByEmail(sender));
-
-        Map<String, Boolean> unread = Optional.ofNullable(conv.getUnreadMap()).orElse(new HashMap<>());
-        conv.getParticipants().forEach(u -> unread.put(MongoKeyUtil.encode(u), !u.equals(sender)));
-        conv.setUnreadMap(unread);
-
-        conversationRepo.save(conv);
-    }
-
     private boolean isChanged(String newVal, String oldVal) {
         return newVal != null && !newVal.isBlank() && !newVal.equals(oldVal);
     }
@@ -0,0 +1,93 @@
+package com.chung.webrtc.chat.service;
+
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PostConstruct;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.stereotype.Component;
+import org.springframework.web.socket.WebSocketSession;
+
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * 🏠 Phòng chat đang mở (conversation 1-1 / group) → các session đang xem.
+ * - Index ngược session → phòng: dọn khi disconnect chỉ tốn O(số phòng session đã join).
+ * - Phòng rỗng bị xóa nguyên tử trong compute, map không phình theo thời gian chạy.
+ */
+@Slf4j
+@Component
+@RequiredArgsConstructor
+public class ChatRoomRegistry {
+
+    private final MeterRegistry meterRegistry;
+
+    public enum Kind { CONVERSATION, GROUP }
+
+    public record RoomKey(Kind kind, String id) {}
+
+    private final Map<RoomKey, Set<WebSocketSession>> rooms = new ConcurrentHashMap<>();
+    /** sessionId → các phòng session đã join */
+    private final Map<String, Set<RoomKey>> sessionRooms = new ConcurrentHashMap<>();
+
+    @PostConstruct
+    void registerMetrics() {
+        Gauge.builder("chat.rooms.count", rooms, Map::size)
+                .description("Số phòng chat đang có session")
+                .register(meterRegistry);
+        Gauge.builder("chat.rooms.avg_size", this, ChatRoomRegistry::averageRoomSize)
+                .description("Số session trung bình mỗi phòng")
+                .register(meterRegistry);
+    }
+
+    public void join(Kind kind, String id, WebSocketSession session) {
+        RoomKey key = new RoomKey(kind, id);
+        rooms.compute(key, (k, sessions) -> {
+            if (sessions == null) sessions = ConcurrentHashMap.newKeySet();
+            sessions.add(session);
+            return sessions;
+        });
+        sessionRooms.computeIfAbsent(session.getId(), k -> ConcurrentHashMap.newKeySet()).add(key);
+    }
+
+    public void leave(Kind kind, String id, WebSocketSession session) {
+        RoomKey key = new RoomKey(kind, id);
+        removeFromRoom(key, session);
+        sessionRooms.computeIfPresent(session.getId(), (k, keys) -> {
+            keys.remove(key);
+            return keys.isEmpty() ? null : keys;
+        });
+    }
+
+    /** 🔌 Rời mọi phòng khi disconnect, trả về các phòng đã rời */
+    public Set<RoomKey> leaveAll(WebSocketSession session) {
+        Set<RoomKey> keys = sessionRooms.remove(session.getId());
+        if (keys == null) return Set.of();
+        keys.forEach(key -> removeFromRoom(key, session));
+        return keys;
+    }
+
+    /** Session đang xem phòng (view live, rỗng nếu phòng không tồn tại) */
+    public Set<WebSocketSession> members(Kind kind, String id) {
+        return rooms.getOrDefault(new RoomKey(kind, id), Set.of());
+    }
+
+    private void removeFromRoom(RoomKey key, WebSocketSession session) {
+        rooms.computeIfPresent(key, (k, sessions) -> {
+            sessions.remove(session);
+            return sessions.isEmpty() ? null : sessions;
+        });
+    }
+
+    private double averageRoomSize() {
+        int roomCount = 0;
+        long sessionCount = 0;
+        for (Set<WebSocketSession> sessions : rooms.values()) {
+            roomCount++;
+            sessionCount += sessions.size();
+        }
+        return roomCount == 0 ? 0 : (double) sessionCount / roomCount;
+    }
+}
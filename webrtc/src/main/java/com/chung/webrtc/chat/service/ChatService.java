@@ -1,13 +1,20 @@
 package com.chung.webrtc.chat.service;
 
+import com.chung.webrtc.auth.service.DisplayNameService;
+import com.chung.webrtc.chat.dto.MessageCursor;
+import com.chung.webrtc.chat.dto.response.MessagePageResponse;
 import com.chung.webrtc.chat.entity.Conversation;
 import com.chung.webrtc.chat.entity.Message;
 import com.chung.webrtc.chat.enums.ConversationType;
 import com.chung.webrtc.chat.repository.ConversationRepository;
 import com.chung.webrtc.chat.repository.MessageRepository;
-import com.chung.webrtc.common.util.MongoKeyUtil;
+import com.chung.webrtc.common.exception.AppException;
+import com.chung.webrtc.common.exception.ErrorCode;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.data.domain.Sort;
 import org.springframework.stereotype.Service;
 
 import java.time.Instant;
@@ -20,6 +27,15 @@ public class ChatService {
 
     private final ConversationRepository conversationRepo;
     private final MessageRepository messageRepo;
+    private final MessageWriteBehind messageWriteBehind;
+    private final SidebarCache sidebarCache;
+    private final DisplayNameService displayNameService;
+
+    @Value("${app.chat.history.page-size:50}")
+    private int defaultPageSize;
+
+    @Value("${app.chat.history.max-page-size:200}")
+    private int maxPageSize;
 
     public Conversation getOrCreateConversation(String userA, String userB) {
         if (isInvalid(userA) || isInvalid(userB)) {
@@ -35,9 +51,11 @@ public class ChatService {
                             .type(ConversationType.DIRECT)
                             .participants(Set.of(userA, userB))
                             .createdAt(Instant.now())
-                            .unreadMap(new HashMap<>())
+                            .readSeq(new HashMap<>())
                             .build();
-                    return conversationRepo.save(conv);
+                    Conversation saved = conversationRepo.save(conv);
+                    sidebarCache.invalidate(userA, userB);
+                    return saved;
                 });
     }
 
@@ -53,39 +71,68 @@ public class ChatService {
                 .timestamp(Instant.now())
                 .build();
 
-        Message saved = messageRepo.save(msg);
-
-        conversationRepo.findById(conversationId).ifPresent(conv -> {
-            Instant now = Instant.now();
-
-            // ✅ Cập nhật thông tin tin nhắn cuối cùng
-            conv.setLastMessage(content);
-            conv.setLastMessageTime(now);
-
-            // ✅ Thêm người gửi cuối cùng
-            conv.setLastSender(sender);
+        // ✅ Ghi theo lô (message + preview/unread của conversation), trả về ngay để fan-out
+        String senderName = getDisplayNameByEmail(sender);
+        Message saved = messageWriteBehind.submit(msg, senderName);
+        sidebarCache.onMessage(conversationId, sender, senderName, content, saved.getTimestamp());
+        return saved;
+    }
 
-            // ✅ Lấy tên hiển thị (UserName hoặc rút gọn từ email)
-            conv.setLastSenderName(getDisplayNameByEmail(sender));
+    /**
+     * 📜 Lấy 1 trang lịch sử theo keyset (timestamp, _id).
+     * - Không có cursor: trang mới nhất
+     * - before: các tin cũ hơn cursor
+     * - after: các tin mới hơn cursor
+     * Kết quả luôn sắp tăng dần theo thời gian.
+     */
+    public MessagePageResponse getMessagePage(String conversationId, String before, String after, Integer limit) {
+        if (conversationId == null || conversationId.isBlank()) {
+            throw new AppException(ErrorCode.VALIDATION_ERROR, "conversationId is required");
+        }
 
-            // ✅ Cập nhật unreadMap cho tất cả người tham gia
-            Map<String, Boolean> unread = conv.getUnreadMap() != null
-                    ? new HashMap<>(conv.getUnreadMap())
-                    : new HashMap<>();
-            conv.getParticipants().forEach(u -> unread.put(MongoKeyUtil.encode(u), !u.equals(sender)));
-            conv.setUnreadMap(unread);
+        MessageCursor beforeCursor = MessageCursor.decode(before);
+        MessageCursor afterCursor = MessageCursor.decode(after);
+        if (beforeCursor != null && afterCursor != null) {
+            throw new AppException(ErrorCode.VALIDATION_ERROR, "Only one of 'before' or 'after' is allowed");
+        }
 
-            conversationRepo.save(conv);
+        // Tin vừa gửi có thể còn nằm trong lô write-behind → chỉ flush của conversation này
+        messageWriteBehind.flushConversation(conversationId);
+
+        int size = resolvePageSize(limit);
+        // Lấy dư 1 phần tử để biết còn trang tiếp theo hay không
+        PageRequest newestFirst = PageRequest.of(0, size + 1,
+                Sort.by(Sort.Order.desc("timestamp"), Sort.Order.desc("_id")));
+        PageRequest oldestFirst = PageRequest.of(0, size + 1,
+                Sort.by(Sort.Order.asc("timestamp"), Sort.Order.asc("_id")));
+
+        List<Message> page;
+        if (afterCursor != null) {
+            page = new ArrayList<>(messageRepo.findPageAfter(
+                    conversationId, afterCursor.getTimestamp(), afterCursor.getId(), oldestFirst));
+        } else if (beforeCursor != null) {
+            page = new ArrayList<>(messageRepo.findPageBefore(
+                    conversationId, beforeCursor.getTimestamp(), beforeCursor.getId(), newestFirst));
+        } else {
+            page = new ArrayList<>(messageRepo.findByConversationId(conversationId, newestFirst));
+        }
 
-            log.info("💾 Updated conversation [{}] → lastSender={}, lastSenderName={}, message='{}'",
-                    conversationId, sender, conv.getLastSenderName(), content);
-        });
+        boolean hasMore = page.size() > size;
+        if (hasMore) page = page.subList(0, size);
+        if (afterCursor == null) Collections.reverse(page);
 
-        return saved;
+        return MessagePageResponse.builder()
+                .conversationId(conversationId)
+                .messages(page)
+                .hasMore(hasMore)
+                .beforeCursor(page.isEmpty() ? before : MessageCursor.of(page.get(0)).encode())
+                .afterCursor(page.isEmpty() ? after : MessageCursor.of(page.get(page.size() - 1)).encode())
+                .build();
     }
 
-    public List<Message> getMessages(String conversationId) {
-        return messageRepo.findByConversationIdOrderByTimestampAsc(conversationId);
+    private int resolvePageSize(Integer limit) {
+        if (limit == null || limit <= 0) return defaultPageSize;
+        return Math.min(limit, maxPageSize);
     }
 
     public List<Conversation> getConversationsByUser(String email) {
@@ -93,31 +140,21 @@ public class ChatService {
     }
 
     public void markAsRead(String conversationId, String email) {
-        conversationRepo.findById(conversationId).ifPresent(conv -> {
-            if (conv.getUnreadMap() != null) {
-                String safeKey = MongoKeyUtil.encode(email);
-                conv.getUnreadMap().put(safeKey, false);
-                conversationRepo.save(conv);
-            }
-        });
+        conversationRepo.markAsRead(conversationId, email);
+        sidebarCache.onRead(conversationId, email);
     }
 
-    public Map<String, Boolean> decodeUnreadMap(Map<String, Boolean> encoded) {
-        return MongoKeyUtil.decodeMap(encoded);
+    /** 🔔 Tổng số tin chưa đọc của user (badge sidebar) */
+    public long countUnreadTotal(String email) {
+        return conversationRepo.countUnreadTotal(email);
     }
 
     private boolean isInvalid(String s) {
         return s == null || s.isBlank() || s.equalsIgnoreCase("undefined") || s.equalsIgnoreCase("null");
     }
 
-    /** ✅ Hiển thị tên người dùng hoặc "You" */
+    /** ✅ Tên hiển thị thật (firstName lastName), có cache; fallback rút gọn từ email */
     public String getDisplayNameByEmail(String email) {
-        try {
-            if (email == null) return "Unknown";
-            String namePart = email.split("@")[0];
-            return namePart.substring(0, 1).toUpperCase() + namePart.substring(1);
-        } catch (Exception e) {
-            return email;
-        }
+        return displayNameService.getDisplayName(email);
     }
 }
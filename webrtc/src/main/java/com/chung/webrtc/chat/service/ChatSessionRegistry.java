@@ -1,19 +1,24 @@
 package com.chung.webrtc.chat.service;
 
+import com.chung.webrtc.common.websocket.OutboundChannelRegistry;
+import com.chung.webrtc.common.websocket.SenderAwareFrame;
+import com.chung.webrtc.common.websocket.WsFrame;
+import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.stereotype.Component;
-import org.springframework.web.socket.TextMessage;
 import org.springframework.web.socket.WebSocketSession;
 
-import java.io.IOException;
 import java.time.Instant;
 import java.util.*;
 import java.util.concurrent.ConcurrentHashMap;
 
 @Slf4j
 @Component
+@RequiredArgsConstructor
 public class ChatSessionRegistry {
 
+    private final OutboundChannelRegistry outboundChannels;
+
     /** email -> set active websocket session */
     private final Map<String, Set<WebSocketSession>> userSessions = new ConcurrentHashMap<>();
 
@@ -78,26 +83,52 @@ public class ChatSessionRegistry {
 
     /** 📢 Broadcast tới tất cả user đang online */
     public void broadcastToAll(String message) {
+        broadcastToAll(WsFrame.of(message));
+    }
+
+    public void broadcastToAll(WsFrame frame) {
         userSessions.forEach((email, sessions) ->
-                sessions.forEach(session -> sendSafe(session, message))
+                sessions.forEach(session -> sendSafe(session, frame))
         );
         log.info("📡 Broadcasted message to all {} online users", userSessions.size());
     }
 
     /** 📢 Broadcast tới danh sách user cụ thể */
     public void broadcastToUsers(Set<String> emails, String message) {
+        broadcastToUsers(emails, WsFrame.of(message));
+    }
+
+    public void broadcastToUsers(Set<String> emails, WsFrame frame) {
         if (emails == null || emails.isEmpty()) return;
         for (String email : emails) {
             Set<WebSocketSession> sessions = userSessions.getOrDefault(email, Set.of());
             for (WebSocketSession session : sessions) {
-                sendSafe(session, message);
+                sendSafe(session, frame);
             }
         }
         log.debug("📡 Broadcasted to {} specific users", emails.size());
     }
 
+    /** 📢 Broadcast tin chat tới danh sách user: người gửi nhận bản "You", người khác nhận bản tên thật */
+    public void broadcastToUsers(Set<String> emails, SenderAwareFrame frame) {
+        if (emails == null || emails.isEmpty()) return;
+        for (String email : emails) {
+            Set<WebSocketSession> sessions = userSessions.getOrDefault(email, Set.of());
+            if (sessions.isEmpty()) continue;
+            WsFrame variant = frame.forRecipient(email);
+            for (WebSocketSession session : sessions) {
+                sendSafe(session, variant);
+            }
+        }
+        log.debug("📡 Broadcasted chat frame to {} users", emails.size());
+    }
+
     /** 📢 Broadcast tới tất cả thành viên trong group (theo groupId) */
     public void broadcastToGroup(String groupId, String message) {
+        broadcastToGroup(groupId, WsFrame.of(message));
+    }
+
+    public void broadcastToGroup(String groupId, WsFrame frame) {
         Set<String> members = groupMembers.getOrDefault(groupId, Set.of());
         if (members.isEmpty()) {
             log.debug("⚠️ No active WS members found for group {}", groupId);
@@ -107,7 +138,7 @@ public class ChatSessionRegistry {
         for (String email : members) {
             Set<WebSocketSession> sessions = userSessions.getOrDefault(email, Set.of());
             for (WebSocketSession session : sessions) {
-                sendSafe(session, message);
+                sendSafe(session, frame);
             }
         }
         log.info("📢 Broadcasted to group {} → {} online members", groupId, members.size());
@@ -120,10 +151,11 @@ public class ChatSessionRegistry {
             return;
         }
 
+        WsFrame frame = WsFrame.of(message);
         for (String email : memberEmails) {
             Set<WebSocketSession> sessions = userSessions.getOrDefault(email, Set.of());
             for (WebSocketSession session : sessions) {
-                sendSafe(session, message);
+                sendSafe(session, frame);
             }
         }
         log.info("📢 Broadcasted message to DB members of group {} → {}", groupId, memberEmails.size());
@@ -148,8 +180,9 @@ public class ChatSessionRegistry {
             return;
         }
 
+        WsFrame frame = WsFrame.of(message);
         for (WebSocketSession session : sessions) {
-            sendSafe(session, message);
+            sendSafe(session, frame);
         }
 
         log.info("📡 Sent direct message to user {} ({}) active sessions", email, sessions.size());
@@ -173,15 +206,8 @@ public class ChatSessionRegistry {
     // === 🧩 INTERNAL HELPER ===
     // ======================================================
 
-    private void sendSafe(WebSocketSession session, String message) {
-        synchronized (session) {
-            if (session.isOpen()) {
-                try {
-                    session.sendMessage(new TextMessage(message));
-                } catch (IOException | IllegalStateException e) {
-                    log.warn("⚠️ Failed to send WS to {}: {}", session.getId(), e.getMessage());
-                }
-            }
-        }
+    /** 📤 Enqueue vào outbound channel của session, không chờ socket */
+    private void sendSafe(WebSocketSession session, WsFrame frame) {
+        outboundChannels.send(session, frame);
     }
 }
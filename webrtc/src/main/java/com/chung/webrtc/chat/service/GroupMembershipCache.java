@@ -0,0 +1,95 @@
+package com.chung.webrtc.chat.service;
+
+import com.chung.webrtc.chat.entity.Group;
+import com.chung.webrtc.chat.repository.ChatGroupRepository;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.*;
+
+/**
+ * 👥 Cache thành viên group cho hot path gửi tin nhóm.
+ * - Dùng chung cho kiểm tra membership và danh sách người nhận → gửi tin nhóm không đọc Mongo.
+ * - LRU có giới hạn + TTL; addMember / removeMember / updateMemberRole ghi đè snapshot mới,
+ *   deleteGroup xóa khỏi cache.
+ * - Lần nạp từ DB chạy song song với 1 lần patch sẽ không ghi đè snapshot mới hơn (epoch).
+ */
+@Slf4j
+@Component
+@RequiredArgsConstructor
+public class GroupMembershipCache {
+
+    private final ChatGroupRepository chatGroupRepo;
+
+    @Value("${app.chat.group-membership.cache.max-groups:20000}")
+    private int maxGroups;
+
+    @Value("${app.chat.group-membership.cache.ttl-minutes:30}")
+    private long ttlMinutes;
+
+    /** Snapshot bất biến của membership 1 group */
+    public record Membership(Set<String> members, Instant loadedAt) {
+
+        public boolean isMember(String email) {
+            return members.contains(email);
+        }
+    }
+
+    private final LinkedHashMap<String, Membership> cache = new LinkedHashMap<>(1024, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, Membership> eldest) {
+            return size() > maxGroups;
+        }
+    };
+    private long epoch;
+
+    /** Membership của group, rỗng nếu group không tồn tại */
+    public Optional<Membership> get(String groupId) {
+        long startEpoch;
+        synchronized (cache) {
+            Membership cached = cache.get(groupId);
+            if (cached != null && cached.loadedAt().plus(Duration.ofMinutes(ttlMinutes)).isAfter(Instant.now())) {
+                return Optional.of(cached);
+            }
+            startEpoch = epoch;
+        }
+
+        Optional<Membership> loaded = chatGroupRepo.findMembershipById(groupId).map(GroupMembershipCache::snapshot);
+        synchronized (cache) {
+            if (epoch == startEpoch) {
+                loaded.ifPresentOrElse(m -> cache.put(groupId, m), () -> cache.remove(groupId));
+            }
+        }
+        return loaded;
+    }
+
+    /** Danh sách người nhận (rỗng nếu group không tồn tại) */
+    public Set<String> members(String groupId) {
+        return get(groupId).map(Membership::members).orElse(Set.of());
+    }
+
+    /** 🔄 Ghi đè bằng trạng thái vừa lưu (create / add / remove / đổi role) */
+    public void put(Group group) {
+        Membership snapshot = snapshot(group);
+        synchronized (cache) {
+            epoch++;
+            cache.put(group.getId(), snapshot);
+        }
+    }
+
+    public void evict(String groupId) {
+        synchronized (cache) {
+            epoch++;
+            cache.remove(groupId);
+        }
+    }
+
+    private static Membership snapshot(Group group) {
+        Set<String> members = group.getMembers() == null ? Set.of() : Set.copyOf(group.getMembers());
+        return new Membership(members, Instant.now());
+    }
+}
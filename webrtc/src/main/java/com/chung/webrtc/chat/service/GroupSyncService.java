@@ -0,0 +1,155 @@
+package com.chung.webrtc.chat.service;
+
+import com.chung.webrtc.chat.dto.SidebarEntry;
+import com.chung.webrtc.chat.enums.ConversationType;
+import com.chung.webrtc.chat.repository.ConversationUpdates;
+import com.chung.webrtc.common.websocket.WsFrame;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.mongodb.client.MongoCursor;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.bson.Document;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.stereotype.Service;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.*;
+
+/**
+ * 📡 Dữ liệu group cho sidebar bằng 1 aggregation duy nhất:
+ * groups → $lookup conversations (preview + unread) → $lookup tin mới nhất (chỉ khi chưa có preview).
+ * Frame "group-sync" được render bằng JsonGenerator, không dựng cây JSON trung gian.
+ */
+@Slf4j
+@Service
+@RequiredArgsConstructor
+public class GroupSyncService {
+
+    private final MongoTemplate mongoTemplate;
+    private final ChatService chatService;
+    private final ObjectMapper mapper;
+
+    /** 📥 Nạp các group của user (kèm preview + unread) từ 1 aggregation */
+    public List<SidebarEntry> loadGroupEntries(String email) {
+        List<SidebarEntry> result = new ArrayList<>();
+        try (MongoCursor<Document> cursor = mongoTemplate.getCollection("groups")
+                .aggregate(pipeline(email)).iterator()) {
+            while (cursor.hasNext()) {
+                result.add(toEntry(cursor.next()));
+            }
+        }
+        return result;
+    }
+
+    /** 📡 Render frame group-sync từ danh sách group đã có */
+    public WsFrame render(List<SidebarEntry> groups) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream(4096);
+        try (JsonGenerator gen = mapper.getFactory().createGenerator(out)) {
+            gen.writeStartObject();
+            gen.writeStringField("type", "group-sync");
+            gen.writeArrayFieldStart("groups");
+            for (SidebarEntry g : groups) writeGroup(gen, g);
+            gen.writeEndArray();
+            gen.writeEndObject();
+        }
+        return WsFrame.of(out.toByteArray());
+    }
+
+    private List<Document> pipeline(String email) {
+        Document previewMissing = new Document("$eq", List.of(
+                new Document("$strLenCP", new Document("$trim", new Document("input",
+                        new Document("$ifNull", List.of("$conv.lastMessage", ""))))), 0));
+
+        return List.of(
+                new Document("$match", new Document("members", email)),
+                new Document("$lookup", new Document("from", "conversations")
+                        .append("localField", "_id")
+                        .append("foreignField", "_id")
+                        .append("as", "conv")),
+                new Document("$unwind", new Document("path", "$conv")
+                        .append("preserveNullAndEmptyArrays", true)),
+                // Chỉ tra tin mới nhất khi conversation chưa có preview (key null → không khớp tin nào)
+                new Document("$set", new Document("fallbackKey", new Document("$cond",
+                        List.of(previewMissing, new Document("$toString", "$_id"), null)))),
+                new Document("$lookup", new Document("from", "messages")
+                        .append("localField", "fallbackKey")
+                        .append("foreignField", "conversationId")
+                        .append("pipeline", List.of(
+                                new Document("$sort", new Document("timestamp", -1).append("_id", -1)),
+                                new Document("$limit", 1),
+                                new Document("$project", new Document("content", 1)
+                                        .append("sender", 1).append("timestamp", 1))))
+                        .append("as", "latest")),
+                new Document("$project", new Document()
+                        .append("name", 1)
+                        .append("description", 1)
+                        .append("avatar", 1)
+                        .append("createdBy", 1)
+                        .append("members", 1)
+                        .append("createdAt", 1)
+                        .append("lastMessage", "$conv.lastMessage")
+                        .append("lastSender", "$conv.lastSender")
+                        .append("lastSenderName", "$conv.lastSenderName")
+                        .append("lastMessageTime", "$conv.lastMessageTime")
+                        .append("unreadCount", new Document("$ifNull", List.of(
+                                ConversationUpdates.unreadCountExpression("conv.", email), 0L)))
+                        .append("latest", new Document("$first", "$latest")))
+        );
+    }
+
+    private SidebarEntry toEntry(Document g) {
+        String lastMessage = g.getString("lastMessage");
+        String lastSender = g.getString("lastSender");
+        String lastSenderName = g.getString("lastSenderName");
+        Date lastMessageTime = g.getDate("lastMessageTime");
+
+        Document latest = g.get("latest", Document.class);
+        if ((lastMessage == null || lastMessage.isBlank()) && latest != null) {
+            lastMessage = latest.getString("content");
+            lastSender = latest.getString("sender");
+            lastSenderName = chatService.getDisplayNameByEmail(lastSender);
+            lastMessageTime = latest.getDate("timestamp");
+        }
+
+        Date createdAt = g.getDate("createdAt");
+        return SidebarEntry.builder()
+                .id(String.valueOf(g.get("_id")))
+                .type(ConversationType.GROUP)
+                .name(g.getString("name"))
+                .description(g.getString("description"))
+                .avatar(g.getString("avatar"))
+                .createdBy(g.getString("createdBy"))
+                .participants(new HashSet<>(g.getList("members", String.class, List.of())))
+                .createdAt(createdAt != null ? createdAt.toInstant() : null)
+                .lastMessage(lastMessage)
+                .lastSender(lastSender)
+                .lastSenderName(lastSenderName)
+                .lastMessageTime(lastMessageTime != null ? lastMessageTime.toInstant() : null)
+                .unreadCount(((Number) g.getOrDefault("unreadCount", 0L)).longValue())
+                .build();
+    }
+
+    private void writeGroup(JsonGenerator gen, SidebarEntry g) throws IOException {
+        Set<String> members = g.getParticipants() != null ? g.getParticipants() : Set.of();
+
+        gen.writeStartObject();
+        gen.writeStringField("id", g.getId());
+        gen.writeStringField("name", g.getName());
+        gen.writeStringField("description", g.getDescription());
+        gen.writeStringField("avatar", g.getAvatar());
+        gen.writeStringField("createdBy", g.getCreatedBy());
+        gen.writeArrayFieldStart("members");
+        for (String member : members) gen.writeString(member);
+        gen.writeEndArray();
+        gen.writeNumberField("memberCount", members.size());
+        gen.writeStringField("lastMessage", g.getLastMessage());
+        gen.writeStringField("lastSender", g.getLastSender());
+        gen.writeStringField("lastSenderName", g.getLastSenderName());
+        gen.writeStringField("lastMessageTime", g.getLastMessageTime() != null ? g.getLastMessageTime().toString() : null);
+        gen.writeBooleanField("unread", g.getUnreadCount() > 0);
+        gen.writeNumberField("unreadCount", g.getUnreadCount());
+        gen.writeEndObject();
+    }
+}
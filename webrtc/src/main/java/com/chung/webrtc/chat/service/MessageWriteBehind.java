@@ -0,0 +1,398 @@
+package com.chung.webrtc.chat.service;
+
+import com.chung.webrtc.chat.entity.Conversation;
+import com.chung.webrtc.chat.entity.Group;
+import com.chung.webrtc.chat.entity.Message;
+import com.chung.webrtc.chat.repository.ConversationUpdates;
+import com.mongodb.ErrorCategory;
+import com.mongodb.bulk.BulkWriteError;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.bson.types.ObjectId;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.mongodb.BulkOperationException;
+import org.springframework.data.mongodb.core.BulkOperations;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
+import org.springframework.data.mongodb.core.query.UpdateDefinition;
+import org.springframework.stereotype.Component;
+
+import java.time.Instant;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * ✍️ Write-behind cho tin nhắn chat (1-1 & nhóm).
+ * - Tin nhắn được gán sẵn _id + timestamp rồi trả về ngay để fan-out realtime.
+ * - Flush theo lô mỗi {@code flush-interval-ms} hoặc khi đủ {@code batch-size} tin:
+ *   1 bulk insert messages + 1 bulk update cho mỗi conversation (preview = tin cuối,
+ *   $inc messageSeq, watermark của người gửi) + 1 bulk update updatedAt cho group.
+ * - Không cần biết participants: unread của người khác tự tăng theo messageSeq.
+ * - Hàng đợi có giới hạn: khi đầy, thread gọi tự flush (backpressure) thay vì tăng RAM.
+ * - Đọc lịch sử chỉ flush tin đang chờ của đúng conversation đó ({@link #flushConversation}),
+ *   không chặn thread WS bằng 1 lần flush toàn cục.
+ * - Insert lỗi: chỉ tin ghi thành công mới cập nhật preview / messageSeq; tin lỗi được thử lại
+ *   (backoff theo flush-interval, tối đa {@code max-retries} lần) rồi mới tính là mất.
+ *   Duplicate key coi như thành công vì _id được gán sẵn (lần thử trước đã ghi được).
+ * - Update conversation (append) / group (updatedAt) lỗi cũng vào hàng thử lại với cùng backoff;
+ *   preview là keep-if-newer nên phát lại an toàn. Lỗi không rõ đã ghi hay chưa (mất kết nối)
+ *   được phát lại toàn bộ: chấp nhận đếm unread dư thay vì lệch vĩnh viễn.
+ */
+@Slf4j
+@Component
+@RequiredArgsConstructor
+public class MessageWriteBehind {
+
+    private final MongoTemplate mongoTemplate;
+    private final MeterRegistry meterRegistry;
+
+    @Value("${app.chat.write-behind.flush-interval-ms:50}")
+    private long flushIntervalMs;
+
+    @Value("${app.chat.write-behind.batch-size:200}")
+    private int batchSize;
+
+    @Value("${app.chat.write-behind.queue-capacity:10000}")
+    private int queueCapacity;
+
+    @Value("${app.chat.write-behind.max-retries:5}")
+    private int maxRetries;
+
+    private BlockingQueue<PendingMessage> queue;
+    // Tin insert lỗi chờ thử lại (chỉ ghi khi giữ flushLock)
+    private final Queue<PendingMessage> retries = new ConcurrentLinkedQueue<>();
+    // Update conversation / group lỗi chờ thử lại (tin đã insert xong)
+    private final Queue<PendingUpdate> updateRetries = new ConcurrentLinkedQueue<>();
+    private final ReentrantLock flushLock = new ReentrantLock();
+    // conversationId → số tin trong queue chưa ghi xong (giảm sau khi ghi, kể cả khi chuyển sang retry)
+    private final Map<String, Integer> pendingByConversation = new ConcurrentHashMap<>();
+    private final ScheduledExecutorService flusher = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread t = new Thread(r, "chat-write-behind");
+        t.setDaemon(true);
+        return t;
+    });
+
+    private Timer flushTimer;
+    private DistributionSummary batchSizeSummary;
+    private Counter failedMessages;
+    private Counter retriedMessages;
+    private Counter failedUpdates;
+    private Counter retriedUpdates;
+
+    /** Tin nhắn chờ ghi + tên hiển thị cho preview; attempts/retryAtNanos dùng khi thử lại */
+    private record PendingMessage(Message message, String senderName, int attempts, long retryAtNanos) {
+
+        PendingMessage(Message message, String senderName) {
+            this(message, senderName, 0, 0L);
+        }
+
+        PendingMessage nextAttempt(long backoffMs) {
+            return new PendingMessage(message, senderName, attempts + 1,
+                    System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(backoffMs));
+        }
+    }
+
+    /** 1 updateOne trên conversation / group, kèm số lần đã thử */
+    private record PendingUpdate(Class<?> collection, String id, UpdateDefinition update,
+                                 int attempts, long retryAtNanos) {
+
+        PendingUpdate(Class<?> collection, String id, UpdateDefinition update) {
+            this(collection, id, update, 0, 0L);
+        }
+
+        PendingUpdate nextAttempt(long backoffMs) {
+            return new PendingUpdate(collection, id, update, attempts + 1,
+                    System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(backoffMs));
+        }
+    }
+
+    /** Gom các tin cùng conversation trong 1 lô */
+    private static final class ConversationAppend {
+        private PendingMessage last;
+        private long count;
+        private final Map<String, Long> senderOffsets = new LinkedHashMap<>();
+
+        void add(PendingMessage p) {
+            last = p;
+            count++;
+            senderOffsets.put(p.message().getSender(), count);
+        }
+    }
+
+    @PostConstruct
+    void init() {
+        queue = new ArrayBlockingQueue<>(queueCapacity);
+        flushTimer = Timer.builder("chat.write_behind.flush")
+                .description("Thời gian ghi 1 lô tin nhắn xuống Mongo")
+                .publishPercentiles(0.5, 0.95, 0.99)
+                .register(meterRegistry);
+        batchSizeSummary = DistributionSummary.builder("chat.write_behind.batch.size")
+                .description("Số tin nhắn trong mỗi lô")
+                .register(meterRegistry);
+        failedMessages = Counter.builder("chat.write_behind.failed")
+                .description("Số tin nhắn bỏ sau khi hết lượt thử lại")
+                .register(meterRegistry);
+        retriedMessages = Counter.builder("chat.write_behind.retried")
+                .description("Số lượt thử lại insert tin nhắn")
+                .register(meterRegistry);
+        failedUpdates = Counter.builder("chat.write_behind.update.failed")
+                .description("Số update conversation / group bỏ sau khi hết lượt thử lại")
+                .register(meterRegistry);
+        retriedUpdates = Counter.builder("chat.write_behind.update.retried")
+                .description("Số lượt thử lại update conversation / group")
+                .register(meterRegistry);
+        Gauge.builder("chat.write_behind.queue.size", queue, Collection::size)
+                .register(meterRegistry);
+
+        flusher.scheduleWithFixedDelay(this::flushSafely, flushIntervalMs, flushIntervalMs, TimeUnit.MILLISECONDS);
+        log.info("✍️ Chat write-behind started (interval={}ms, batch={}, capacity={})",
+                flushIntervalMs, batchSize, queueCapacity);
+    }
+
+    /**
+     * 📥 Nhận tin nhắn vào lô chờ ghi.
+     * Gán _id (ObjectId) và timestamp ngay để cursor / fan-out dùng được trước khi flush.
+     */
+    public Message submit(Message message, String senderName) {
+        if (message.getId() == null) message.setId(new ObjectId().toHexString());
+        if (message.getTimestamp() == null) message.setTimestamp(Instant.now());
+
+        PendingMessage pending = new PendingMessage(message, senderName);
+        pendingByConversation.merge(message.getConversationId(), 1, Integer::sum);
+        while (!queue.offer(pending)) {
+            // Hàng đợi đầy → thread gọi tự flush thay vì buffer thêm
+            flushSafely();
+        }
+
+        if (queue.size() >= batchSize) {
+            flusher.execute(this::flushSafely);
+        }
+        return message;
+    }
+
+    public boolean hasPending() {
+        return !queue.isEmpty() || !retries.isEmpty() || !updateRetries.isEmpty();
+    }
+
+    public boolean hasPending(String conversationId) {
+        return pendingByConversation.containsKey(conversationId);
+    }
+
+    /** 🚿 Flush toàn bộ ngay */
+    public void flushNow() {
+        flushSafely();
+    }
+
+    /**
+     * 🚿 Chỉ ghi tin đang chờ của 1 conversation (trước khi đọc lịch sử / watermark của nó).
+     * Conversation không có tin chờ → trả về ngay, không đụng flushLock.
+     * Tin đang chờ retry (backoff) không được ép ghi.
+     */
+    public void flushConversation(String conversationId) {
+        if (!hasPending(conversationId)) return;
+        try {
+            flushLock.lock();
+            try {
+                List<PendingMessage> batch = new ArrayList<>();
+                queue.removeIf(p -> {
+                    if (!conversationId.equals(p.message().getConversationId())) return false;
+                    batch.add(p);
+                    return true;
+                });
+                if (batch.isEmpty()) return;
+                try {
+                    flushTimer.record(() -> writeBatch(batch));
+                } finally {
+                    batch.forEach(this::release);
+                }
+            } finally {
+                flushLock.unlock();
+            }
+        } catch (Exception e) {
+            log.error("❌ Chat write-behind flush error for {}: {}", conversationId, e.getMessage(), e);
+        }
+    }
+
+    private void release(PendingMessage p) {
+        pendingByConversation.computeIfPresent(p.message().getConversationId(), (k, n) -> n > 1 ? n - 1 : null);
+    }
+
+    private void flushSafely() {
+        flush(false);
+    }
+
+    private void flush(boolean force) {
+        try {
+            flushLock.lock();
+            try {
+                flushRetries(force);
+                while (!queue.isEmpty()) {
+                    List<PendingMessage> batch = new ArrayList<>(batchSize);
+                    queue.drainTo(batch, batchSize);
+                    if (batch.isEmpty()) break;
+                    try {
+                        flushTimer.record(() -> writeBatch(batch));
+                    } finally {
+                        batch.forEach(this::release);
+                    }
+                }
+            } finally {
+                flushLock.unlock();
+            }
+        } catch (Exception e) {
+            log.error("❌ Chat write-behind flush error: {}", e.getMessage(), e);
+        }
+    }
+
+    /** 🔁 Ghi lại các tin đã tới hạn thử lại (force: bỏ qua backoff, dùng lúc shutdown) */
+    private void flushRetries(boolean force) {
+        long now = System.nanoTime();
+        if (!updateRetries.isEmpty()) {
+            List<PendingUpdate> dueUpdates = new ArrayList<>();
+            updateRetries.removeIf(u -> {
+                if (!force && u.retryAtNanos() - now > 0) return false;
+                dueUpdates.add(u);
+                return true;
+            });
+            applyUpdates(dueUpdates);
+        }
+        if (retries.isEmpty()) return;
+        List<PendingMessage> due = new ArrayList<>();
+        retries.removeIf(p -> {
+            if (!force && p.retryAtNanos() - now > 0) return false;
+            due.add(p);
+            return true;
+        });
+        for (int from = 0; from < due.size(); from += batchSize) {
+            List<PendingMessage> batch = due.subList(from, Math.min(from + batchSize, due.size()));
+            flushTimer.record(() -> writeBatch(batch));
+        }
+    }
+
+    private void writeBatch(List<PendingMessage> batch) {
+        batchSizeSummary.record(batch.size());
+
+        List<PendingMessage> written = insertMessages(batch);
+        if (written.isEmpty()) return;
+
+        Map<String, ConversationAppend> appends = new LinkedHashMap<>();
+        Map<String, Instant> touchedGroups = new LinkedHashMap<>();
+        for (PendingMessage p : written) {
+            Message m = p.message();
+            appends.computeIfAbsent(m.getConversationId(), k -> new ConversationAppend()).add(p);
+            if (m.isGroup()) touchedGroups.put(m.getConversationId(), m.getTimestamp());
+        }
+
+        List<PendingUpdate> updates = new ArrayList<>(appends.size() + touchedGroups.size());
+        appends.forEach((convId, a) -> {
+            Message last = a.last.message();
+            updates.add(new PendingUpdate(Conversation.class, convId,
+                    ConversationUpdates.append(last.getSender(), a.last.senderName(), last.getContent(),
+                            last.getTimestamp(), a.count, a.senderOffsets)));
+        });
+        touchedGroups.forEach((groupId, ts) ->
+                updates.add(new PendingUpdate(Group.class, groupId, new Update().max("updatedAt", ts))));
+        applyUpdates(updates);
+
+        log.debug("💾 Flushed {} messages → {} conversations, {} groups",
+                written.size(), appends.size(), touchedGroups.size());
+    }
+
+    /**
+     * 💾 Bulk insert lô tin nhắn, trả về các tin đã nằm trong DB.
+     * Tin lỗi (trừ duplicate key) được đưa vào hàng thử lại hoặc bỏ khi hết lượt.
+     */
+    private List<PendingMessage> insertMessages(List<PendingMessage> batch) {
+        try {
+            BulkOperations messageOps = mongoTemplate.bulkOps(BulkOperations.BulkMode.UNORDERED, Message.class);
+            batch.forEach(p -> messageOps.insert(p.message()));
+            messageOps.execute();
+            return batch;
+        } catch (BulkOperationException e) {
+            // UNORDERED: chỉ các index trong errors bị lỗi, phần còn lại đã ghi
+            Set<Integer> failed = new HashSet<>();
+            for (BulkWriteError error : e.getErrors()) {
+                if (ErrorCategory.fromErrorCode(error.getCode()) != ErrorCategory.DUPLICATE_KEY) {
+                    failed.add(error.getIndex());
+                }
+            }
+            List<PendingMessage> written = new ArrayList<>(batch.size() - failed.size());
+            for (int i = 0; i < batch.size(); i++) {
+                if (failed.contains(i)) retryOrDrop(batch.get(i), e);
+                else written.add(batch.get(i));
+            }
+            return written;
+        } catch (Exception e) {
+            batch.forEach(p -> retryOrDrop(p, e));
+            return List.of();
+        }
+    }
+
+    /** 🧾 Bulk updateOne theo collection; update lỗi vào hàng thử lại hoặc bỏ (có metric) khi hết lượt */
+    private void applyUpdates(List<PendingUpdate> updates) {
+        Map<Class<?>, List<PendingUpdate>> byCollection = new LinkedHashMap<>();
+        updates.forEach(u -> byCollection.computeIfAbsent(u.collection(), k -> new ArrayList<>()).add(u));
+
+        byCollection.forEach((collection, list) -> {
+            try {
+                BulkOperations ops = mongoTemplate.bulkOps(BulkOperations.BulkMode.UNORDERED, collection);
+                list.forEach(u -> ops.updateOne(Query.query(Criteria.where("_id").is(u.id())), u.update()));
+                ops.execute();
+            } catch (BulkOperationException e) {
+                // UNORDERED: chỉ phát lại đúng các update lỗi ($inc messageSeq không idempotent)
+                e.getErrors().forEach(error -> retryOrDrop(list.get(error.getIndex()), e));
+            } catch (Exception e) {
+                list.forEach(u -> retryOrDrop(u, e));
+            }
+        });
+    }
+
+    private void retryOrDrop(PendingUpdate u, Exception cause) {
+        if (u.attempts() < maxRetries) {
+            retriedUpdates.increment();
+            updateRetries.add(u.nextAttempt(flushIntervalMs << Math.min(u.attempts(), 6)));
+            log.warn("⚠️ Update {} {} failed (attempt {}/{}), will retry: {}",
+                    u.collection().getSimpleName(), u.id(), u.attempts() + 1, maxRetries, cause.getMessage());
+        } else {
+            failedUpdates.increment();
+            log.error("❌ Dropped {} update {} after {} retries: {}",
+                    u.collection().getSimpleName(), u.id(), maxRetries, cause.getMessage());
+        }
+    }
+
+    private void retryOrDrop(PendingMessage p, Exception cause) {
+        if (p.attempts() < maxRetries) {
+            retriedMessages.increment();
+            retries.add(p.nextAttempt(flushIntervalMs << Math.min(p.attempts(), 6)));
+            log.warn("⚠️ Insert message {} failed (attempt {}/{}), will retry: {}",
+                    p.message().getId(), p.attempts() + 1, maxRetries, cause.getMessage());
+        } else {
+            failedMessages.increment();
+            log.error("❌ Dropped chat message {} in {} after {} retries: {}",
+                    p.message().getId(), p.message().getConversationId(), maxRetries, cause.getMessage());
+        }
+    }
+
+    @PreDestroy
+    void shutdown() {
+        flusher.shutdown();
+        try {
+            flusher.awaitTermination(5, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        flush(true);
+        log.info("🛑 Chat write-behind stopped (remaining={}, retrying={}, retryingUpdates={})",
+                queue.size(), retries.size(), updateRetries.size());
+    }
+}
@@ -0,0 +1,167 @@
+package com.chung.webrtc.chat.service;
+
+import com.chung.webrtc.chat.dto.SidebarEntry;
+import com.chung.webrtc.common.websocket.OutboundChannelRegistry;
+import com.chung.webrtc.common.websocket.WsFrame;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import org.springframework.web.socket.WebSocketSession;
+
+import java.time.Instant;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 🟢 Presence theo phạm vi quan tâm.
+ * - Interest set của user = participants của các conversation / group trong sidebar.
+ * - watchers: email → các user online đang quan tâm email đó.
+ * - Thay đổi online/offline được gom lại và gửi mỗi {@code flush-interval-ms}
+ *   dưới dạng 1 frame "presence-delta" cho mỗi watcher (chỉ chứa contact của họ).
+ * - Snapshot ban đầu chỉ gồm contact đang online, không phải toàn bộ user online.
+ */
+@Slf4j
+@Component
+@RequiredArgsConstructor
+public class PresenceService {
+
+    private final ChatSessionRegistry chatSessionRegistry;
+    private final SidebarService sidebarService;
+    private final OutboundChannelRegistry outboundChannels;
+    private final ObjectMapper mapper;
+
+    @Value("${app.chat.presence.flush-interval-ms:250}")
+    private long flushIntervalMs;
+
+    /** email -> contacts của user (chỉ giữ khi user online) */
+    private final Map<String, Set<String>> interests = new ConcurrentHashMap<>();
+
+    /** email -> các user online đang quan tâm email này */
+    private final Map<String, Set<String>> watchers = new ConcurrentHashMap<>();
+
+    /** email -> trạng thái mới nhất chưa gửi (last write wins trong 1 chu kỳ) */
+    private final Map<String, Boolean> pending = new ConcurrentHashMap<>();
+
+    private final ScheduledExecutorService flusher = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread t = new Thread(r, "presence-flusher");
+        t.setDaemon(true);
+        return t;
+    });
+
+    @PostConstruct
+    void start() {
+        flusher.scheduleWithFixedDelay(this::flushSafely, flushIntervalMs, flushIntervalMs, TimeUnit.MILLISECONDS);
+    }
+
+    @PreDestroy
+    void stop() {
+        flusher.shutdownNow();
+    }
+
+    /** 🟢 Session chat mới của user */
+    public void onConnect(String email) {
+        refreshInterests(email);
+        pending.put(email, true);
+    }
+
+    /** 🔴 Session chat đóng: chỉ offline khi user không còn session nào */
+    public void onDisconnect(String email) {
+        if (!chatSessionRegistry.getSessions(email).isEmpty()) return;
+        unwatchAll(email);
+        pending.put(email, false);
+    }
+
+    /** 🔄 Tính lại contacts (khi join conversation mới / xin lại danh sách online) */
+    public synchronized void refreshInterests(String email) {
+        Set<String> contacts = new HashSet<>();
+        for (SidebarEntry entry : sidebarService.getSidebar(email)) {
+            if (entry.getParticipants() != null) contacts.addAll(entry.getParticipants());
+        }
+        contacts.remove(email);
+
+        Set<String> previous = interests.put(email, contacts);
+        if (previous != null) {
+            previous.stream()
+                    .filter(c -> !contacts.contains(c))
+                    .forEach(c -> removeWatcher(c, email));
+        }
+        contacts.forEach(c -> watchers.computeIfAbsent(c, k -> ConcurrentHashMap.newKeySet()).add(email));
+    }
+
+    /** 📋 Frame "online-users" chỉ gồm contact đang online */
+    public WsFrame snapshotFrame(String email) {
+        Set<String> contacts = interests.getOrDefault(email, Set.of());
+        ObjectNode msg = mapper.createObjectNode();
+        msg.put("type", "online-users");
+        ArrayNode arr = msg.putArray("users");
+        contacts.stream()
+                .filter(c -> !chatSessionRegistry.getSessions(c).isEmpty())
+                .forEach(arr::add);
+        return WsFrame.of(mapper, msg);
+    }
+
+    private synchronized void unwatchAll(String email) {
+        Set<String> contacts = interests.remove(email);
+        if (contacts != null) contacts.forEach(c -> removeWatcher(c, email));
+    }
+
+    private void removeWatcher(String target, String watcher) {
+        watchers.computeIfPresent(target, (k, set) -> {
+            set.remove(watcher);
+            return set.isEmpty() ? null : set;
+        });
+    }
+
+    private void flushSafely() {
+        try {
+            flush();
+        } catch (Exception e) {
+            log.error("❌ Presence flush error: {}", e.getMessage(), e);
+        }
+    }
+
+    private void flush() {
+        if (pending.isEmpty()) return;
+
+        Map<String, Boolean> changes = new HashMap<>();
+        for (String email : new ArrayList<>(pending.keySet())) {
+            Boolean online = pending.remove(email);
+            if (online != null) changes.put(email, online);
+        }
+
+        // watcher → các thay đổi của contact mà watcher quan tâm
+        Map<String, List<String>> deltas = new HashMap<>();
+        changes.keySet().forEach(email -> watchers.getOrDefault(email, Set.of())
+                .forEach(w -> deltas.computeIfAbsent(w, k -> new ArrayList<>()).add(email)));
+
+        deltas.forEach((watcher, emails) -> {
+            Set<WebSocketSession> sessions = chatSessionRegistry.getSessions(watcher);
+            if (sessions.isEmpty()) return;
+
+            ObjectNode msg = mapper.createObjectNode();
+            msg.put("type", "presence-delta");
+            ArrayNode arr = msg.putArray("changes");
+            for (String email : emails) {
+                ObjectNode change = arr.addObject();
+                change.put("email", email);
+                change.put("online", changes.get(email));
+                Instant lastSeen = chatSessionRegistry.getLastSeen(email);
+                if (lastSeen != null && !changes.get(email)) change.put("lastSeen", lastSeen.toString());
+            }
+
+            WsFrame frame = WsFrame.of(mapper, msg);
+            sessions.forEach(s -> outboundChannels.send(s, frame));
+        });
+
+        log.debug("🟢 Presence flush: {} changes → {} watchers", changes.size(), deltas.size());
+    }
+}
@@ -0,0 +1,137 @@
+package com.chung.webrtc.chat.service;
+
+import com.chung.webrtc.chat.entity.Conversation;
+import com.chung.webrtc.chat.repository.ConversationRepository;
+import com.chung.webrtc.chat.repository.ConversationUpdates;
+import com.chung.webrtc.common.websocket.WsFrame;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.mongodb.core.BulkOperations;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.stereotype.Component;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 👁️ Gom read receipt theo (user, conversation) trong 1 cửa sổ ngắn.
+ * - Nhiều read-update liên tiếp của cùng user / conversation → 1 lần ghi + 1 frame.
+ * - Mỗi lô: 1 bulk update watermark + 1 query participants cho mọi conversation trong lô.
+ * - Frame chỉ gửi tới participants của conversation (không broadcast toàn hệ thống).
+ * - Reader không phải participant: filter bulk không khớp (không tạo readSeq.<email>), không phát frame.
+ */
+@Slf4j
+@Component
+@RequiredArgsConstructor
+public class ReadReceiptBatcher {
+
+    private final MongoTemplate mongoTemplate;
+    private final ConversationRepository conversationRepo;
+    private final MessageWriteBehind messageWriteBehind;
+    private final SidebarCache sidebarCache;
+    private final ChatSessionRegistry chatSessionRegistry;
+    private final ObjectMapper mapper;
+    private final MeterRegistry meterRegistry;
+
+    @Value("${app.chat.read-receipt.window-ms:200}")
+    private long windowMs;
+
+    private record ReadMark(String conversationId, String reader) {}
+
+    private final Set<ReadMark> pending = ConcurrentHashMap.newKeySet();
+    private final ScheduledExecutorService flusher = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread t = new Thread(r, "chat-read-receipts");
+        t.setDaemon(true);
+        return t;
+    });
+
+    private Counter submitted;
+    private Counter written;
+
+    @PostConstruct
+    void init() {
+        submitted = Counter.builder("chat.read_receipt.submitted")
+                .description("Số read-update nhận từ client")
+                .register(meterRegistry);
+        written = Counter.builder("chat.read_receipt.written")
+                .description("Số read receipt đã ghi sau khi gộp")
+                .register(meterRegistry);
+        flusher.scheduleWithFixedDelay(this::flushSafely, windowMs, windowMs, TimeUnit.MILLISECONDS);
+    }
+
+    /** 📥 Ghi nhận user đã đọc conversation (gộp trong cửa sổ hiện tại) */
+    public void submit(String conversationId, String reader) {
+        if (conversationId == null || conversationId.isBlank() || reader == null) return;
+        submitted.increment();
+        pending.add(new ReadMark(conversationId, reader));
+    }
+
+    private void flushSafely() {
+        try {
+            flush();
+        } catch (Exception e) {
+            log.error("❌ Read receipt flush error: {}", e.getMessage(), e);
+        }
+    }
+
+    private synchronized void flush() {
+        if (pending.isEmpty()) return;
+        List<ReadMark> batch = new ArrayList<>(pending.size());
+        for (Iterator<ReadMark> it = pending.iterator(); it.hasNext(); ) {
+            batch.add(it.next());
+            it.remove();
+        }
+
+        // Watermark đọc tới messageSeq đã ghi → cần flush tin đang chờ của các conversation này trước
+        batch.forEach(mark -> messageWriteBehind.flushConversation(mark.conversationId()));
+
+        BulkOperations ops = mongoTemplate.bulkOps(BulkOperations.BulkMode.UNORDERED, Conversation.class);
+        batch.forEach(mark -> ops.updateOne(Query.query(Criteria.where("_id").is(mark.conversationId())
+                        .and("participants").is(mark.reader())),
+                ConversationUpdates.markRead(mark.reader())));
+        ops.execute();
+
+        Map<String, Set<String>> participants = new HashMap<>();
+        Set<String> conversationIds = new HashSet<>();
+        batch.forEach(mark -> conversationIds.add(mark.conversationId()));
+        conversationRepo.findParticipantsByIdIn(conversationIds).forEach(conv ->
+                participants.put(conv.getId(), conv.getParticipants() == null ? Set.of() : conv.getParticipants()));
+
+        int accepted = 0;
+        for (ReadMark mark : batch) {
+            Set<String> members = participants.getOrDefault(mark.conversationId(), Set.of());
+            if (!members.contains(mark.reader())) {
+                log.debug("🚫 Ignored read mark of non-participant {} on {}", mark.reader(), mark.conversationId());
+                continue;
+            }
+            accepted++;
+            sidebarCache.onRead(mark.conversationId(), mark.reader());
+
+            ObjectNode event = mapper.createObjectNode();
+            event.put("type", "read-update");
+            event.put("conversationId", mark.conversationId());
+            event.put("reader", mark.reader());
+            chatSessionRegistry.broadcastToUsers(members, WsFrame.of(mapper, event));
+        }
+        written.increment(accepted);
+        log.debug("👁️ Flushed {} read receipts → {} conversations", batch.size(), conversationIds.size());
+    }
+
+    @PreDestroy
+    void shutdown() {
+        flusher.shutdown();
+        flushSafely();
+    }
+}
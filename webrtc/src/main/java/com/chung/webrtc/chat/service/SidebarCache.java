@@ -0,0 +1,286 @@
+package com.chung.webrtc.chat.service;
+
+import com.chung.webrtc.chat.dto.SidebarEntry;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PostConstruct;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.BiConsumer;
+import java.util.function.Function;
+
+/**
+ * 🗂️ Cache sidebar theo user (groups + conversation 1-1 + preview + unread).
+ * - LRU có giới hạn số user + TTL để tự làm mới nếu có drift.
+ * - Nạp khi truy cập lần đầu, sau đó được vá tại chỗ bởi event từ ChatService / ChatGroupService.
+ * - Index conversationId → users đang được cache để vá đúng người.
+ * - Epoch guard: patch xảy ra trong lúc loader đang chạy (ngoài lock) đánh dấu conversation / user bẩn;
+ *   snapshot vừa nạp có đụng tới chúng thì chỉ trả về, không cache (tránh ghi đè patch bằng dữ liệu cũ).
+ */
+@Slf4j
+@Component
+@RequiredArgsConstructor
+public class SidebarCache {
+
+    private final MeterRegistry meterRegistry;
+
+    @Value("${app.chat.sidebar-cache.max-users:10000}")
+    private int maxUsers;
+
+    @Value("${app.chat.sidebar-cache.ttl-minutes:15}")
+    private long ttlMinutes;
+
+    private record Snapshot(Map<String, SidebarEntry> entries, Instant loadedAt) {}
+
+    /** email -> snapshot (access-order để evict LRU) */
+    private final LinkedHashMap<String, Snapshot> snapshots = new LinkedHashMap<>(256, 0.75f, true);
+
+    /** conversationId -> emails đang có conversation này trong cache */
+    private final Map<String, Set<String>> usersByConversation = new ConcurrentHashMap<>();
+
+    /** Epoch tăng mỗi lần patch; chỉ ghi nhận conversation / user bị patch khi có loader đang chạy */
+    private long epoch;
+    private int loadsInFlight;
+    private final Map<String, Long> dirtyConversations = new HashMap<>();
+    private final Map<String, Long> dirtyUsers = new HashMap<>();
+
+    private Counter hits;
+    private Counter misses;
+    private Counter evictions;
+    private Counter staleLoads;
+
+    @PostConstruct
+    void initMetrics() {
+        hits = Counter.builder("chat.sidebar_cache.hits").register(meterRegistry);
+        misses = Counter.builder("chat.sidebar_cache.misses").register(meterRegistry);
+        evictions = Counter.builder("chat.sidebar_cache.evictions").register(meterRegistry);
+        staleLoads = Counter.builder("chat.sidebar_cache.stale_loads")
+                .description("Snapshot bị bỏ vì có patch trong lúc nạp")
+                .register(meterRegistry);
+        Gauge.builder("chat.sidebar_cache.size", this, SidebarCache::size).register(meterRegistry);
+    }
+
+    /**
+     * 📥 Lấy sidebar của user; nạp bằng {@code loader} nếu chưa có / hết hạn.
+     * Trả về bản copy, an toàn để render ngoài lock.
+     */
+    public List<SidebarEntry> get(String email, Function<String, List<SidebarEntry>> loader) {
+        long startEpoch;
+        synchronized (this) {
+            Snapshot snapshot = snapshots.get(email);
+            if (snapshot != null && !isExpired(snapshot)) {
+                hits.increment();
+                return copy(snapshot);
+            }
+            if (snapshot != null) remove(email);
+            startEpoch = epoch;
+            loadsInFlight++;
+        }
+
+        misses.increment();
+        List<SidebarEntry> loaded;
+        try {
+            loaded = loader.apply(email);
+        } catch (RuntimeException e) {
+            synchronized (this) {
+                endLoad();
+            }
+            throw e;
+        }
+
+        synchronized (this) {
+            boolean stale = isDirtySince(email, loaded, startEpoch);
+            endLoad();
+            if (stale) {
+                // Có patch chen giữa → dữ liệu vừa nạp có thể đã cũ; lần sau nạp lại
+                staleLoads.increment();
+                log.debug("🗂️ Sidebar load for {} raced with a patch, not cached", email);
+                return loaded;
+            }
+
+            Map<String, SidebarEntry> entries = new LinkedHashMap<>();
+            loaded.forEach(e -> {
+                // participants phải mutable để vá member tại chỗ
+                e.setParticipants(e.getParticipants() != null ? new HashSet<>(e.getParticipants()) : new HashSet<>());
+                entries.put(e.getId(), e);
+            });
+            remove(email);
+            snapshots.put(email, new Snapshot(entries, Instant.now()));
+            entries.keySet().forEach(id -> usersByConversation
+                    .computeIfAbsent(id, k -> ConcurrentHashMap.newKeySet()).add(email));
+            evictOverflow();
+            return copy(snapshots.get(email));
+        }
+    }
+
+    // ======================================================
+    // 🩹 PATCH EVENTS
+    // ======================================================
+
+    /** 💬 Tin mới: cập nhật preview; người gửi hết unread, người khác +1 */
+    public synchronized void onMessage(String conversationId, String sender, String senderName,
+                                       String content, Instant at) {
+        markConversation(conversationId);
+        forEachCached(conversationId, (email, entry) -> {
+            entry.setLastMessage(content);
+            entry.setLastSender(sender);
+            entry.setLastSenderName(senderName);
+            entry.setLastMessageTime(at);
+            entry.setUnreadCount(email.equals(sender) ? 0 : entry.getUnreadCount() + 1);
+        });
+    }
+
+    /** 👁️ User đã đọc conversation */
+    public synchronized void onRead(String conversationId, String email) {
+        markUser(email);
+        Snapshot snapshot = snapshots.get(email);
+        if (snapshot == null) return;
+        SidebarEntry entry = snapshot.entries().get(conversationId);
+        if (entry != null) entry.setUnreadCount(0);
+    }
+
+    /** ✏️ Đổi tên / mô tả / avatar group */
+    public synchronized void onGroupInfoUpdated(String groupId, String name, String description,
+                                                String avatar, String lastMessage) {
+        markConversation(groupId);
+        forEachCached(groupId, (email, entry) -> {
+            entry.setName(name);
+            entry.setDescription(description);
+            entry.setAvatar(avatar);
+            if (lastMessage != null) entry.setLastMessage(lastMessage);
+        });
+    }
+
+    /** ➕ Thành viên mới: vá danh sách member cho người cũ, nạp lại sidebar cho người mới */
+    public synchronized void onMemberAdded(String groupId, String memberEmail) {
+        markConversation(groupId);
+        forEachCached(groupId, (email, entry) -> entry.getParticipants().add(memberEmail));
+        invalidate(memberEmail);
+    }
+
+    /** ➖ Thành viên bị xóa: vá danh sách member, bỏ group khỏi sidebar của người bị xóa */
+    public synchronized void onMemberRemoved(String groupId, String memberEmail) {
+        markConversation(groupId);
+        markUser(memberEmail);
+        forEachCached(groupId, (email, entry) -> entry.getParticipants().remove(memberEmail));
+        removeEntry(memberEmail, groupId);
+    }
+
+    /** 🗑️ Conversation / group bị xóa */
+    public synchronized void onConversationRemoved(String conversationId) {
+        markConversation(conversationId);
+        Set<String> users = usersByConversation.remove(conversationId);
+        if (users == null) return;
+        users.forEach(email -> {
+            Snapshot snapshot = snapshots.get(email);
+            if (snapshot != null) snapshot.entries().remove(conversationId);
+        });
+    }
+
+    /** 🔄 Conversation mới / thay đổi cấu trúc → nạp lại ở lần truy cập sau */
+    public synchronized void invalidate(String... emails) {
+        for (String email : emails) {
+            markUser(email);
+            remove(email);
+        }
+    }
+
+    public synchronized void invalidate(Collection<String> emails) {
+        emails.forEach(email -> {
+            markUser(email);
+            remove(email);
+        });
+    }
+
+    public synchronized int size() {
+        return snapshots.size();
+    }
+
+    // ======================================================
+    // 🔧 INTERNAL (gọi trong lock)
+    // ======================================================
+
+    private void markConversation(String conversationId) {
+        epoch++;
+        if (loadsInFlight > 0) dirtyConversations.put(conversationId, epoch);
+    }
+
+    private void markUser(String email) {
+        epoch++;
+        if (loadsInFlight > 0) dirtyUsers.put(email, epoch);
+    }
+
+    private boolean isDirtySince(String email, List<SidebarEntry> loaded, long startEpoch) {
+        if (epoch == startEpoch) return false;
+        if (dirtyUsers.getOrDefault(email, 0L) > startEpoch) return true;
+        for (SidebarEntry e : loaded) {
+            if (dirtyConversations.getOrDefault(e.getId(), 0L) > startEpoch) return true;
+        }
+        return false;
+    }
+
+    private void endLoad() {
+        // Không còn loader nào → dấu bẩn hết tác dụng, dọn để map không phình
+        if (--loadsInFlight == 0) {
+            dirtyConversations.clear();
+            dirtyUsers.clear();
+        }
+    }
+
+    private void forEachCached(String conversationId, BiConsumer<String, SidebarEntry> patch) {
+        Set<String> users = usersByConversation.get(conversationId);
+        if (users == null) return;
+        for (String email : users) {
+            Snapshot snapshot = snapshots.get(email);
+            SidebarEntry entry = snapshot != null ? snapshot.entries().get(conversationId) : null;
+            if (entry != null) patch.accept(email, entry);
+        }
+    }
+
+    private void removeEntry(String email, String conversationId) {
+        Snapshot snapshot = snapshots.get(email);
+        if (snapshot != null) snapshot.entries().remove(conversationId);
+        Set<String> users = usersByConversation.get(conversationId);
+        if (users != null) users.remove(email);
+    }
+
+    private void remove(String email) {
+        Snapshot snapshot = snapshots.remove(email);
+        if (snapshot == null) return;
+        snapshot.entries().keySet().forEach(id -> {
+            Set<String> users = usersByConversation.get(id);
+            if (users != null) {
+                users.remove(email);
+                if (users.isEmpty()) usersByConversation.remove(id);
+            }
+        });
+    }
+
+    private void evictOverflow() {
+        while (snapshots.size() > maxUsers) {
+            String eldest = snapshots.keySet().iterator().next();
+            remove(eldest);
+            evictions.increment();
+        }
+    }
+
+    private boolean isExpired(Snapshot snapshot) {
+        return snapshot.loadedAt().plus(Duration.ofMinutes(ttlMinutes)).isBefore(Instant.now());
+    }
+
+    private List<SidebarEntry> copy(Snapshot snapshot) {
+        List<SidebarEntry> result = new ArrayList<>(snapshot.entries().size());
+        snapshot.entries().values().forEach(e -> result.add(e.toBuilder()
+                .participants(e.getParticipants() != null ? new HashSet<>(e.getParticipants()) : new HashSet<>())
+                .build()));
+        return result;
+    }
+}
@@ -0,0 +1,67 @@
+package com.chung.webrtc.chat.service;
+
+import com.chung.webrtc.chat.dto.SidebarEntry;
+import com.chung.webrtc.chat.entity.Conversation;
+import com.chung.webrtc.chat.repository.ConversationRepository;
+import com.chung.webrtc.common.websocket.WsFrame;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.stereotype.Service;
+
+import java.io.IOException;
+import java.util.*;
+
+/**
+ * 🗂️ Sidebar của user (WS group-sync + REST my-conversations) phục vụ từ {@link SidebarCache}.
+ * Cache miss: 1 aggregation cho group + 1 query cho conversation 1-1.
+ */
+@Slf4j
+@Service
+@RequiredArgsConstructor
+public class SidebarService {
+
+    private final SidebarCache sidebarCache;
+    private final GroupSyncService groupSyncService;
+    private final ConversationRepository conversationRepo;
+    private final MessageWriteBehind messageWriteBehind;
+
+    public List<SidebarEntry> getSidebar(String email) {
+        return sidebarCache.get(email, this::load);
+    }
+
+    /** 📡 Frame group-sync từ cache */
+    public WsFrame groupSyncFrame(String email) throws IOException {
+        List<SidebarEntry> groups = getSidebar(email).stream()
+                .filter(SidebarEntry::isGroup)
+                .filter(e -> e.getName() != null)
+                .toList();
+        return groupSyncService.render(groups);
+    }
+
+    private List<SidebarEntry> load(String email) {
+        // Preview trong DB phải bao gồm các tin còn nằm trong lô write-behind
+        if (messageWriteBehind.hasPending()) messageWriteBehind.flushNow();
+
+        Map<String, SidebarEntry> result = new LinkedHashMap<>();
+        groupSyncService.loadGroupEntries(email).forEach(e -> result.put(e.getId(), e));
+        conversationRepo.findNonMeetingConversations(email)
+                .forEach(conv -> result.putIfAbsent(conv.getId(), toEntry(conv, email)));
+
+        log.debug("🗂️ Loaded sidebar for {} → {} entries", email, result.size());
+        return new ArrayList<>(result.values());
+    }
+
+    private SidebarEntry toEntry(Conversation conv, String email) {
+        return SidebarEntry.builder()
+                .id(conv.getId())
+                .type(conv.getType())
+                .participants(conv.getParticipants() != null ? new HashSet<>(conv.getParticipants()) : new HashSet<>())
+                .createdAt(conv.getCreatedAt())
+                .lastMessage(conv.getLastMessage())
+                .lastSender(conv.getLastSender())
+                .lastSenderName(conv.getLastSenderName())
+                .lastMessageTime(conv.getLastMessageTime())
+                .unreadCount(conv.unreadCountOf(email))
+                .build();
+    }
+}
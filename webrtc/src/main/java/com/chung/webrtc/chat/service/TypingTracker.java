@@ -0,0 +1,156 @@
+package com.chung.webrtc.chat.service;
+
+import com.chung.webrtc.common.websocket.OutboundChannelRegistry;
+import com.chung.webrtc.common.websocket.WsFrame;
+import com.chung.webrtc.common.websocket.WsPrincipal;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import org.springframework.web.socket.WebSocketSession;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * ✍️ Trạng thái "đang gõ" theo (phòng, user) do server quản lý.
+ * - start: client gửi typing (heartbeat) → gia hạn đến now + ttl.
+ * - stop: client gửi state=stop hoặc gửi tin nhắn → xóa ngay.
+ * - Timer: hết hạn tự xóa; mỗi phòng phát tối đa 1 frame tổng hợp "ai đang gõ" mỗi emit-interval,
+ *   và làm mới định kỳ khi vẫn còn người gõ.
+ * - Frame là droppable và bỏ qua các session có hàng đợi gửi đang bị dồn.
+ */
+@Slf4j
+@Component
+@RequiredArgsConstructor
+public class TypingTracker {
+
+    private final ChatRoomRegistry chatRooms;
+    private final OutboundChannelRegistry outboundChannels;
+    private final ObjectMapper mapper;
+
+    @Value("${app.chat.typing.ttl-ms:3000}")
+    private long ttlMs;
+
+    @Value("${app.chat.typing.emit-interval-ms:300}")
+    private long emitIntervalMs;
+
+    @Value("${app.chat.typing.refresh-interval-ms:1500}")
+    private long refreshIntervalMs;
+
+    /** Phòng nhận typing: DIRECT → type "typing"/conversationId, GROUP → "typing-group"/groupId */
+    public record Room(ChatRoomRegistry.Kind kind, String id) {
+
+        public static Room conversation(String conversationId) {
+            return new Room(ChatRoomRegistry.Kind.CONVERSATION, conversationId);
+        }
+
+        public static Room group(String groupId) {
+            return new Room(ChatRoomRegistry.Kind.GROUP, groupId);
+        }
+
+        String frameType() {
+            return kind == ChatRoomRegistry.Kind.GROUP ? "typing-group" : "typing";
+        }
+
+        String idField() {
+            return kind == ChatRoomRegistry.Kind.GROUP ? "groupId" : "conversationId";
+        }
+    }
+
+    private static final class RoomState {
+        /** email -> hết hạn lúc (ms) */
+        final Map<String, Long> typers = new LinkedHashMap<>();
+        boolean dirty;
+        long lastEmitAt;
+    }
+
+    private final Map<Room, RoomState> rooms = new ConcurrentHashMap<>();
+
+    private final ScheduledExecutorService ticker = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread t = new Thread(r, "typing-tracker");
+        t.setDaemon(true);
+        return t;
+    });
+
+    @PostConstruct
+    void init() {
+        ticker.scheduleWithFixedDelay(this::tickSafely, emitIntervalMs, emitIntervalMs, TimeUnit.MILLISECONDS);
+    }
+
+    @PreDestroy
+    void shutdown() {
+        ticker.shutdownNow();
+    }
+
+    public void start(Room room, String email) {
+        RoomState state = rooms.computeIfAbsent(room, k -> new RoomState());
+        synchronized (state) {
+            Long previous = state.typers.put(email, System.currentTimeMillis() + ttlMs);
+            if (previous == null) state.dirty = true;
+        }
+    }
+
+    public void stop(Room room, String email) {
+        RoomState state = rooms.get(room);
+        if (state == null) return;
+        synchronized (state) {
+            if (state.typers.remove(email) != null) state.dirty = true;
+        }
+    }
+
+    private void tickSafely() {
+        try {
+            tick();
+        } catch (Exception e) {
+            log.error("❌ Typing tick error: {}", e.getMessage(), e);
+        }
+    }
+
+    private void tick() {
+        long now = System.currentTimeMillis();
+        rooms.forEach((room, state) -> {
+            List<String> typers;
+            synchronized (state) {
+                if (state.typers.values().removeIf(expiresAt -> expiresAt <= now)) state.dirty = true;
+
+                boolean refresh = !state.typers.isEmpty() && now - state.lastEmitAt >= refreshIntervalMs;
+                if (!state.dirty && !refresh) {
+                    if (state.typers.isEmpty()) rooms.remove(room, state);
+                    return;
+                }
+                state.dirty = false;
+                state.lastEmitAt = now;
+                typers = new ArrayList<>(state.typers.keySet());
+            }
+            emit(room, typers);
+        });
+    }
+
+    private void emit(Room room, List<String> typers) {
+        ObjectNode node = mapper.createObjectNode();
+        node.put("type", room.frameType());
+        node.put(room.idField(), room.id());
+        ArrayNode users = node.putArray("users");
+        typers.forEach(users::add);
+        // Tương thích client cũ: "from" = 1 người đang gõ
+        node.put("from", typers.isEmpty() ? null : typers.get(0));
+
+        WsFrame frame = WsFrame.of(mapper, node);
+        for (WebSocketSession session : chatRooms.members(room.kind(), room.id())) {
+            // Người đang gõ duy nhất không cần nhận lại trạng thái của chính mình
+            String email = WsPrincipal.emailOf(session);
+            if (typers.size() == 1 && typers.get(0).equals(email)) continue;
+            if (outboundChannels.isBackedUp(session)) continue;
+            outboundChannels.sendDroppable(session, frame);
+        }
+    }
+}
@@ -1,15 +1,23 @@
 package com.chung.webrtc.chat.socket;
 
-import com.chung.webrtc.auth.service.JwtService;
-import com.chung.webrtc.chat.dto.response.GroupResponse;
-import com.chung.webrtc.chat.entity.Conversation;
+import com.chung.webrtc.auth.service.DisplayNameService;
+import com.chung.webrtc.chat.dto.response.MessagePageResponse;
 import com.chung.webrtc.chat.entity.Message;
-import com.chung.webrtc.chat.repository.ConversationRepository;
-import com.chung.webrtc.chat.repository.MessageRepository;
 import com.chung.webrtc.chat.service.ChatService;
 import com.chung.webrtc.chat.service.ChatGroupService;
+import com.chung.webrtc.chat.service.ChatRoomRegistry;
 import com.chung.webrtc.chat.service.ChatSessionRegistry;
-import com.chung.webrtc.common.util.MongoKeyUtil;
+import com.chung.webrtc.chat.service.GroupMembershipCache;
+import com.chung.webrtc.chat.service.PresenceService;
+import com.chung.webrtc.chat.service.ReadReceiptBatcher;
+import com.chung.webrtc.chat.service.SidebarService;
+import com.chung.webrtc.chat.service.TypingTracker;
+import com.chung.webrtc.common.websocket.OutboundChannelRegistry;
+import com.chung.webrtc.common.websocket.SenderAwareFrame;
+import com.chung.webrtc.common.websocket.WsAuthService;
+import com.chung.webrtc.common.websocket.WsCodec;
+import com.chung.webrtc.common.websocket.WsFrame;
+import com.chung.webrtc.common.websocket.WsPrincipal;
 import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.fasterxml.jackson.databind.node.ArrayNode;
@@ -23,25 +31,27 @@ import org.springframework.web.socket.handler.TextWebSocketHandler;
 import java.io.IOException;
 import java.time.LocalTime;
 import java.util.*;
-import java.util.concurrent.ConcurrentHashMap;
 import java.util.stream.Collectors;
-import java.util.stream.StreamSupport;
 
 @Slf4j
 @Component
 @RequiredArgsConstructor
 public class ChatSocketHandler extends TextWebSocketHandler {
 
-    private final JwtService jwtService;
+    private final WsAuthService wsAuthService;
     private final ChatService chatService;
+    private final DisplayNameService displayNameService;
     private final ChatGroupService chatGroupService;
+    private final SidebarService sidebarService;
     private final ChatSessionRegistry chatSessionRegistry;
-    private final ConversationRepository conversationRepo;
-    private final MessageRepository messageRepo;
+    private final PresenceService presenceService;
+    private final GroupMembershipCache groupMembership;
+    private final OutboundChannelRegistry outboundChannels;
+    private final ChatRoomRegistry chatRooms;
+    private final TypingTracker typingTracker;
+    private final ReadReceiptBatcher readReceiptBatcher;
     private final ObjectMapper mapper;
 
-    private final Map<String, Set<WebSocketSession>> roomSessions = new ConcurrentHashMap<>();
-    private final Map<String, Set<WebSocketSession>> groupRooms = new ConcurrentHashMap<>();
 
     private String ts() {
         return "[" + LocalTime.now().withNano(0) + "]";
@@ -53,7 +63,25 @@ public class ChatSocketHandler extends TextWebSocketHandler {
     @Override
     protected void handleTextMessage(WebSocketSession session, TextMessage message) {
         try {
-            JsonNode msg = mapper.readTree(message.getPayload());
+            dispatch(session, mapper.readTree(message.getPayload()));
+        } catch (Exception e) {
+            log.error("{} ❌ WS message error: {}", ts(), e.getMessage(), e);
+        }
+    }
+
+    /** 📦 Sub-protocol cbor.v1: cùng event model, chỉ khác mã hóa */
+    @Override
+    protected void handleBinaryMessage(WebSocketSession session, BinaryMessage message) {
+        try {
+            dispatch(session, WsCodec.read(message));
+        } catch (Exception e) {
+            log.error("{} ❌ WS binary message error: {}", ts(), e.getMessage(), e);
+        }
+    }
+
+    private void dispatch(WebSocketSession session, JsonNode msg) {
+        try {
+            if (wsAuthService.handleReauth(session, msg)) return;
             String type = msg.path("type").asText();
 
             switch (type) {
@@ -65,6 +93,7 @@ public class ChatSocketHandler extends TextWebSocketHandler {
                 case "get-history" -> handleGetHistory(session, msg);
                 case "request-online-users" -> handleRequestOnlineUsers(session);
                 case "request-sync" -> handleRequestSync(session);
+                case "request-unread-total" -> handleRequestUnreadTotal(session);
 
                 // === GROUP CHAT ===
                 case "join-group" -> handleJoinGroup(session, msg);
@@ -85,14 +114,12 @@ public class ChatSocketHandler extends TextWebSocketHandler {
     // ======================================================
     private void handleJoin(WebSocketSession session, JsonNode msg) throws IOException {
         String conversationId = msg.path("conversationId").asText();
-        String token = extractToken(session);
-        String email = jwtService.extractUsername(token);
+        String email = WsPrincipal.emailOf(session);
 
         if (conversationId == null || conversationId.isBlank()) return;
 
-        roomSessions.computeIfAbsent(conversationId, k -> ConcurrentHashMap.newKeySet()).add(session);
+        chatRooms.join(ChatRoomRegistry.Kind.CONVERSATION, conversationId, session);
         session.getAttributes().put("conversationId", conversationId);
-        session.getAttributes().put("email", email);
 
         ObjectNode joinedEvent = mapper.createObjectNode();
         joinedEvent.put("type", "joined");
@@ -100,40 +127,39 @@ public class ChatSocketHandler extends TextWebSocketHandler {
         joinedEvent.put("email", email);
         sendSafe(session, joinedEvent);
 
-        sendChatHistory(session, conversationId, email);
-        sendOnlineUsersToClient(session);
+        sendChatHistory(session, conversationId, email, null);
+        handleRequestOnlineUsers(session);
         log.info("{} 👤 [{}] {} joined conversation {}", ts(), session.getId(), email, conversationId);
     }
 
     private void handleChat(WebSocketSession session, JsonNode msg) {
         try {
             String conversationId = msg.path("conversationId").asText();
-            String token = extractToken(session);
-            String sender = jwtService.extractUsername(token);
+            String sender = WsPrincipal.emailOf(session);
             String content = msg.path("message").asText();
 
             if (conversationId == null || content == null || content.isBlank()) return;
 
             Message saved = chatService.saveMessage(conversationId, sender, content);
+            typingTracker.stop(TypingTracker.Room.conversation(conversationId), sender);
             String senderName = chatService.getDisplayNameByEmail(sender);
 
-            roomSessions.getOrDefault(conversationId, Set.of()).forEach(sess -> {
-                String receiverEmail = (String) sess.getAttributes().get("email");
-                String displayName = sender.equalsIgnoreCase(receiverEmail) ? "You" : senderName;
-
-                ObjectNode node = mapper.createObjectNode();
-                node.put("type", "chat");
-                node.put("conversationId", conversationId);
-                node.put("sender", sender);
-                node.put("senderName", displayName);
-                node.put("message", content);
-                node.put("timestamp", saved.getTimestamp().toString());
-
-                // ✅ Realtime update for sidebar preview
-                node.put("lastSender", sender);
-                node.put("lastSenderName", displayName);
-
-                sendSafe(sess, node);
+            ObjectNode node = mapper.createObjectNode();
+            node.put("type", "chat");
+            node.put("conversationId", conversationId);
+            node.put("sender", sender);
+            node.put("message", content);
+            node.put("timestamp", saved.getTimestamp().toString());
+            // ✅ Realtime update for sidebar preview
+            node.put("lastSender", sender);
+
+            // Encode 1 lần cho mỗi biến thể (You / tên thật), dùng chung cho cả phòng
+            SenderAwareFrame frame = SenderAwareFrame.of(mapper, node, sender, senderName,
+                    "senderName", "lastSenderName");
+
+            chatRooms.members(ChatRoomRegistry.Kind.CONVERSATION, conversationId).forEach(sess -> {
+                String receiverEmail = WsPrincipal.emailOf(sess);
+                sendSafe(sess, frame.forRecipient(receiverEmail));
             });
 
             log.info("{} 💬 [{}] {} ({}) → {}: {}", ts(), session.getId(), senderName, sender, conversationId, content);
@@ -144,28 +170,24 @@ public class ChatSocketHandler extends TextWebSocketHandler {
 
     private void handleTyping(WebSocketSession session, JsonNode msg) {
         String conversationId = msg.path("conversationId").asText();
-        String sender = (String) session.getAttributes().get("email");
-
-        ObjectNode node = mapper.createObjectNode();
-        node.put("type", "typing");
-        node.put("from", sender);
-        node.put("conversationId", conversationId);
-
-        roomSessions.getOrDefault(conversationId, Set.of())
-                .forEach(sess -> { if (sess != session) sendSafe(sess, node); });
+        String sender = WsPrincipal.emailOf(session);
+        if (conversationId.isBlank() || sender == null) return;
+
+        // ✍️ Server tự gộp + throttle, client chỉ báo start (heartbeat) / stop
+        TypingTracker.Room room = TypingTracker.Room.conversation(conversationId);
+        if (isTypingStop(msg)) {
+            typingTracker.stop(room, sender);
+        } else {
+            typingTracker.start(room, sender);
+        }
     }
 
     private void handleReadUpdate(WebSocketSession session, JsonNode msg) {
         try {
             String conversationId = msg.path("conversationId").asText();
-            String reader = (String) session.getAttributes().get("email");
-            chatService.markAsRead(conversationId, reader);
-
-            ObjectNode event = mapper.createObjectNode();
-            event.put("type", "read-update");
-            event.put("conversationId", conversationId);
-            event.put("reader", reader);
-            chatSessionRegistry.broadcastToAll(event.toString());
+            String reader = WsPrincipal.emailOf(session);
+            // Gộp theo (reader, conversation) rồi chỉ gửi tới participants
+            readReceiptBatcher.submit(conversationId, reader);
         } catch (Exception e) {
             log.error("{} ❌ handleReadUpdate error: {}", ts(), e.getMessage(), e);
         }
@@ -173,31 +195,36 @@ public class ChatSocketHandler extends TextWebSocketHandler {
 
     private void handleGetHistory(WebSocketSession session, JsonNode msg) throws IOException {
         String conversationId = msg.path("conversationId").asText();
-        String email = (String) session.getAttributes().get("email");
-        sendChatHistory(session, conversationId, email);
+        String email = WsPrincipal.emailOf(session);
+        sendChatHistory(session, conversationId, email, msg);
     }
 
-    private void sendChatHistory(WebSocketSession session, String conversationId, String email) throws IOException {
-        List<Message> history = chatService.getMessages(conversationId);
+    private void sendChatHistory(WebSocketSession session, String conversationId, String email, JsonNode request) throws IOException {
+        MessagePageResponse page = chatService.getMessagePage(conversationId,
+                cursorParam(request, "before"), cursorParam(request, "after"), limitParam(request));
+
         ObjectNode histMsg = mapper.createObjectNode();
         histMsg.put("type", "chat-history");
         histMsg.put("conversationId", conversationId);
+        putPageInfo(histMsg, page, request);
         ArrayNode arr = histMsg.putArray("messages");
 
-        if (history != null) {
-            history.forEach(m -> {
-                ObjectNode item = arr.addObject();
-                item.put("type", "chat");
-                item.put("conversationId", conversationId);
-                item.put("sender", m.getSender());
-                String senderName = m.getSender().equalsIgnoreCase(email)
-                        ? "You"
-                        : chatService.getDisplayNameByEmail(m.getSender());
-                item.put("senderName", senderName);
-                item.put("message", m.getContent());
-                item.put("timestamp", m.getTimestamp().toString());
-            });
-        }
+        // 1 lần resolve (cache / 1 query IN) cho cả trang
+        Map<String, String> names = displayNameService.getDisplayNames(
+                page.getMessages().stream().map(Message::getSender).collect(Collectors.toSet()));
+
+        page.getMessages().forEach(m -> {
+            ObjectNode item = arr.addObject();
+            item.put("type", "chat");
+            item.put("conversationId", conversationId);
+            item.put("sender", m.getSender());
+            String senderName = m.getSender().equalsIgnoreCase(email)
+                    ? "You"
+                    : names.get(m.getSender());
+            item.put("senderName", senderName);
+            item.put("message", m.getContent());
+            item.put("timestamp", m.getTimestamp().toString());
+        });
         sendSafe(session, histMsg);
     }
 
@@ -206,56 +233,56 @@ public class ChatSocketHandler extends TextWebSocketHandler {
     // ======================================================
     private void handleJoinGroup(WebSocketSession session, JsonNode msg) throws IOException {
         String groupId = msg.path("groupId").asText();
-        String email = (String) session.getAttributes().get("email");
+        String email = WsPrincipal.emailOf(session);
         if (groupId == null || groupId.isBlank()) return;
 
-        groupRooms.computeIfAbsent(groupId, k -> ConcurrentHashMap.newKeySet()).add(session);
+        chatRooms.join(ChatRoomRegistry.Kind.GROUP, groupId, session);
         chatSessionRegistry.addToGroup(groupId, email);
         session.getAttributes().put("groupId", groupId);
 
-        sendGroupHistory(session, groupId);
+        sendGroupHistory(session, groupId, null);
         log.info("{} 👥 [{}] {} joined group {}", ts(), session.getId(), email, groupId);
     }
 
     private void handleLeaveGroup(WebSocketSession session, JsonNode msg) {
         String groupId = msg.path("groupId").asText();
-        String email = (String) session.getAttributes().get("email");
+        String email = WsPrincipal.emailOf(session);
         if (groupId == null || groupId.isBlank()) return;
 
-        Optional.ofNullable(groupRooms.get(groupId)).ifPresent(set -> set.remove(session));
+        chatRooms.leave(ChatRoomRegistry.Kind.GROUP, groupId, session);
+        typingTracker.stop(TypingTracker.Room.group(groupId), email);
         chatSessionRegistry.removeFromGroup(groupId, email);
     }
 
     private void handleGroupChat(WebSocketSession session, JsonNode msg) {
         try {
             String groupId = msg.path("groupId").asText();
-            String sender = (String) session.getAttributes().get("email");
+            String sender = WsPrincipal.emailOf(session);
             String content = msg.path("message").asText();
 
             if (groupId.isBlank() || content.isBlank()) return;
 
             Message saved = chatGroupService.saveGroupMessage(groupId, sender, content);
+            typingTracker.stop(TypingTracker.Room.group(groupId), sender);
             String senderName = chatService.getDisplayNameByEmail(sender);
 
-            Set<String> dbMembers = new HashSet<>();
-            conversationRepo.findById(groupId).ifPresent(conv -> dbMembers.addAll(conv.getParticipants()));
-            if (dbMembers.isEmpty()) {
-                log.warn("{} ⚠️ No DB members found for group {}", ts(), groupId);
+            // Cache đã được nạp khi kiểm tra membership ở saveGroupMessage
+            Set<String> members = groupMembership.members(groupId);
+            if (members.isEmpty()) {
+                log.warn("{} ⚠️ No members found for group {}", ts(), groupId);
                 return;
             }
 
-            for (String member : dbMembers) {
-                ObjectNode node = mapper.createObjectNode();
-                node.put("type", "group-chat");
-                node.put("groupId", groupId);
-                node.put("sender", sender);
-                node.put("senderName", sender.equalsIgnoreCase(member) ? "You" : senderName);
-                node.put("message", content);
-                node.put("timestamp", saved.getTimestamp().toString());
-                node.put("lastSender", sender);
-                node.put("lastSenderName", sender.equalsIgnoreCase(member) ? "You" : senderName);
-                chatSessionRegistry.getSessions(member).forEach(sess -> sendSafe(sess, node.deepCopy()));
-            }
+            ObjectNode node = mapper.createObjectNode();
+            node.put("type", "group-chat");
+            node.put("groupId", groupId);
+            node.put("sender", sender);
+            node.put("message", content);
+            node.put("timestamp", saved.getTimestamp().toString());
+            node.put("lastSender", sender);
+
+            chatSessionRegistry.broadcastToUsers(members, SenderAwareFrame.of(mapper, node, sender, senderName,
+                    "senderName", "lastSenderName"));
 
             log.info("{} 💬 [{}] {} ({}) → group {}: {}",
                     ts(), session.getId(), senderName, sender, groupId, content);
@@ -267,221 +294,112 @@ public class ChatSocketHandler extends TextWebSocketHandler {
 
     private void handleTypingGroup(WebSocketSession session, JsonNode msg) {
         String groupId = msg.path("groupId").asText();
-        String sender = (String) session.getAttributes().get("email");
-        ObjectNode node = mapper.createObjectNode();
-        node.put("type", "typing-group");
-        node.put("from", sender);
-        node.put("groupId", groupId);
-
-        groupRooms.getOrDefault(groupId, Set.of())
-                .forEach(sess -> { if (sess != session) sendSafe(sess, node); });
+        String sender = WsPrincipal.emailOf(session);
+        if (groupId.isBlank() || sender == null) return;
+
+        TypingTracker.Room room = TypingTracker.Room.group(groupId);
+        if (isTypingStop(msg)) {
+            typingTracker.stop(room, sender);
+        } else {
+            typingTracker.start(room, sender);
+        }
+    }
+
+    private static boolean isTypingStop(JsonNode msg) {
+        return "stop".equals(msg.path("state").asText());
     }
 
     private void handleGetGroupHistory(WebSocketSession session, JsonNode msg) throws IOException {
-        sendGroupHistory(session, msg.path("groupId").asText());
+        sendGroupHistory(session, msg.path("groupId").asText(), msg);
     }
 
-    private void sendGroupHistory(WebSocketSession session, String groupId) throws IOException {
-        String email = (String) session.getAttributes().get("email");
-        List<Message> history = chatGroupService.getGroupMessages(groupId);
+    private void sendGroupHistory(WebSocketSession session, String groupId, JsonNode request) throws IOException {
+        String email = WsPrincipal.emailOf(session);
+        MessagePageResponse page = chatGroupService.getGroupMessages(groupId,
+                cursorParam(request, "before"), cursorParam(request, "after"), limitParam(request));
+
         ObjectNode histMsg = mapper.createObjectNode();
         histMsg.put("type", "group-history");
         histMsg.put("groupId", groupId);
+        putPageInfo(histMsg, page, request);
         ArrayNode arr = histMsg.putArray("messages");
 
-        if (history != null) {
-            history.forEach(m -> {
-                ObjectNode item = arr.addObject();
-                item.put("type", "group-chat");
-                item.put("groupId", groupId);
-                item.put("sender", m.getSender());
-                String senderName = m.getSender().equalsIgnoreCase(email)
-                        ? "You"
-                        : chatService.getDisplayNameByEmail(m.getSender());
-                item.put("senderName", senderName);
-                item.put("message", m.getContent());
-                item.put("timestamp", m.getTimestamp().toString());
-            });
-        }
+        // 1 lần resolve (cache / 1 query IN) cho cả trang
+        Map<String, String> names = displayNameService.getDisplayNames(
+                page.getMessages().stream().map(Message::getSender).collect(Collectors.toSet()));
+
+        page.getMessages().forEach(m -> {
+            ObjectNode item = arr.addObject();
+            item.put("type", "group-chat");
+            item.put("groupId", groupId);
+            item.put("sender", m.getSender());
+            String senderName = m.getSender().equalsIgnoreCase(email)
+                    ? "You"
+                    : names.get(m.getSender());
+            item.put("senderName", senderName);
+            item.put("message", m.getContent());
+            item.put("timestamp", m.getTimestamp().toString());
+        });
         sendSafe(session, histMsg);
     }
 
+    /** 📑 Thông tin phân trang: page = latest | before | after để client biết prepend hay append */
+    private void putPageInfo(ObjectNode histMsg, MessagePageResponse page, JsonNode request) {
+        String direction = cursorParam(request, "after") != null ? "after"
+                : cursorParam(request, "before") != null ? "before" : "latest";
+        histMsg.put("page", direction);
+        histMsg.put("hasMore", page.isHasMore());
+        histMsg.put("beforeCursor", page.getBeforeCursor());
+        histMsg.put("afterCursor", page.getAfterCursor());
+    }
+
+    private String cursorParam(JsonNode request, String field) {
+        if (request == null) return null;
+        String value = request.path(field).asText(null);
+        return value == null || value.isBlank() ? null : value;
+    }
+
+    private Integer limitParam(JsonNode request) {
+        return request != null && request.hasNonNull("limit") ? request.get("limit").asInt() : null;
+    }
+
     // ======================================================
     // 🔁 SYNC & CONNECTION MANAGEMENT
     // ======================================================
     private void handleRequestSync(WebSocketSession session) {
         try {
-            String userEmail = (String) session.getAttributes().get("email");
+            String userEmail = WsPrincipal.emailOf(session);
             if (userEmail == null) {
                 log.warn("{} ⚠️ handleRequestSync called without email in session", ts());
                 return;
             }
 
-            List<GroupResponse> groups = chatGroupService.getGroupsByUser(userEmail);
-
-            List<String> groupIds = groups.stream()
-                    .map(GroupResponse::getId)
-                    .filter(Objects::nonNull)
-                    .collect(Collectors.toList());
-
-            Iterable<Conversation> convs = conversationRepo.findAllById(groupIds);
-            Map<String, Conversation> convMap = StreamSupport.stream(convs.spliterator(), false)
-                    .collect(Collectors.toMap(Conversation::getId, c -> c));
-
-            String safeKey = MongoKeyUtil.encode(userEmail);
-
-            ArrayNode arr = mapper.createArrayNode();
-
-            for (GroupResponse g : groups) {
-                ObjectNode node = mapper.createObjectNode();
-                node.put("id", g.getId());
-                node.put("name", g.getName());
-                node.put("description", g.getDescription());
-                node.put("avatar", g.getAvatar());
-                node.put("createdBy", g.getCreatedBy());
-                node.putPOJO("members", g.getMembers());
-                node.put("memberCount", g.getMembers() != null ? g.getMembers().size() : 0);
-
-                Conversation conv = convMap.get(g.getId());
-                String lastMessage = null;
-                String lastSender = null;
-                String lastSenderName = null;
-                String lastMessageTime = null;
-                boolean unread = false;
-
-                if (conv != null) {
-                    lastMessage = conv.getLastMessage();
-                    lastSender = conv.getLastSender();
-                    lastSenderName = conv.getLastSenderName();
-                    if (conv.getLastMessageTime() != null)
-                        lastMessageTime = conv.getLastMessageTime().toString();
-
-                    Map<String, Boolean> unreadMap = conv.getUnreadMap();
-                    if (unreadMap != null && unreadMap.containsKey(safeKey))
-                        unread = Boolean.TRUE.equals(unreadMap.get(safeKey));
-                }
-
-                if ((lastMessage == null || lastMessage.isBlank()) && g.getId() != null) {
-                    try {
-                        Optional<Message> latestOpt = messageRepo.findTopByConversationIdOrderByTimestampDesc(g.getId());
-                        if (latestOpt.isPresent()) {
-                            Message latest = latestOpt.get();
-                            lastMessage = latest.getContent();
-                            lastSender = latest.getSender();
-                            lastSenderName = chatService.getDisplayNameByEmail(latest.getSender());
-                            lastMessageTime = latest.getTimestamp() != null
-                                    ? latest.getTimestamp().toString() : null;
-                        }
-                    } catch (Exception ex) {
-                        log.debug("⚠️ No fallback message found for group {}", g.getId());
-                    }
-                }
-
-                node.put("lastMessage", lastMessage);
-                node.put("lastSender", lastSender);
-                node.put("lastSenderName", lastSenderName);
-                node.put("lastMessageTime", lastMessageTime);
-                node.put("unread", unread);
-
-                arr.add(node);
-            }
-
-            ObjectNode event = mapper.createObjectNode();
-            event.put("type", "group-sync");
-            event.set("groups", arr);
-
-            sendSafe(session, event);
-            log.info("{} 📡 [{}] Sent {} groups (with preview) to {}", ts(), session.getId(), groups.size(), userEmail);
+            sendGroupSync(session, userEmail);
+            log.info("{} 📡 [{}] Sent group-sync to {}", ts(), session.getId(), userEmail);
 
         } catch (Exception e) {
             log.error("{} ❌ handleRequestSync error: {}", ts(), e.getMessage(), e);
         }
     }
 
+    /** 📡 group-sync: phục vụ từ sidebar cache (miss → 1 aggregation) */
+    private void sendGroupSync(WebSocketSession session, String email) throws IOException {
+        sendSafe(session, sidebarService.groupSyncFrame(email));
+    }
+
     @Override
     public void afterConnectionEstablished(WebSocketSession session) {
         try {
-            String token = extractToken(session);
-            String email = jwtService.extractUsername(token);
-            session.getAttributes().put("email", email);
+            // Principal đã được verify lúc handshake
+            String email = WsPrincipal.emailOf(session);
+            if (email == null) throw new IllegalStateException("Missing WS principal");
+            wsAuthService.track(session);
             chatSessionRegistry.register(email, session);
-            broadcastOnlineStatus("user-status", email);
-            sendOnlineUsersToClient(session);
-
-            // ✅ Fixed version: merged + fallback preview for all groups
-            List<GroupResponse> groups = chatGroupService.getGroupsByUser(email);
-            List<String> groupIds = groups.stream()
-                    .map(GroupResponse::getId)
-                    .filter(Objects::nonNull)
-                    .collect(Collectors.toList());
-
-            Iterable<Conversation> convs = conversationRepo.findAllById(groupIds);
-            Map<String, Conversation> convMap = StreamSupport.stream(convs.spliterator(), false)
-                    .collect(Collectors.toMap(Conversation::getId, c -> c));
-
-            String safeKey = MongoKeyUtil.encode(email);
-            ArrayNode arr = mapper.createArrayNode();
-
-            for (GroupResponse g : groups) {
-                ObjectNode node = mapper.createObjectNode();
-                node.put("id", g.getId());
-                node.put("name", g.getName());
-                node.put("description", g.getDescription());
-                node.put("avatar", g.getAvatar());
-                node.put("createdBy", g.getCreatedBy());
-                node.putPOJO("members", g.getMembers());
-                node.put("memberCount", g.getMembers() != null ? g.getMembers().size() : 0);
-
-                Conversation conv = convMap.get(g.getId());
-                String lastMessage = null;
-                String lastSender = null;
-                String lastSenderName = null;
-                String lastMessageTime = null;
-                boolean unread = false;
-
-                if (conv != null) {
-                    lastMessage = conv.getLastMessage();
-                    lastSender = conv.getLastSender();
-                    lastSenderName = conv.getLastSenderName();
-                    if (conv.getLastMessageTime() != null)
-                        lastMessageTime = conv.getLastMessageTime().toString();
-
-                    Map<String, Boolean> unreadMap = conv.getUnreadMap();
-                    if (unreadMap != null && unreadMap.containsKey(safeKey))
-                        unread = Boolean.TRUE.equals(unreadMap.get(safeKey));
-                }
-
-                if ((lastMessage == null || lastMessage.isBlank()) && g.getId() != null) {
-                    try {
-                        Optional<Message> latestOpt = messageRepo.findTopByConversationIdOrderByTimestampDesc(g.getId());
-                        if (latestOpt.isPresent()) {
-                            Message latest = latestOpt.get();
-                            lastMessage = latest.getContent();
-                            lastSender = latest.getSender();
-                            lastSenderName = chatService.getDisplayNameByEmail(latest.getSender());
-                            lastMessageTime = latest.getTimestamp() != null
-                                    ? latest.getTimestamp().toString() : null;
-                        }
-                    } catch (Exception ex) {
-                        log.debug("⚠️ No fallback message found for group {}", g.getId());
-                    }
-                }
-
-                node.put("lastMessage", lastMessage);
-                node.put("lastSender", lastSender);
-                node.put("lastSenderName", lastSenderName);
-                node.put("lastMessageTime", lastMessageTime);
-                node.put("unread", unread);
-
-                arr.add(node);
-            }
-
-            ObjectNode syncMsg = mapper.createObjectNode();
-            syncMsg.put("type", "group-sync");
-            syncMsg.set("groups", arr);
+            presenceService.onConnect(email);
+            sendSafe(session, presenceService.snapshotFrame(email));
 
-            sendSafe(session, syncMsg);
-            log.info("{} 🔗 [{}] {} connected WS | Synced {} groups (with preview)", ts(), session.getId(), email, groups.size());
+            sendGroupSync(session, email);
+            log.info("{} 🔗 [{}] {} connected WS | Synced groups", ts(), session.getId(), email);
         } catch (Exception e) {
             log.error("{} ❌ Error establishing WS connection: {}", ts(), e.getMessage());
             try { session.close(CloseStatus.NOT_ACCEPTABLE); } catch (IOException ignored) {}
@@ -490,68 +408,50 @@ public class ChatSocketHandler extends TextWebSocketHandler {
 
     @Override
     public void afterConnectionClosed(WebSocketSession session, CloseStatus status) {
-        String email = (String) session.getAttributes().get("email");
+        String email = WsPrincipal.emailOf(session);
+        // Chỉ duyệt các phòng session đã join (index ngược)
+        Set<ChatRoomRegistry.RoomKey> leftRooms = chatRooms.leaveAll(session);
         if (email != null) {
             chatSessionRegistry.unregister(email, session);
-            roomSessions.values().forEach(s -> s.remove(session));
-            groupRooms.values().forEach(s -> s.remove(session));
-            broadcastOnlineStatus("user-status", email);
+            leftRooms.forEach(room -> typingTracker.stop(new TypingTracker.Room(room.kind(), room.id()), email));
+            presenceService.onDisconnect(email);
         }
+        wsAuthService.untrack(session);
+        outboundChannels.release(session);
     }
 
     // ======================================================
     // 🔧 UTILS
     // ======================================================
-    private String extractToken(WebSocketSession session) {
-        String query = Objects.requireNonNull(session.getUri()).getQuery();
-        if (query != null && query.startsWith("token=")) {
-            return query.substring("token=".length());
-        }
-        throw new IllegalArgumentException("Missing JWT token");
+    private void sendSafe(WebSocketSession session, ObjectNode msg) {
+        sendSafe(session, WsFrame.of(mapper, msg));
     }
 
-    private void sendSafe(WebSocketSession session, ObjectNode msg) {
-        synchronized (session) {
-            try {
-                if (session.isOpen()) {
-                    session.sendMessage(new TextMessage(msg.toString()));
-                }
-            } catch (Exception e) {
-                log.warn("{} ⚠️ Failed to send WS message: {}", ts(), e.getMessage());
-            }
-        }
+    private void sendSafe(WebSocketSession session, WsFrame frame) {
+        outboundChannels.send(session, frame);
     }
 
-    private void handleRequestOnlineUsers(WebSocketSession session) {
+    /** 🔔 Badge tổng số tin chưa đọc (1 aggregation) */
+    private void handleRequestUnreadTotal(WebSocketSession session) {
         try {
-            var online = chatSessionRegistry.getOnlineUsers();
-            var msg = mapper.createObjectNode();
-            msg.put("type", "online-users");
-            var arr = msg.putArray("users");
-            online.forEach(arr::add);
+            String email = WsPrincipal.emailOf(session);
+            ObjectNode msg = mapper.createObjectNode();
+            msg.put("type", "unread-total");
+            msg.put("total", chatService.countUnreadTotal(email));
             sendSafe(session, msg);
         } catch (Exception e) {
-            log.error("{} ❌ handleRequestOnlineUsers error: {}", ts(), e.getMessage());
+            log.error("{} ❌ handleRequestUnreadTotal error: {}", ts(), e.getMessage());
         }
     }
 
-    private void sendOnlineUsersToClient(WebSocketSession session) {
-        var msg = mapper.createObjectNode();
-        msg.put("type", "online-users");
-        var arr = msg.putArray("users");
-        chatSessionRegistry.getOnlineUsers().forEach(arr::add);
-        sendSafe(session, msg);
-    }
-
-    private void broadcastOnlineStatus(String event, String email) {
+    /** 🟢 Danh sách contact đang online (tính lại interest set vì có thể có conversation mới) */
+    private void handleRequestOnlineUsers(WebSocketSession session) {
         try {
-            var msg = mapper.createObjectNode();
-            msg.put("type", event);
-            msg.put("email", email);
-            msg.put("online", chatSessionRegistry.getOnlineUsers().contains(email));
-            chatSessionRegistry.broadcastToAll(msg.toString());
+            String email = WsPrincipal.emailOf(session);
+            presenceService.refreshInterests(email);
+            sendSafe(session, presenceService.snapshotFrame(email));
         } catch (Exception e) {
-            log.warn("{} ⚠️ Broadcast error {}: {}", ts(), event, e.getMessage());
+            log.error("{} ❌ handleRequestOnlineUsers error: {}", ts(), e.getMessage());
         }
     }
 }
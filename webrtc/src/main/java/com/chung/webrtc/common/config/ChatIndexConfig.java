@@ -0,0 +1,66 @@
+package com.chung.webrtc.common.config;
+
+import com.mongodb.client.model.IndexOptions;
+import jakarta.annotation.PostConstruct;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.bson.Document;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.data.mongodb.core.MongoTemplate;
+
+@Slf4j
+@Configuration
+@RequiredArgsConstructor
+public class ChatIndexConfig {
+
+    private final MongoTemplate mongoTemplate;
+
+    @PostConstruct
+    public void ensureIndexes() {
+        ensureMessageIndexes();
+        ensureConversationIndexes();
+        ensureGroupIndexes();
+    }
+
+    /** Index phục vụ keyset pagination lịch sử chat: (conversationId, timestamp, _id) */
+    private void ensureMessageIndexes() {
+        try {
+            IndexOptions options = new IndexOptions().name("conversation_timestamp_id");
+
+            mongoTemplate.getCollection("messages")
+                    .createIndex(new Document("conversationId", 1)
+                            .append("timestamp", 1)
+                            .append("_id", 1), options);
+
+            log.info("Index conversation_timestamp_id ensured for messages");
+        } catch (Exception e) {
+            log.error("Failed to create history index for messages", e);
+        }
+    }
+
+    /** Index cho sidebar / tổng unread: conversation theo participant và type */
+    private void ensureConversationIndexes() {
+        try {
+            IndexOptions options = new IndexOptions().name("participants_type");
+
+            mongoTemplate.getCollection("conversations")
+                    .createIndex(new Document("participants", 1).append("type", 1), options);
+
+            log.info("Index participants_type ensured for conversations");
+        } catch (Exception e) {
+            log.error("Failed to create participant index for conversations", e);
+        }
+    }
+
+    /** Index cho group-sync: $match groups theo thành viên */
+    private void ensureGroupIndexes() {
+        try {
+            mongoTemplate.getCollection("groups")
+                    .createIndex(new Document("members", 1), new IndexOptions().name("members"));
+
+            log.info("Index members ensured for groups");
+        } catch (Exception e) {
+            log.error("Failed to create member index for groups", e);
+        }
+    }
+}
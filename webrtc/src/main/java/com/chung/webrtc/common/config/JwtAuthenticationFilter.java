@@ -1,11 +1,13 @@
 package com.chung.webrtc.common.config;
 
+import com.chung.webrtc.auth.service.JwtPrincipal;
 import com.chung.webrtc.auth.service.JwtService;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
 import jakarta.servlet.FilterChain;
 import jakarta.servlet.ServletException;
 import jakarta.servlet.http.HttpServletRequest;
 import jakarta.servlet.http.HttpServletResponse;
-import lombok.RequiredArgsConstructor;
 import org.springframework.security.authentication.UsernamePasswordAuthenticationToken;
 import org.springframework.security.core.authority.SimpleGrantedAuthority;
 import org.springframework.security.core.context.SecurityContextHolder;
@@ -15,13 +17,30 @@ import org.springframework.web.filter.OncePerRequestFilter;
 import java.io.IOException;
 import java.util.ArrayList;
 import java.util.List;
-import java.util.stream.Collectors;
+import java.util.Optional;
+import java.util.concurrent.TimeUnit;
 
 @Component
-@RequiredArgsConstructor
 public class JwtAuthenticationFilter extends OncePerRequestFilter {
 
     private final JwtService jwtService;
+    private final Timer authenticatedTimer;
+    private final Timer rejectedTimer;
+
+    public JwtAuthenticationFilter(JwtService jwtService, MeterRegistry meterRegistry) {
+        this.jwtService = jwtService;
+        // ⏱️ Chỉ đo phần xác thực token (không tính thời gian xử lý request phía sau)
+        this.authenticatedTimer = Timer.builder("auth.jwt.filter")
+                .description("Thời gian xác thực JWT trong filter")
+                .tag("result", "authenticated")
+                .publishPercentiles(0.5, 0.95, 0.99)
+                .register(meterRegistry);
+        this.rejectedTimer = Timer.builder("auth.jwt.filter")
+                .description("Thời gian xác thực JWT trong filter")
+                .tag("result", "rejected")
+                .publishPercentiles(0.5, 0.95, 0.99)
+                .register(meterRegistry);
+    }
 
     @Override
     protected void doFilterInternal(HttpServletRequest request,
@@ -37,7 +56,12 @@ public class JwtAuthenticationFilter extends OncePerRequestFilter {
 
         final String token = header.substring(7);
 
-        if (!jwtService.isTokenValid(token)) {
+        // ✅ Verify 1 lần duy nhất → principal (username, roles, permissions)
+        long start = System.nanoTime();
+        Optional<JwtPrincipal> verified = jwtService.tryVerify(token);
+
+        if (verified.isEmpty()) {
+            rejectedTimer.record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
             response.setStatus(HttpServletResponse.SC_UNAUTHORIZED);
             response.setContentType("application/json");
             response.getWriter().write("""
@@ -45,36 +69,20 @@ public class JwtAuthenticationFilter extends OncePerRequestFilter {
             """);
             return;
         }
-
-        // ✅ Lấy username từ token
-        String username = jwtService.extractUsername(token);
-
-        // ✅ Lấy roles và permissions từ token
-        List<String> roles = jwtService.extractRoles(token);
-        List<String> permissions = jwtService.extractPermissions(token);
+        JwtPrincipal principal = verified.get();
 
         // ✅ Gộp authorities (ROLE_ + role name, cộng với permission name)
-        List<SimpleGrantedAuthority> authorities = new ArrayList<>();
-
-        if (roles != null) {
-            authorities.addAll(
-                    roles.stream()
-                            .map(r -> new SimpleGrantedAuthority("ROLE_" + r))
-                            .collect(Collectors.toList())
-            );
-        }
-
-        if (permissions != null) {
-            authorities.addAll(
-                    permissions.stream()
-                            .map(SimpleGrantedAuthority::new)
-                            .collect(Collectors.toList())
-            );
-        }
+        List<SimpleGrantedAuthority> authorities =
+                new ArrayList<>(principal.roles().size() + principal.permissions().size());
+        principal.roles().forEach(r -> authorities.add(new SimpleGrantedAuthority("ROLE_" + r)));
+        principal.permissions().forEach(p -> authorities.add(new SimpleGrantedAuthority(p)));
 
         // ✅ Tạo Authentication object
-        var auth = new UsernamePasswordAuthenticationToken(username, null, authorities);
+        var auth = new UsernamePasswordAuthenticationToken(principal.email(), null, authorities);
+        // Bitset authority đã compile → PermissionChecker không phải duyệt authorities
+        auth.setDetails(principal);
         SecurityContextHolder.getContext().setAuthentication(auth);
+        authenticatedTimer.record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
 
         chain.doFilter(request, response);
     }
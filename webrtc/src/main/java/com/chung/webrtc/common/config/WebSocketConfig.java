@@ -1,6 +1,8 @@
 package com.chung.webrtc.common.config;
 
 import com.chung.webrtc.chat.socket.ChatSocketHandler;
+import com.chung.webrtc.common.websocket.WsCodec;
+import com.chung.webrtc.common.websocket.WsCompressionPolicy;
 import com.chung.webrtc.file.socket.FileSocketHandler;
 import com.chung.webrtc.meeting.security.JwtHandshakeInterceptor;
 import com.chung.webrtc.meeting.socket.CallSocketHandler;
@@ -32,30 +34,41 @@ public class WebSocketConfig implements WebSocketConfigurer {
 
     private final FileSocketHandler fileSocketHandler;
 
+    private final WsCompressionPolicy compressionPolicy;
+
     @Override
     public void registerWebSocketHandlers(WebSocketHandlerRegistry registry) {
         log.info("🔧 Registering WebSocket endpoints (pure WebSocket mode)...");
 
+        // 📦 Endpoint tần suất cao cho phép client chọn sub-protocol nhị phân (CBOR);
+        // không gửi Sec-WebSocket-Protocol → JSON text như cũ.
+        // 🗜️ permessage-deflate bật / tắt theo endpoint (app.ws.compression.endpoints)
+
         // --- Signaling (WebRTC offer/answer exchange)
         registry.addHandler(signalingHandler, "/ws/signaling")
+                .setHandshakeHandler(compressionPolicy.handshakeHandler("/ws/signaling", WsCodec.CBOR_PROTOCOL))
                 .addInterceptors(jwtHandshakeInterceptor)
                 // ⚠️ Dùng wildcard để chấp nhận cả localhost & IP khác
                 .setAllowedOriginPatterns("*");
 
         // --- Call (incoming call notifications)
         registry.addHandler(callSocketHandler, "/ws/call")
+                .setHandshakeHandler(compressionPolicy.handshakeHandler("/ws/call"))
                 .addInterceptors(jwtHandshakeInterceptor)
                 .setAllowedOriginPatterns("*");
 
         registry.addHandler(meetingSocketHandler, "/ws/meeting")
+                .setHandshakeHandler(compressionPolicy.handshakeHandler("/ws/meeting", WsCodec.CBOR_PROTOCOL))
                 .addInterceptors(jwtHandshakeInterceptor)
                 .setAllowedOriginPatterns("*");
 
         registry.addHandler(chatSocketHandler, "/ws/chat")
+                .setHandshakeHandler(compressionPolicy.handshakeHandler("/ws/chat", WsCodec.CBOR_PROTOCOL))
                 .addInterceptors(jwtHandshakeInterceptor)
                 .setAllowedOriginPatterns("*");
 
         registry.addHandler(fileSocketHandler, "/ws/file")
+                .setHandshakeHandler(compressionPolicy.handshakeHandler("/ws/file"))
                 .addInterceptors(jwtHandshakeInterceptor)
                 .setAllowedOriginPatterns("*");
 
@@ -1,20 +1,78 @@
 package com.chung.webrtc.common.util;
 
-import com.chung.webrtc.auth.entity.Permission;
-import com.chung.webrtc.auth.entity.User;
 import com.chung.webrtc.auth.repository.UserRepository;
 import com.chung.webrtc.common.exception.AppException;
 import com.chung.webrtc.common.exception.ErrorCode;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import jakarta.annotation.PostConstruct;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
 
+import java.time.Duration;
+import java.time.Instant;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.stream.Collectors;
+
+/**
+ * 🔐 Kiểm tra quyền theo email.
+ * - Cache user → tập quyền hiệu lực (LRU + TTL) → gửi chat / thao tác group không chạm MySQL.
+ * - Đổi role của user → invalidate(email); sửa role / permission → invalidateAll().
+ * - Gọi trong transaction: chỉ xóa cache sau khi commit, tránh request xen giữa nạp lại dữ liệu chưa commit
+ *   (hoặc dữ liệu cũ) vào cache rồi giữ tới hết TTL.
+ */
 @Slf4j
 @Component
 @RequiredArgsConstructor
 public class PermissionUtil {
 
     private final UserRepository userRepository;
+    private final MeterRegistry meterRegistry;
+
+    @Value("${app.permission.cache.max-users:20000}")
+    private int maxUsers;
+
+    @Value("${app.permission.cache.ttl-minutes:10}")
+    private long ttlMinutes;
+
+    private record CachedPermissions(Set<String> names, Instant loadedAt) {}
+
+    private final LinkedHashMap<String, CachedPermissions> cache = new LinkedHashMap<>(1024, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, CachedPermissions> eldest) {
+            return size() > maxUsers;
+        }
+    };
+    /** Tăng mỗi lần invalidate → lần nạp đang chạy song song không ghi đè dữ liệu cũ */
+    private long epoch;
+
+    private Counter hits;
+    private Counter misses;
+    private Timer dbLoads;
+
+    @PostConstruct
+    void registerMetrics() {
+        hits = Counter.builder("auth.permission_cache.hits")
+                .description("Số lần kiểm tra quyền lấy từ cache")
+                .register(meterRegistry);
+        misses = Counter.builder("auth.permission_cache.misses")
+                .description("Số lần kiểm tra quyền phải đọc MySQL")
+                .register(meterRegistry);
+        dbLoads = Timer.builder("auth.permission_cache.load")
+                .description("Thời gian nạp quyền của user từ MySQL")
+                .register(meterRegistry);
+        Gauge.builder("auth.permission_cache.size", this, PermissionUtil::cacheSize)
+                .register(meterRegistry);
+    }
 
     /**
      * Kiểm tra user có quyền hay không.
@@ -29,13 +87,7 @@ public class PermissionUtil {
             throw new AppException(ErrorCode.VALIDATION_ERROR, "Invalid permission validation parameters");
         }
 
-        User user = userRepository.findByEmail(email)
-                .orElseThrow(() -> new AppException(ErrorCode.USER_NOT_FOUND, "User not found: " + email));
-
-        boolean hasPermission = user.getRoles().stream()
-                .flatMap(role -> role.getPermissions().stream())
-                .map(Permission::getName)
-                .anyMatch(p -> p.equalsIgnoreCase(permissionName));
+        boolean hasPermission = permissionsOf(email).contains(permissionName.toUpperCase(Locale.ROOT));
 
         if (!hasPermission) {
             log.warn("User [{}] missing permission: {}", email, permissionName);
@@ -44,4 +96,76 @@ public class PermissionUtil {
 
         log.debug("User [{}] has permission: {}", email, permissionName);
     }
+
+    /** 🔄 Role của 1 user thay đổi */
+    public void invalidate(String... emails) {
+        afterCommit(() -> {
+            synchronized (cache) {
+                epoch++;
+                for (String email : emails) {
+                    if (email != null) cache.remove(email);
+                }
+            }
+        });
+    }
+
+    /** 🔄 Role / permission thay đổi → ảnh hưởng nhiều user, xóa toàn bộ */
+    public void invalidateAll() {
+        afterCommit(() -> {
+            synchronized (cache) {
+                epoch++;
+                cache.clear();
+            }
+            log.info("🔄 Permission cache cleared");
+        });
+    }
+
+    /** Chạy sau khi transaction hiện tại commit (rollback → bỏ qua); ngoài transaction chạy ngay */
+    private static void afterCommit(Runnable action) {
+        if (!TransactionSynchronizationManager.isSynchronizationActive()) {
+            action.run();
+            return;
+        }
+        TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+            @Override
+            public void afterCommit() {
+                action.run();
+            }
+        });
+    }
+
+    private Set<String> permissionsOf(String email) {
+        long startEpoch;
+        synchronized (cache) {
+            CachedPermissions cached = cache.get(email);
+            if (cached != null && cached.loadedAt().plus(Duration.ofMinutes(ttlMinutes)).isAfter(Instant.now())) {
+                hits.increment();
+                return cached.names();
+            }
+            startEpoch = epoch;
+        }
+
+        misses.increment();
+        Set<String> names = dbLoads.record(() -> loadPermissions(email));
+        synchronized (cache) {
+            if (epoch == startEpoch) cache.put(email, new CachedPermissions(names, Instant.now()));
+        }
+        return names;
+    }
+
+    private Set<String> loadPermissions(String email) {
+        Set<String> names = userRepository.findPermissionNamesByEmail(email);
+        if (names.isEmpty() && !userRepository.existsByEmail(email)) {
+            throw new AppException(ErrorCode.USER_NOT_FOUND, "User not found: " + email);
+        }
+        return names.stream()
+                .map(name -> name.toUpperCase(Locale.ROOT))
+                .collect(Collectors.toUnmodifiableSet());
+    }
+
+    private int cacheSize() {
+        synchronized (cache) {
+            return cache.size();
+        }
+    }
 }
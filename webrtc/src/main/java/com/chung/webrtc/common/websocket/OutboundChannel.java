@@ -0,0 +1,169 @@
+package com.chung.webrtc.common.websocket;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.web.socket.CloseStatus;
+import org.springframework.web.socket.WebSocketMessage;
+import org.springframework.web.socket.WebSocketSession;
+
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * ✅ Kênh gửi bất đồng bộ cho 1 WebSocketSession.
+ * - Caller chỉ enqueue rồi trả về ngay, không bao giờ chờ socket.
+ * - Hàng đợi có giới hạn số frame, số byte đang buffer và thời gian 1 lần gửi.
+ * - Chỉ 1 writer drain hàng đợi tại 1 thời điểm → giữ đúng thứ tự frame.
+ */
+@Slf4j
+public final class OutboundChannel {
+
+    public static final CloseStatus OVERFLOW_STATUS =
+            CloseStatus.SESSION_NOT_RELIABLE.withReason("Outbound buffer overflow");
+
+    private final WebSocketSession session;
+    private final Executor writer;
+    private final int queueCapacity;
+    private final long bufferSizeLimit;
+    private final long sendTimeLimitNanos;
+
+    private final Queue<WebSocketMessage<?>> queue = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger queuedFrames = new AtomicInteger();
+    private final AtomicLong bufferedBytes = new AtomicLong();
+    private final AtomicBoolean draining = new AtomicBoolean();
+    private final AtomicLong droppedFrames = new AtomicLong();
+
+    /** Thời điểm bắt đầu lần gửi hiện tại (0 = không gửi) */
+    private volatile long sendStartNanos;
+    private volatile boolean closed;
+
+    OutboundChannel(WebSocketSession session, Executor writer,
+                    int queueCapacity, long bufferSizeLimit, long sendTimeLimitMs) {
+        this.session = session;
+        this.writer = writer;
+        this.queueCapacity = queueCapacity;
+        this.bufferSizeLimit = bufferSizeLimit;
+        this.sendTimeLimitNanos = TimeUnit.MILLISECONDS.toNanos(sendTimeLimitMs);
+    }
+
+    /**
+     * @return true nếu frame đã được nhận vào hàng đợi
+     */
+    boolean offer(WebSocketMessage<?> message, OverflowPolicy policy) {
+        if (closed || !session.isOpen()) return false;
+
+        int size = message.getPayloadLength();
+        if (isOverLimit(size)) {
+            if (policy == OverflowPolicy.DROP) {
+                droppedFrames.incrementAndGet();
+                log.debug("⚠️ Dropped frame for slow session {} (queued={}, bytes={})",
+                        session.getId(), queuedFrames.get(), bufferedBytes.get());
+                return false;
+            }
+            closeOnOverflow();
+            return false;
+        }
+
+        queue.add(message);
+        queuedFrames.incrementAndGet();
+        bufferedBytes.addAndGet(size);
+        scheduleDrain();
+        return true;
+    }
+
+    /** 🐢 Session đang bị dồn (dùng để bỏ qua các frame không quan trọng) */
+    boolean isBackedUp() {
+        return queuedFrames.get() >= queueCapacity / 2 || isSendTimedOut();
+    }
+
+    boolean isSendTimedOut() {
+        long start = sendStartNanos;
+        return start != 0 && System.nanoTime() - start > sendTimeLimitNanos;
+    }
+
+    int queuedFrames() {
+        return queuedFrames.get();
+    }
+
+    long bufferedBytes() {
+        return bufferedBytes.get();
+    }
+
+    long droppedFrames() {
+        return droppedFrames.get();
+    }
+
+    boolean isClosed() {
+        return closed || !session.isOpen();
+    }
+
+    /** 💥 Vượt giới hạn với frame bắt buộc → đóng session để client reconnect */
+    void closeOnOverflow() {
+        if (closed) return;
+        closed = true;
+        log.warn("💥 Closing slow session {} (queued={}, bytes={}, sendTimedOut={})",
+                session.getId(), queuedFrames.get(), bufferedBytes.get(), isSendTimedOut());
+        discard();
+        try {
+            session.close(OVERFLOW_STATUS);
+        } catch (Exception e) {
+            log.debug("⚠️ Error closing session {}: {}", session.getId(), e.getMessage());
+        }
+    }
+
+    void discard() {
+        closed = true;
+        queue.clear();
+        queuedFrames.set(0);
+        bufferedBytes.set(0);
+    }
+
+    private boolean isOverLimit(int nextSize) {
+        return queuedFrames.get() >= queueCapacity
+                || bufferedBytes.get() + nextSize > bufferSizeLimit
+                || isSendTimedOut();
+    }
+
+    private void scheduleDrain() {
+        if (draining.compareAndSet(false, true)) {
+            try {
+                writer.execute(this::drain);
+            } catch (RuntimeException e) {
+                draining.set(false);
+                log.error("❌ Cannot schedule WS writer for {}: {}", session.getId(), e.getMessage());
+            }
+        }
+    }
+
+    private void drain() {
+        try {
+            WebSocketMessage<?> message;
+            while (!closed && (message = queue.poll()) != null) {
+                queuedFrames.decrementAndGet();
+                bufferedBytes.addAndGet(-message.getPayloadLength());
+
+                if (!session.isOpen()) {
+                    discard();
+                    return;
+                }
+
+                sendStartNanos = System.nanoTime();
+                try {
+                    session.sendMessage(message);
+                } catch (Exception e) {
+                    log.warn("⚠️ Failed to send WS to {}: {}", session.getId(), e.getMessage());
+                } finally {
+                    sendStartNanos = 0;
+                }
+            }
+        } finally {
+            draining.set(false);
+        }
+        // Frame có thể được enqueue đúng lúc writer vừa thoát vòng lặp
+        if (!closed && !queue.isEmpty()) scheduleDrain();
+    }
+}
@@ -0,0 +1,121 @@
+package com.chung.webrtc.common.websocket;
+
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import org.springframework.web.socket.WebSocketMessage;
+import org.springframework.web.socket.WebSocketSession;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * ✅ Quản lý {@link OutboundChannel} cho mọi WebSocketSession (chat, meeting, call, signaling, file).
+ * - Handler / registry không gọi session.sendMessage trực tiếp mà đi qua đây.
+ * - Mỗi session có 1 hàng đợi riêng, drain bởi virtual thread → client chậm không chặn broadcast.
+ * - Watchdog định kỳ đóng các session bị treo quá send-time-limit.
+ */
+@Slf4j
+@Component
+@RequiredArgsConstructor
+public class OutboundChannelRegistry {
+
+    private final WsCompressionPolicy compressionPolicy;
+
+    @Value("${app.ws.outbound.queue-capacity:512}")
+    private int queueCapacity;
+
+    @Value("${app.ws.outbound.buffer-size-limit:1048576}")
+    private long bufferSizeLimit;
+
+    @Value("${app.ws.outbound.send-time-limit-ms:10000}")
+    private long sendTimeLimitMs;
+
+    private final Map<String, OutboundChannel> channels = new ConcurrentHashMap<>();
+
+    private final ExecutorService writer =
+            Executors.newThreadPerTaskExecutor(Thread.ofVirtual().name("ws-out-", 0).factory());
+
+    private final ScheduledExecutorService watchdog = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread t = new Thread(r, "ws-out-watchdog");
+        t.setDaemon(true);
+        return t;
+    });
+
+    @PostConstruct
+    void startWatchdog() {
+        long period = Math.max(sendTimeLimitMs / 2, 500);
+        watchdog.scheduleWithFixedDelay(this::closeStuckSessions, period, period, TimeUnit.MILLISECONDS);
+    }
+
+    /** 📤 Frame bắt buộc: nếu hàng đợi tràn thì đóng session */
+    public boolean send(WebSocketSession session, WsFrame frame) {
+        return send(session, frame, OverflowPolicy.CLOSE);
+    }
+
+    /** 📤 Frame có thể bỏ (typing, presence...): nếu hàng đợi tràn thì drop */
+    public boolean sendDroppable(WebSocketSession session, WsFrame frame) {
+        return send(session, frame, OverflowPolicy.DROP);
+    }
+
+    private boolean send(WebSocketSession session, WsFrame frame, OverflowPolicy policy) {
+        if (session == null || !session.isOpen()) return false;
+        WebSocketMessage<?> message = frame.messageFor(session);
+        // Đo trước khi enqueue: writer có thể gửi xong (tiêu thụ ByteBuffer của BinaryMessage) ngay sau offer
+        int size = message.getPayloadLength();
+        boolean queued = channelOf(session).offer(message, policy);
+        if (queued) compressionPolicy.recordEgress(session, frame, message, size);
+        return queued;
+    }
+
+    public boolean send(WebSocketSession session, WebSocketMessage<?> message, OverflowPolicy policy) {
+        if (session == null || !session.isOpen()) return false;
+        return channelOf(session).offer(message, policy);
+    }
+
+    /** 🐢 Session đang bị dồn frame → caller có thể bỏ qua cập nhật không quan trọng */
+    public boolean isBackedUp(WebSocketSession session) {
+        OutboundChannel channel = channels.get(session.getId());
+        return channel != null && channel.isBackedUp();
+    }
+
+    /** 🧹 Gọi trong afterConnectionClosed của mọi handler */
+    public void release(WebSocketSession session) {
+        OutboundChannel channel = channels.remove(session.getId());
+        if (channel != null) {
+            channel.discard();
+            if (channel.droppedFrames() > 0) {
+                log.info("🧹 Released outbound channel {} (dropped {} frames)", session.getId(), channel.droppedFrames());
+            }
+        }
+    }
+
+    public int channelCount() {
+        return channels.size();
+    }
+
+    private OutboundChannel channelOf(WebSocketSession session) {
+        return channels.computeIfAbsent(session.getId(),
+                id -> new OutboundChannel(session, writer, queueCapacity, bufferSizeLimit, sendTimeLimitMs));
+    }
+
+    private void closeStuckSessions() {
+        channels.values().forEach(channel -> {
+            if (channel.isSendTimedOut()) channel.closeOnOverflow();
+        });
+        channels.values().removeIf(OutboundChannel::isClosed);
+    }
+
+    @PreDestroy
+    void shutdown() {
+        watchdog.shutdownNow();
+        writer.shutdown();
+    }
+}
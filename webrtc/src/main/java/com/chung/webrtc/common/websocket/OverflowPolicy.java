@@ -0,0 +1,11 @@
+package com.chung.webrtc.common.websocket;
+
+/**
+ * Cách xử lý khi hàng đợi gửi của 1 session đã đầy / quá giới hạn.
+ */
+public enum OverflowPolicy {
+    /** Bỏ frame (typing, presence... có thể mất mà không sai trạng thái) */
+    DROP,
+    /** Đóng session với {@link OutboundChannel#OVERFLOW_STATUS} để client reconnect và sync lại */
+    CLOSE
+}
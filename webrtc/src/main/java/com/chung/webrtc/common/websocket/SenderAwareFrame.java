@@ -0,0 +1,43 @@
+package com.chung.webrtc.common.websocket;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+
+/**
+ * ✅ Cặp frame cho tin nhắn chat: bản cho chính người gửi ("You") và bản cho người khác.
+ * Mỗi biến thể chỉ được serialize 1 lần, dù phòng có bao nhiêu session.
+ */
+public final class SenderAwareFrame {
+
+    public static final String SELF_NAME = "You";
+
+    private final String sender;
+    private final WsFrame selfFrame;
+    private final WsFrame othersFrame;
+
+    private SenderAwareFrame(String sender, WsFrame selfFrame, WsFrame othersFrame) {
+        this.sender = sender;
+        this.selfFrame = selfFrame;
+        this.othersFrame = othersFrame;
+    }
+
+    /**
+     * @param payload    node đã điền đủ các field chung (sẽ bị ghi đè các nameFields)
+     * @param senderName tên hiển thị cho người nhận khác
+     * @param nameFields các field mang tên người gửi (vd: senderName, lastSenderName)
+     */
+    public static SenderAwareFrame of(ObjectMapper mapper, ObjectNode payload,
+                                      String sender, String senderName, String... nameFields) {
+        for (String field : nameFields) payload.put(field, senderName);
+        WsFrame others = WsFrame.of(mapper, payload);
+
+        for (String field : nameFields) payload.put(field, SELF_NAME);
+        WsFrame self = WsFrame.of(mapper, payload);
+
+        return new SenderAwareFrame(sender, self, others);
+    }
+
+    public WsFrame forRecipient(String recipientEmail) {
+        return sender != null && sender.equalsIgnoreCase(recipientEmail) ? selfFrame : othersFrame;
+    }
+}
@@ -0,0 +1,184 @@
+package com.chung.webrtc.common.websocket;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.core.io.JsonStringEncoder;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * ⚡ Relay nhanh cho frame signaling (offer / answer / ICE) không dựng JsonNode.
+ * - {@link #peek(byte[])} đọc streaming các field định tuyến ở top-level (type, to, from, candidate),
+ *   các field khác (sdp, candidate object...) chỉ skip, không tạo String / node.
+ * - {@link #withFrom(byte[], Route, String)} chèn "from" đã xác thực bằng cách ghép byte:
+ *   ghi đè giá trị "from" client gửi (nếu có) hoặc chèn ngay sau '{'. Phần còn lại giữ nguyên byte gốc.
+ * - {@link #iceBatch(String, String, List)} ghép nhiều candidate (byte gốc) thành 1 frame "ice-candidates".
+ */
+public final class SignalRelay {
+
+    private static final JsonFactory JSON_FACTORY = new JsonFactory();
+    private static final byte[] FROM_FIELD = "\"from\":".getBytes(StandardCharsets.UTF_8);
+    private static final byte[] ICE_BATCH_HEAD = "{\"type\":\"ice-candidates\",\"from\":".getBytes(StandardCharsets.UTF_8);
+    private static final byte[] TO_FIELD = ",\"to\":".getBytes(StandardCharsets.UTF_8);
+    private static final byte[] CANDIDATES_FIELD = ",\"candidates\":[".getBytes(StandardCharsets.UTF_8);
+
+    private SignalRelay() {
+    }
+
+    /**
+     * Kết quả peek. Các offset là vị trí byte trong payload gốc, dùng để ghép lại khi relay.
+     *
+     * @param objectStart   vị trí '{' mở object gốc
+     * @param fromStart     vị trí bắt đầu giá trị "from" (-1 nếu không có)
+     * @param fromEnd       vị trí ngay sau giá trị "from"
+     * @param candidateStart vị trí bắt đầu giá trị "candidate" (-1 nếu không có)
+     * @param candidateEnd  vị trí ngay sau giá trị "candidate"
+     * @param empty         object rỗng ({}), khi chèn không cần dấu phẩy
+     * @param nullCandidate field "candidate" có mặt và bằng null (ICE end-of-candidates)
+     */
+    public record Route(String type, String to, String from,
+                        int objectStart, int fromStart, int fromEnd,
+                        int candidateStart, int candidateEnd,
+                        boolean empty, boolean nullCandidate) {
+    }
+
+    /**
+     * Đọc field định tuyến; trả null nếu payload không an toàn để ghép byte → caller dùng đường JsonNode.
+     * Null khi: không phải 1 JSON object, type / to / from không phải scalar hoặc xuất hiện 2 lần,
+     * hoặc parser không kết thúc đúng ở '}' ngoài cùng (còn dữ liệu thừa).
+     */
+    public static Route peek(byte[] json) throws IOException {
+        try (JsonParser parser = JSON_FACTORY.createParser(json)) {
+            if (parser.nextToken() != JsonToken.START_OBJECT) return null;
+            int objectStart = (int) parser.currentTokenLocation().getByteOffset();
+
+            String type = null, to = null, from = null;
+            boolean hasType = false, hasTo = false, hasFrom = false, hasCandidate = false;
+            int fromStart = -1, fromEnd = -1;
+            int candidateStart = -1, candidateEnd = -1;
+            boolean empty = true, nullCandidate = false;
+
+            JsonToken token;
+            while ((token = parser.nextToken()) == JsonToken.FIELD_NAME) {
+                empty = false;
+                String name = parser.currentName();
+                JsonToken value = parser.nextToken();
+                switch (name) {
+                    case "type" -> {
+                        if (hasType || value.isStructStart()) return null;
+                        hasType = true;
+                        type = scalarText(parser, value);
+                    }
+                    case "to" -> {
+                        if (hasTo || value.isStructStart()) return null;
+                        hasTo = true;
+                        to = scalarText(parser, value);
+                    }
+                    case "from" -> {
+                        // Ghi đè đúng vị trí: chỉ nhận 1 "from" scalar, không thì client đọc được bản sau (last wins)
+                        if (hasFrom || value.isStructStart()) return null;
+                        hasFrom = true;
+                        fromStart = (int) parser.currentTokenLocation().getByteOffset();
+                        from = scalarText(parser, value);
+                        parser.finishToken();
+                        fromEnd = (int) parser.currentLocation().getByteOffset();
+                    }
+                    case "candidate" -> {
+                        if (hasCandidate) return null;
+                        hasCandidate = true;
+                        candidateStart = (int) parser.currentTokenLocation().getByteOffset();
+                        nullCandidate = value == JsonToken.VALUE_NULL;
+                        if (value.isStructStart()) parser.skipChildren();
+                        else parser.finishToken();
+                        candidateEnd = (int) parser.currentLocation().getByteOffset();
+                    }
+                    default -> {
+                        if (value.isStructStart()) parser.skipChildren();
+                    }
+                }
+            }
+            // Phải dừng ở '}' ngoài cùng và không còn token nào phía sau
+            if (token != JsonToken.END_OBJECT || parser.nextToken() != null) return null;
+            return new Route(type, to, from, objectStart, fromStart, fromEnd,
+                    candidateStart, candidateEnd, empty, nullCandidate);
+        }
+    }
+
+    /** Payload gốc với "from" = email đã xác thực (không parse lại, không re-serialize) */
+    public static byte[] withFrom(byte[] json, Route route, String from) {
+        byte[] quoted = quote(from);
+
+        if (route.fromStart() >= 0) {
+            // Ghi đè giá trị "from" client gửi
+            int tail = json.length - route.fromEnd();
+            byte[] out = new byte[route.fromStart() + quoted.length + tail];
+            System.arraycopy(json, 0, out, 0, route.fromStart());
+            System.arraycopy(quoted, 0, out, route.fromStart(), quoted.length);
+            System.arraycopy(json, route.fromEnd(), out, route.fromStart() + quoted.length, tail);
+            return out;
+        }
+
+        // Chèn "from":"..." ngay sau '{'
+        int head = route.objectStart() + 1;
+        int comma = route.empty() ? 0 : 1;
+        byte[] out = new byte[json.length + FROM_FIELD.length + quoted.length + comma];
+        System.arraycopy(json, 0, out, 0, head);
+        int pos = head;
+        System.arraycopy(FROM_FIELD, 0, out, pos, FROM_FIELD.length);
+        pos += FROM_FIELD.length;
+        System.arraycopy(quoted, 0, out, pos, quoted.length);
+        pos += quoted.length;
+        if (comma == 1) out[pos++] = ',';
+        System.arraycopy(json, head, out, pos, json.length - head);
+        return out;
+    }
+
+    /** Byte gốc của giá trị "candidate" (object RTCIceCandidate hoặc null) */
+    public static byte[] candidate(byte[] json, Route route) {
+        if (route.candidateStart() < 0) return null;
+        return Arrays.copyOfRange(json, route.candidateStart(), route.candidateEnd());
+    }
+
+    /** {"type":"ice-candidates","from":..,"to":..,"candidates":[c1,c2,...]} ghép từ byte gốc */
+    public static byte[] iceBatch(String from, String to, List<byte[]> candidates) {
+        byte[] quotedFrom = quote(from);
+        byte[] quotedTo = quote(to);
+
+        int size = ICE_BATCH_HEAD.length + quotedFrom.length + TO_FIELD.length + quotedTo.length
+                + CANDIDATES_FIELD.length + Math.max(candidates.size() - 1, 0) + 2;
+        for (byte[] candidate : candidates) size += candidate.length;
+
+        byte[] out = new byte[size];
+        int pos = 0;
+        for (byte[] part : new byte[][]{ICE_BATCH_HEAD, quotedFrom, TO_FIELD, quotedTo, CANDIDATES_FIELD}) {
+            System.arraycopy(part, 0, out, pos, part.length);
+            pos += part.length;
+        }
+        for (int i = 0; i < candidates.size(); i++) {
+            if (i > 0) out[pos++] = ',';
+            byte[] candidate = candidates.get(i);
+            System.arraycopy(candidate, 0, out, pos, candidate.length);
+            pos += candidate.length;
+        }
+        out[pos++] = ']';
+        out[pos] = '}';
+        return out;
+    }
+
+    private static String scalarText(JsonParser parser, JsonToken value) throws IOException {
+        return value.isScalarValue() && value != JsonToken.VALUE_NULL ? parser.getValueAsString() : null;
+    }
+
+    private static byte[] quote(String value) {
+        byte[] escaped = JsonStringEncoder.getInstance().quoteAsUTF8(value);
+        byte[] quoted = new byte[escaped.length + 2];
+        quoted[0] = '"';
+        System.arraycopy(escaped, 0, quoted, 1, escaped.length);
+        quoted[quoted.length - 1] = '"';
+        return quoted;
+    }
+}
@@ -0,0 +1,175 @@
+package com.chung.webrtc.common.websocket;
+
+import com.chung.webrtc.auth.service.DisplayNameService;
+import com.chung.webrtc.auth.service.JwtPrincipal;
+import com.chung.webrtc.auth.service.JwtService;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import io.jsonwebtoken.JwtException;
+import jakarta.annotation.PreDestroy;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import org.springframework.web.socket.CloseStatus;
+import org.springframework.web.socket.WebSocketSession;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Map;
+import java.util.concurrent.*;
+
+/**
+ * 🔑 Xác thực WebSocket: dựng {@link WsPrincipal} lúc handshake và re-auth trên socket đang mở.
+ * - Trước khi token hết hạn {@code lead-seconds}, server đẩy frame "reauth-required".
+ * - Client trả {"type":"reauth","token":...} → verify 1 lần, cùng email và exp mới hơn → thay principal, trả "reauth-ok".
+ *   Token không mới hơn (client gửi lại đúng token cũ) bị từ chối, lịch nhắc giữ nguyên → không ping-pong.
+ * - Hết hạn mà chưa re-auth: nhắc lại tới hết {@code grace-seconds} sau exp rồi đóng session (mặc định).
+ *   Handshake bằng token đã hết hạn cũng chỉ được giữ kết nối trong grace để kịp re-auth.
+ *   {@code close-on-expiry=false}: chỉ nhắc, không đóng (opt-in, không khuyến nghị).
+ */
+@Slf4j
+@Component
+@RequiredArgsConstructor
+public class WsAuthService {
+
+    public static final String REAUTH_TYPE = "reauth";
+
+    private final JwtService jwtService;
+    private final DisplayNameService displayNameService;
+    private final OutboundChannelRegistry outboundChannels;
+    private final ObjectMapper mapper;
+
+    @Value("${app.ws.reauth.lead-seconds:60}")
+    private long leadSeconds;
+
+    @Value("${app.ws.reauth.close-on-expiry:true}")
+    private boolean closeOnExpiry;
+
+    @Value("${app.ws.reauth.grace-seconds:60}")
+    private long graceSeconds;
+
+    /** sessionId → lịch nhắc re-auth đang chờ */
+    private final Map<String, ScheduledFuture<?>> reminders = new ConcurrentHashMap<>();
+    private final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread t = new Thread(r, "ws-reauth");
+        t.setDaemon(true);
+        return t;
+    });
+
+    /**
+     * 🤝 Handshake: verify chữ ký 1 lần; token đã hết hạn vẫn được nhận nhưng phải re-auth trong grace-seconds, không thì bị đóng.
+     *
+     * @throws JwtException nếu token sai chữ ký / không đọc được
+     */
+    public WsPrincipal authenticate(String token) {
+        return toPrincipal(jwtService.verifyAllowingExpired(token));
+    }
+
+    /** Bắt đầu theo dõi hạn token của session (gọi trong afterConnectionEstablished) */
+    public void track(WebSocketSession session) {
+        WsPrincipal principal = WsPrincipal.of(session);
+        if (principal != null) schedule(session, principal, true);
+    }
+
+    public void untrack(WebSocketSession session) {
+        ScheduledFuture<?> reminder = reminders.remove(session.getId());
+        if (reminder != null) reminder.cancel(false);
+    }
+
+    /**
+     * Xử lý frame "reauth" nếu đúng loại.
+     *
+     * @return true nếu frame đã được xử lý (handler không cần dispatch tiếp)
+     */
+    public boolean handleReauth(WebSocketSession session, JsonNode msg) {
+        if (!REAUTH_TYPE.equals(msg.path("type").asText())) return false;
+
+        WsPrincipal current = WsPrincipal.of(session);
+        ObjectNode reply = mapper.createObjectNode();
+        try {
+            WsPrincipal refreshed = toPrincipal(jwtService.verify(msg.path("token").asText(null)));
+            if (current == null || !current.email().equals(refreshed.email())) {
+                reply.put("type", "reauth-failed");
+                reply.put("reason", "Token belongs to another user");
+            } else if (!isNewer(refreshed, current)) {
+                reply.put("type", "reauth-failed");
+                reply.put("reason", "Token is not newer than the current one");
+            } else {
+                session.getAttributes().put(WsPrincipal.ATTRIBUTE, refreshed);
+                schedule(session, refreshed, false);
+                reply.put("type", "reauth-ok");
+                if (refreshed.expiresAt() != null) reply.put("expiresAt", refreshed.expiresAt().toString());
+                log.debug("🔑 [{}] Re-authenticated {}", session.getId(), refreshed.email());
+            }
+        } catch (JwtException | IllegalArgumentException e) {
+            reply.put("type", "reauth-failed");
+            reply.put("reason", "Invalid or expired token");
+        }
+        outboundChannels.send(session, WsFrame.of(mapper, reply));
+        return true;
+    }
+
+    private static boolean isNewer(WsPrincipal refreshed, WsPrincipal current) {
+        if (current.expiresAt() == null) return true;
+        return refreshed.expiresAt() == null || refreshed.expiresAt().isAfter(current.expiresAt());
+    }
+
+    private WsPrincipal toPrincipal(JwtPrincipal jwt) {
+        return WsPrincipal.of(jwt.email(), jwt.roles(), jwt.permissions(),
+                displayNameService.getDisplayName(jwt.email()), jwt.expiresAt());
+    }
+
+    /**
+     * @param initial lúc handshake: token đã nằm trong cửa sổ lead thì nhắc ngay.
+     *                Sau re-auth: không bao giờ nhắc ngay (token mới vẫn ngắn hơn lead → nhắc lúc hết hạn)
+     */
+    private void schedule(WebSocketSession session, WsPrincipal principal, boolean initial) {
+        untrack(session);
+        if (principal.expiresAt() == null) return;
+
+        Instant now = Instant.now();
+        // Hạn chót giữ kết nối: exp + grace; token đã hết hạn lúc handshake → tính grace từ lúc kết nối
+        Instant deadline = (principal.expiresAt().isBefore(now) ? now : principal.expiresAt())
+                .plusSeconds(graceSeconds);
+
+        long remainingMs = Duration.between(now, principal.expiresAt()).toMillis();
+        long delayMs = remainingMs - TimeUnit.SECONDS.toMillis(leadSeconds);
+        if (delayMs <= 0) {
+            delayMs = initial ? 0 : Math.max(remainingMs, TimeUnit.SECONDS.toMillis(Math.max(1, leadSeconds)));
+        }
+        reminders.put(session.getId(), scheduler.schedule(
+                () -> remind(session, principal, deadline), delayMs, TimeUnit.MILLISECONDS));
+    }
+
+    private void remind(WebSocketSession session, WsPrincipal principal, Instant deadline) {
+        if (!session.isOpen() || WsPrincipal.of(session) != principal) return;
+
+        Instant now = Instant.now();
+        if (closeOnExpiry && !now.isBefore(deadline)) {
+            log.info("🔒 [{}] Token of {} expired without re-auth, closing", session.getId(), principal.email());
+            reminders.remove(session.getId());
+            try {
+                session.close(CloseStatus.POLICY_VIOLATION.withReason("Token expired"));
+            } catch (Exception ignored) {}
+            return;
+        }
+
+        ObjectNode frame = mapper.createObjectNode();
+        frame.put("type", "reauth-required");
+        frame.put("expiresAt", principal.expiresAt().toString());
+        outboundChannels.send(session, WsFrame.of(mapper, frame));
+
+        // Nhắc lại mỗi lead-seconds cho đến khi client re-auth; không vượt quá hạn chót đóng session
+        long nextMs = TimeUnit.SECONDS.toMillis(Math.max(1, leadSeconds));
+        if (closeOnExpiry) nextMs = Math.min(nextMs, Math.max(0, Duration.between(now, deadline).toMillis()));
+        reminders.put(session.getId(), scheduler.schedule(
+                () -> remind(session, principal, deadline), nextMs, TimeUnit.MILLISECONDS));
+    }
+
+    @PreDestroy
+    void shutdown() {
+        scheduler.shutdownNow();
+    }
+}
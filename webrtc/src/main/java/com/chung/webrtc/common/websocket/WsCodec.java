@@ -0,0 +1,61 @@
+package com.chung.webrtc.common.websocket;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.dataformat.cbor.CBORFactory;
+import org.springframework.web.socket.BinaryMessage;
+import org.springframework.web.socket.WebSocketSession;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+
+/**
+ * 📦 Sub-protocol nhị phân "cbor.v1" (opt-in qua Sec-WebSocket-Protocol).
+ * Cùng event model với JSON, chỉ khác cách mã hóa: client chọn CBOR thì gửi / nhận BinaryMessage.
+ * Không chọn sub-protocol → JSON text như cũ.
+ */
+public final class WsCodec {
+
+    public static final String CBOR_PROTOCOL = "cbor.v1";
+
+    private static final JsonFactory JSON_FACTORY = new JsonFactory();
+    private static final CBORFactory CBOR_FACTORY = new CBORFactory();
+    private static final ObjectMapper CBOR_MAPPER = new ObjectMapper(CBOR_FACTORY);
+
+    private WsCodec() {
+    }
+
+    public static boolean isCbor(WebSocketSession session) {
+        return CBOR_PROTOCOL.equals(session.getAcceptedProtocol());
+    }
+
+    /** Đọc frame CBOR thành cùng JsonNode mà handler JSON vẫn dùng */
+    public static JsonNode read(BinaryMessage message) throws IOException {
+        ByteBuffer payload = message.getPayload();
+        if (payload.hasArray()) {
+            return CBOR_MAPPER.readTree(payload.array(), payload.arrayOffset() + payload.position(), payload.remaining());
+        }
+        byte[] bytes = new byte[payload.remaining()];
+        payload.duplicate().get(bytes);
+        return CBOR_MAPPER.readTree(bytes);
+    }
+
+    /** Chuyển JSON UTF-8 sang CBOR theo kiểu streaming (không dựng cây) */
+    static byte[] jsonToCbor(byte[] json) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream(json.length);
+        try (JsonParser parser = JSON_FACTORY.createParser(json);
+             JsonGenerator generator = CBOR_FACTORY.createGenerator(out)) {
+            while (parser.nextToken() != null) {
+                generator.copyCurrentEvent(parser);
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException("Cannot transcode WS frame to CBOR", e);
+        }
+        return out.toByteArray();
+    }
+}
@@ -0,0 +1,182 @@
+package com.chung.webrtc.common.websocket;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletRequestWrapper;
+import jakarta.websocket.Endpoint;
+import jakarta.websocket.Extension;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.server.ServerHttpRequest;
+import org.springframework.http.server.ServerHttpResponse;
+import org.springframework.http.server.ServletServerHttpRequest;
+import org.springframework.lang.Nullable;
+import org.springframework.stereotype.Component;
+import org.springframework.web.socket.TextMessage;
+import org.springframework.web.socket.WebSocketExtension;
+import org.springframework.web.socket.WebSocketMessage;
+import org.springframework.web.socket.WebSocketSession;
+import org.springframework.web.socket.server.HandshakeFailureException;
+import org.springframework.web.socket.server.standard.StandardWebSocketUpgradeStrategy;
+import org.springframework.web.socket.server.support.DefaultHandshakeHandler;
+
+import java.net.URI;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * 🗜️ Chính sách permessage-deflate theo từng endpoint WebSocket.
+ * - Tomcat tự nhận permessage-deflate cho mọi endpoint nếu browser đề nghị;
+ *   ở đây chỉ giữ lại cho endpoint có frame lớn, dễ nén (chat history, group-sync, SDP).
+ * - Endpoint frame nhỏ, nhạy độ trễ (call, file) bị gỡ extension lúc handshake → không tốn CPU nén.
+ *   Tomcat (UpgradeUtil.doUpgrade) tự thỏa thuận lại từ header Sec-WebSocket-Extensions của request
+ *   với extension cài sẵn, bỏ qua danh sách Spring đã lọc → phải gỡ permessage-deflate ngay trên header.
+ * - permessage-deflate áp cho cả kết nối; Tomcat nén mọi message, không có ngưỡng kích thước theo frame.
+ * - Đếm byte raw theo endpoint: ws.egress.bytes{endpoint, encoding=raw} (số byte thật).
+ * - Byte sau nén KHÔNG đo được từ Tomcat; chỉ có ước lượng lấy mẫu, tắt mặc định (deflate lại payload tốn CPU):
+ *   bật bằng {@code estimate-sample-rate} > 0 → meter riêng ws.egress.deflate.estimated_bytes{endpoint, sample_rate}.
+ *   Mỗi frame được chọn đóng góp deflatedSize / sample_rate → chỉ dùng để xem xu hướng / tỉ lệ nén, không phải byte count.
+ */
+@Slf4j
+@Component
+@RequiredArgsConstructor
+public class WsCompressionPolicy {
+
+    public static final String PERMESSAGE_DEFLATE = "permessage-deflate";
+
+    private final MeterRegistry meterRegistry;
+
+    @Value("${app.ws.compression.endpoints:/ws/chat,/ws/meeting,/ws/signaling}")
+    private Set<String> compressedEndpoints;
+
+    // Chỉ dùng cho ước lượng: frame nhỏ hơn không deflate thử, tính bằng kích thước raw (ước lượng hơi cao)
+    @Value("${app.ws.compression.estimate-min-bytes:1024}")
+    private int estimateMinBytes;
+
+    // Tỉ lệ frame được deflate thử để ước lượng byte sau nén (0 = tắt, ví dụ 0.01 = 1%)
+    @Value("${app.ws.compression.estimate-sample-rate:0}")
+    private double estimateSampleRate;
+
+    private final Map<String, Counter> counters = new ConcurrentHashMap<>();
+
+    public boolean isEnabled(String endpoint) {
+        return compressedEndpoints.contains(endpoint);
+    }
+
+    /** HandshakeHandler cho 1 endpoint: gỡ permessage-deflate nếu endpoint không nằm trong policy */
+    public DefaultHandshakeHandler handshakeHandler(String endpoint, String... subProtocols) {
+        boolean deflate = isEnabled(endpoint);
+        DefaultHandshakeHandler handler = new DefaultHandshakeHandler(
+                deflate ? new StandardWebSocketUpgradeStrategy() : new NoDeflateUpgradeStrategy()) {
+            @Override
+            protected List<WebSocketExtension> filterRequestedExtensions(ServerHttpRequest request,
+                                                                         List<WebSocketExtension> requested,
+                                                                         List<WebSocketExtension> supported) {
+                List<WebSocketExtension> accepted = super.filterRequestedExtensions(request, requested, supported);
+                if (deflate) return accepted;
+                return accepted.stream()
+                        .filter(ext -> !PERMESSAGE_DEFLATE.equalsIgnoreCase(ext.getName()))
+                        .toList();
+            }
+        };
+        if (subProtocols.length > 0) handler.setSupportedProtocols(subProtocols);
+        log.info("🗜️ {} → permessage-deflate {}", endpoint, deflate ? "on" : "off");
+        return handler;
+    }
+
+    /** Upgrade với request đã gỡ permessage-deflate khỏi header → container không thể thỏa thuận lại */
+    private static final class NoDeflateUpgradeStrategy extends StandardWebSocketUpgradeStrategy {
+        @Override
+        protected void upgradeInternal(ServerHttpRequest request, ServerHttpResponse response,
+                                       @Nullable String selectedProtocol, List<Extension> selectedExtensions,
+                                       Endpoint endpoint) throws HandshakeFailureException {
+            ServerHttpRequest stripped = new ServletServerHttpRequest(new WithoutDeflate(getHttpServletRequest(request)));
+            super.upgradeInternal(stripped, response, selectedProtocol, selectedExtensions, endpoint);
+        }
+    }
+
+    private static final class WithoutDeflate extends HttpServletRequestWrapper {
+        private static final String EXTENSIONS_HEADER = "Sec-WebSocket-Extensions";
+
+        WithoutDeflate(HttpServletRequest request) {
+            super(request);
+        }
+
+        @Override
+        public Enumeration<String> getHeaders(String name) {
+            Enumeration<String> values = super.getHeaders(name);
+            if (!EXTENSIONS_HEADER.equalsIgnoreCase(name) || values == null) return values;
+            List<String> kept = new ArrayList<>();
+            while (values.hasMoreElements()) {
+                String value = strip(values.nextElement());
+                if (!value.isEmpty()) kept.add(value);
+            }
+            return Collections.enumeration(kept);
+        }
+
+        @Override
+        public String getHeader(String name) {
+            String value = super.getHeader(name);
+            if (!EXTENSIONS_HEADER.equalsIgnoreCase(name) || value == null) return value;
+            String kept = strip(value);
+            return kept.isEmpty() ? null : kept;
+        }
+
+        /** "permessage-deflate; client_max_window_bits, x-foo" → "x-foo" */
+        private static String strip(String header) {
+            StringJoiner kept = new StringJoiner(", ");
+            for (String ext : header.split(",")) {
+                String name = ext.split(";", 2)[0].trim();
+                if (!name.isEmpty() && !PERMESSAGE_DEFLATE.equalsIgnoreCase(name)) kept.add(ext.trim());
+            }
+            return kept.toString();
+        }
+    }
+
+    /** 📊 Ghi nhận 1 frame gửi ra session (gọi từ OutboundChannelRegistry) */
+    public void recordEgress(WebSocketSession session, WsFrame frame, WebSocketMessage<?> message, int raw) {
+        String endpoint = endpointOf(session);
+        counters.computeIfAbsent(endpoint + "|raw", key -> Counter.builder("ws.egress.bytes")
+                .description("Byte payload gửi ra (trước permessage-deflate)")
+                .baseUnit("bytes")
+                .tag("endpoint", endpoint)
+                .tag("encoding", "raw")
+                .register(meterRegistry)).increment(raw);
+        if (estimateSampleRate > 0) {
+            double estimate = compressedEstimate(session, frame, message, raw);
+            if (estimate > 0) estimateCounter(endpoint).increment(estimate);
+        }
+    }
+
+    private double compressedEstimate(WebSocketSession session, WsFrame frame, WebSocketMessage<?> message, int raw) {
+        // Chỉ ước lượng cho frame JSON đủ lớn trên session đã thỏa thuận deflate;
+        // frame CBOR / frame nhỏ tính bằng kích thước thật (không transcode thêm để đo)
+        if (raw < estimateMinBytes || !(message instanceof TextMessage) || !isDeflateNegotiated(session)) return raw;
+        if (estimateSampleRate < 1 && ThreadLocalRandom.current().nextDouble() >= estimateSampleRate) return 0;
+        return frame.deflatedSize() / Math.min(estimateSampleRate, 1.0);
+    }
+
+    private static boolean isDeflateNegotiated(WebSocketSession session) {
+        for (WebSocketExtension ext : session.getExtensions()) {
+            if (PERMESSAGE_DEFLATE.equalsIgnoreCase(ext.getName())) return true;
+        }
+        return false;
+    }
+
+    private static String endpointOf(WebSocketSession session) {
+        URI uri = session.getUri();
+        return uri != null && uri.getPath() != null ? uri.getPath() : "unknown";
+    }
+
+    private Counter estimateCounter(String endpoint) {
+        return counters.computeIfAbsent(endpoint + "|estimate", key -> Counter.builder("ws.egress.deflate.estimated_bytes")
+                .description("Ước lượng lấy mẫu byte sau deflate (deflatedSize / sample_rate), không phải byte đo được")
+                .baseUnit("bytes")
+                .tag("endpoint", endpoint)
+                .tag("sample_rate", String.valueOf(estimateSampleRate))
+                .register(meterRegistry));
+    }
+}
@@ -0,0 +1,101 @@
+package com.chung.webrtc.common.websocket;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.springframework.web.socket.BinaryMessage;
+import org.springframework.web.socket.TextMessage;
+import org.springframework.web.socket.WebSocketMessage;
+import org.springframework.web.socket.WebSocketSession;
+
+import java.nio.charset.StandardCharsets;
+import java.util.zip.Deflater;
+
+/**
+ * ✅ Frame WS đã serialize sẵn.
+ * Encode đúng 1 lần rồi dùng chung 1 TextMessage cho mọi session nhận,
+ * để chi phí fan-out không tăng theo số người nhận.
+ * Biến thể CBOR (session chọn sub-protocol cbor.v1) cũng chỉ encode 1 lần, lazily; chỉ cache byte[],
+ * mỗi lần gửi bọc ByteBuffer mới vì Tomcat sendBinary tiêu thụ position của buffer.
+ * Kích thước sau deflate (cho metrics nén) cũng tính 1 lần / frame.
+ */
+public final class WsFrame {
+
+    private final byte[] utf8Payload;
+    private final TextMessage message;
+    private volatile byte[] cborPayload;
+    private volatile int deflatedSize = -1;
+
+    // TextMessage tạo từ byte[] giữ sẵn cả bytes lẫn String → không encode lại khi gửi/đo kích thước
+    private WsFrame(byte[] utf8Payload) {
+        this.utf8Payload = utf8Payload;
+        this.message = new TextMessage(utf8Payload);
+    }
+
+    public static WsFrame of(String payload) {
+        return new WsFrame(payload.getBytes(StandardCharsets.UTF_8));
+    }
+
+    /** Payload đã được serialize sẵn (ví dụ stream bằng JsonGenerator) */
+    public static WsFrame of(byte[] utf8Payload) {
+        return new WsFrame(utf8Payload);
+    }
+
+    public static WsFrame of(ObjectMapper mapper, JsonNode node) {
+        try {
+            return new WsFrame(mapper.writeValueAsBytes(node));
+        } catch (JsonProcessingException e) {
+            throw new IllegalStateException("Cannot encode WS frame: " + e.getMessage(), e);
+        }
+    }
+
+    public TextMessage message() {
+        return message;
+    }
+
+    /** Message theo sub-protocol đã thỏa thuận của session (JSON mặc định) */
+    public WebSocketMessage<?> messageFor(WebSocketSession session) {
+        return session != null && WsCodec.isCbor(session) ? cborMessage() : message;
+    }
+
+    private BinaryMessage cborMessage() {
+        byte[] cbor = cborPayload;
+        if (cbor == null) {
+            // Race vô hại: tệ nhất 2 thread cùng transcode 1 lần
+            cbor = WsCodec.jsonToCbor(utf8Payload);
+            cborPayload = cbor;
+        }
+        // BinaryMessage(byte[]) wrap 1 ByteBuffer riêng → mỗi session có position / remaining riêng
+        return new BinaryMessage(cbor);
+    }
+
+    public int size() {
+        return message.getPayloadLength();
+    }
+
+    /** Ước lượng số byte sau permessage-deflate (raw deflate, không context takeover); chỉ gọi cho frame được lấy mẫu */
+    public int deflatedSize() {
+        int size = deflatedSize;
+        if (size < 0) {
+            size = deflate(utf8Payload);
+            deflatedSize = size;
+        }
+        return size;
+    }
+
+    private static int deflate(byte[] input) {
+        Deflater deflater = new Deflater(Deflater.DEFAULT_COMPRESSION, true);
+        try {
+            deflater.setInput(input);
+            deflater.finish();
+            byte[] buffer = new byte[Math.min(input.length + 64, 8192)];
+            int total = 0;
+            while (!deflater.finished()) {
+                total += deflater.deflate(buffer);
+            }
+            return total;
+        } finally {
+            deflater.end();
+        }
+    }
+}
@@ -0,0 +1,53 @@
+package com.chung.webrtc.common.websocket;
+
+import org.springframework.web.socket.WebSocketSession;
+
+import java.time.Instant;
+import java.util.Collection;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+import java.util.stream.Collectors;
+
+/**
+ * 🔑 Danh tính của 1 WebSocket session, dựng 1 lần lúc handshake (và khi re-auth).
+ * Bất biến: re-auth thay cả object trong attribute, handler không cần parse JWT nữa.
+ *
+ * @param email       user đã xác thực
+ * @param roles       role từ token
+ * @param permissions quyền đã chuẩn hóa (upper-case) để kiểm tra O(1)
+ * @param displayName tên hiển thị tại thời điểm handshake
+ * @param expiresAt   hạn của token đang dùng (null = không hết hạn)
+ */
+public record WsPrincipal(String email, List<String> roles, Set<String> permissions,
+                          String displayName, Instant expiresAt) {
+
+    public static final String ATTRIBUTE = "principal";
+
+    public static WsPrincipal of(String email, List<String> roles, Collection<String> permissions,
+                                 String displayName, Instant expiresAt) {
+        Set<String> compiled = permissions.stream()
+                .map(p -> p.toUpperCase(Locale.ROOT))
+                .collect(Collectors.toUnmodifiableSet());
+        return new WsPrincipal(email, List.copyOf(roles), compiled, displayName, expiresAt);
+    }
+
+    /** Principal gắn với session (null nếu session chưa qua handshake JWT) */
+    public static WsPrincipal of(WebSocketSession session) {
+        Object principal = session.getAttributes().get(ATTRIBUTE);
+        return principal instanceof WsPrincipal p ? p : null;
+    }
+
+    public static String emailOf(WebSocketSession session) {
+        WsPrincipal principal = of(session);
+        return principal != null ? principal.email() : null;
+    }
+
+    public boolean hasPermission(String permissionName) {
+        return permissions.contains(permissionName.toUpperCase(Locale.ROOT));
+    }
+
+    public boolean isExpired(Instant now) {
+        return expiresAt != null && !expiresAt.isAfter(now);
+    }
+}
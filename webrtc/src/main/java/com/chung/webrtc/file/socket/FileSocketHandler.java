@@ -1,6 +1,9 @@
 package com.chung.webrtc.file.socket;
 
-import com.chung.webrtc.auth.service.JwtService;
+import com.chung.webrtc.common.websocket.OutboundChannelRegistry;
+import com.chung.webrtc.common.websocket.WsAuthService;
+import com.chung.webrtc.common.websocket.WsFrame;
+import com.chung.webrtc.common.websocket.WsPrincipal;
 import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.fasterxml.jackson.databind.node.ObjectNode;
@@ -20,7 +23,8 @@ import java.util.concurrent.ConcurrentHashMap;
 @RequiredArgsConstructor
 public class FileSocketHandler extends TextWebSocketHandler {
 
-    private final JwtService jwtService;
+    private final WsAuthService wsAuthService;
+    private final OutboundChannelRegistry outboundChannels;
     private final ObjectMapper mapper = new ObjectMapper();
 
     // email -> session
@@ -28,7 +32,7 @@ public class FileSocketHandler extends TextWebSocketHandler {
 
     @Override
     public void afterConnectionEstablished(WebSocketSession session) {
-        String email = jwtService.extractEmailFromSession(session);
+        String email = WsPrincipal.emailOf(session);
         if (email == null) {
             log.warn("🚫 File WS rejected: invalid token");
             try {
@@ -37,6 +41,7 @@ public class FileSocketHandler extends TextWebSocketHandler {
             return;
         }
         sessions.put(email, session);
+        wsAuthService.track(session);
         log.info("📂 [WS:file] Connected {}", email);
     }
 
@@ -44,9 +49,10 @@ public class FileSocketHandler extends TextWebSocketHandler {
     protected void handleTextMessage(WebSocketSession session, TextMessage message) {
         try {
             JsonNode msg = mapper.readTree(message.getPayload());
+            if (wsAuthService.handleReauth(session, msg)) return;
             String type = msg.path("type").asText();
             String to = msg.path("to").asText(null);
-            String from = jwtService.extractEmailFromSession(session);
+            String from = WsPrincipal.emailOf(session);
 
             if (to == null || type == null || from == null) {
                 log.warn("⚠️ Invalid message {}", msg);
@@ -66,7 +72,7 @@ public class FileSocketHandler extends TextWebSocketHandler {
             if (msg.has("meta")) relay.set("meta", msg.get("meta"));
             if (msg.has("accept")) relay.put("accept", msg.get("accept"));
 
-            target.sendMessage(new TextMessage(relay.toString()));
+            outboundChannels.send(target, WsFrame.of(mapper, relay));
 
             log.info("📨 [{}] {} → {} ({})", "file", from, to, type);
         } catch (Exception e) {
@@ -76,7 +82,9 @@ public class FileSocketHandler extends TextWebSocketHandler {
 
     @Override
     public void afterConnectionClosed(WebSocketSession session, CloseStatus status) {
-        String email = jwtService.extractEmailFromSession(session);
+        wsAuthService.untrack(session);
+        outboundChannels.release(session);
+        String email = WsPrincipal.emailOf(session);
         if (email != null) sessions.remove(email);
         log.info("❌ [WS:file] Disconnected {}", email);
     }
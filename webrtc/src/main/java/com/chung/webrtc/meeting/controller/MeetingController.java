@@ -135,6 +135,8 @@ public class MeetingController {
                             .hostEmail(meeting.getHostEmail())
                             .participants(meeting.getParticipants())
                             .status(meeting.getStatus().name())
+                            .mode(meeting.isWebinar() ? Meeting.MeetingMode.WEBINAR.name() : Meeting.MeetingMode.MESH.name())
+                            .presenters(meeting.getPresenters())
                             .build();
 
                     return ResponseEntity.ok(response);
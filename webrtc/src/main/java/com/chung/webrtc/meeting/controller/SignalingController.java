@@ -1,16 +1,28 @@
 package com.chung.webrtc.meeting.controller;
 
+import com.chung.webrtc.common.websocket.OutboundChannelRegistry;
+import com.chung.webrtc.common.websocket.SignalRelay;
+import com.chung.webrtc.common.websocket.WsAuthService;
+import com.chung.webrtc.common.websocket.WsCodec;
+import com.chung.webrtc.common.websocket.WsFrame;
+import com.chung.webrtc.common.websocket.WsPrincipal;
 import com.chung.webrtc.meeting.service.CallSessionRegistry;
+import com.chung.webrtc.meeting.service.IceCandidateBatcher;
 import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ObjectNode;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.stereotype.Component;
+import org.springframework.web.socket.BinaryMessage;
 import org.springframework.web.socket.CloseStatus;
 import org.springframework.web.socket.TextMessage;
 import org.springframework.web.socket.WebSocketSession;
 import org.springframework.web.socket.handler.TextWebSocketHandler;
 
+import java.util.Set;
+import java.util.function.Function;
+
 /**
  * ✅ SignalingController xử lý kết nối /ws/signaling giữa hai peer
  * - Nhận: join, ready, offer, answer, ice-candidate, end-call, chat...
@@ -20,6 +32,8 @@ import org.springframework.web.socket.handler.TextWebSocketHandler;
  * - Chỉ gửi "peer-ready" một chiều (from → to), không gửi ngược lại cho chính mình.
  * - Log rõ ràng, tránh null pointer.
  * - Relay signaling đúng hướng theo RFC 8829 (WebRTC 1-1).
+ * - Frame relay (offer / answer / ICE...) đi fast path: đọc streaming field định tuyến,
+ *   chèn "from" đã xác thực và forward byte gốc, không dựng JsonNode.
  */
 @Slf4j
 @Component("signalingController")
@@ -27,13 +41,20 @@ import org.springframework.web.socket.handler.TextWebSocketHandler;
 public class SignalingController extends TextWebSocketHandler {
 
     private final CallSessionRegistry sessionRegistry;
+    private final OutboundChannelRegistry outboundChannels;
+    private final WsAuthService wsAuthService;
+    private final IceCandidateBatcher iceBatcher;
     private final ObjectMapper mapper = new ObjectMapper();
 
+    private static final Set<String> RELAY_TYPES =
+            Set.of("offer", "answer", "ice", "ice-candidate", "end-call", "hangup", "chat");
+
     @Override
     public void afterConnectionEstablished(WebSocketSession session) {
-        String email = (String) session.getAttributes().get("email");
+        String email = WsPrincipal.emailOf(session);
         if (email != null) {
             sessionRegistry.registerUser(email, session);
+            wsAuthService.track(session);
             log.info("✅ [SIGNALING] Connected: {}", email);
         } else {
             log.warn("⚠️ [SIGNALING] Connection missing email attribute");
@@ -42,18 +63,41 @@ public class SignalingController extends TextWebSocketHandler {
 
     @Override
     protected void handleTextMessage(WebSocketSession session, TextMessage message) {
-        String payload = message.getPayload();
+        byte[] payload = message.asBytes();
+        try {
+            SignalRelay.Route route = SignalRelay.peek(payload);
+            if (route != null && RELAY_TYPES.contains(route.type())) {
+                relay(session, route.type(), route.to(), route.nullCandidate(), SignalRelay.candidate(payload, route),
+                        from -> WsFrame.of(SignalRelay.withFrom(payload, route, from)));
+                return;
+            }
+            dispatch(session, mapper.readTree(payload));
+        } catch (Exception e) {
+            log.error("❌ [SIGNALING] Invalid frame: {} \nPayload: {}\n", e.getMessage(), message.getPayload());
+        }
+    }
+
+    /** 📦 Sub-protocol cbor.v1: SDP / ICE dạng nhị phân */
+    @Override
+    protected void handleBinaryMessage(WebSocketSession session, BinaryMessage message) {
+        try {
+            dispatch(session, WsCodec.read(message));
+        } catch (Exception e) {
+            log.error("❌ [SIGNALING] Invalid binary frame: {}", e.getMessage());
+        }
+    }
 
+    private void dispatch(WebSocketSession session, JsonNode json) {
         try {
-            JsonNode json = mapper.readTree(payload);
+            if (wsAuthService.handleReauth(session, json)) return;
             String type = json.path("type").asText(null);
             String from = json.path("from").asText(null);
             String to = json.path("to").asText(null);
 
-            log.info("📨 [SIGNALING] Received type='{}' from={} → to={} payload={}", type, from, to, payload);
+            log.debug("📨 [SIGNALING] Received type='{}' from={} → to={}", type, from, to);
 
             if (type == null) {
-                log.warn("⚠️ [SIGNALING] Missing 'type' field: {}", payload);
+                log.warn("⚠️ [SIGNALING] Missing 'type' field: {}", json);
                 return;
             }
 
@@ -67,7 +111,7 @@ public class SignalingController extends TextWebSocketHandler {
 
                 // 👋 Client thông báo đã join signaling
                 case "join" -> {
-                    String email = (String) session.getAttributes().get("email");
+                    String email = WsPrincipal.emailOf(session);
                     if (email != null) {
                         sessionRegistry.registerUser(email, session);
                         log.info("👋 [SIGNALING] {} joined via JWT", email);
@@ -94,42 +138,79 @@ public class SignalingController extends TextWebSocketHandler {
                 }
 
                 // ✅ Forward tất cả các tín hiệu WebRTC (1-1)
-                case "offer", "answer", "ice", "ice-candidate", "end-call", "hangup", "chat" -> {
-                    if (to == null || to.isBlank()) {
-                        log.warn("⚠️ [SIGNALING] '{}' missing 'to' field", type);
-                        return;
-                    }
+                // (frame CBOR; frame text đã relay ở fast path)
+                case "offer", "answer", "ice", "ice-candidate", "end-call", "hangup", "chat" ->
+                        relay(session, type, to, json.path("candidate").isNull(), null, sender -> {
+                            ((ObjectNode) json).put("from", sender);
+                            return WsFrame.of(mapper, json);
+                        });
 
-                    if (!sessionRegistry.isOnline(to)) {
-                        log.warn("❌ [SIGNALING] Target '{}' not online, skip {}", to, type);
-                        return;
-                    }
+                default -> log.warn("⚠️ [SIGNALING] Unknown message type: {}", type);
+            }
 
-                    // Bỏ qua ICE candidate null
-                    if ((type.equals("ice") || type.equals("ice-candidate")) && json.path("candidate").isNull()) {
-                        log.debug("⚠️ [SIGNALING] Null ICE candidate ignored from {}", from);
-                        return;
-                    }
+        } catch (Exception e) {
+            log.error("❌ [SIGNALING] Exception: {} \nPayload: {}\n", e.getMessage(), json, e);
+        }
+    }
 
-                    boolean sent = sessionRegistry.sendToUser(to, json.toString());
-                    if (sent) {
-                        log.info("🔁 [SIGNALING] {} relayed from {} → {}", type.toUpperCase(), from, to);
-                    } else {
-                        log.warn("⚠️ [SIGNALING] Failed to relay {} from {} → {}", type, from, to);
-                    }
-                }
+    /**
+     * 🔁 Relay 1-1; frame chỉ được dựng khi đã chắc chắn gửi, "from" luôn là email đã xác thực.
+     * candidate: byte gốc của ICE candidate (fast path) → có thể gom lô nếu bật ice-batch.
+     */
+    private void relay(WebSocketSession session, String type, String to, boolean nullCandidate,
+                       byte[] candidate, Function<String, WsFrame> frame) {
+        String from = WsPrincipal.emailOf(session);
+        if (from == null) {
+            log.warn("⚠️ [SIGNALING] '{}' from session without principal", type);
+            return;
+        }
 
-                default -> log.warn("⚠️ [SIGNALING] Unknown message type: {}", type);
+        if (to == null || to.isBlank()) {
+            log.warn("⚠️ [SIGNALING] '{}' missing 'to' field", type);
+            return;
+        }
+
+        // 🚫 Chặn gửi tín hiệu cho chính mình
+        if (from.equals(to)) {
+            log.warn("🚫 [SIGNALING] Blocked self-message from {}", from);
+            return;
+        }
+
+        if (!sessionRegistry.isOnline(to)) {
+            log.warn("❌ [SIGNALING] Target '{}' not online, skip {}", to, type);
+            return;
+        }
+
+        // Bỏ qua ICE candidate null
+        boolean ice = type.equals("ice") || type.equals("ice-candidate");
+        if (ice && nullCandidate) {
+            log.debug("⚠️ [SIGNALING] Null ICE candidate ignored from {}", from);
+            return;
+        }
+
+        if (iceBatcher.isEnabled()) {
+            IceCandidateBatcher.PeerKey key = new IceCandidateBatcher.PeerKey("call", from, to);
+            if (ice && candidate != null) {
+                iceBatcher.submit(key, candidate, batch -> sessionRegistry.sendToUser(to, batch));
+                return;
             }
+            // offer / answer / end-call không được vượt mặt candidate đang chờ
+            iceBatcher.flush(key);
+        }
 
-        } catch (Exception e) {
-            log.error("❌ [SIGNALING] Exception: {} \nPayload: {}\n", e.getMessage(), payload, e);
+        boolean sent = sessionRegistry.sendToUser(to, frame.apply(from));
+        if (sent) {
+            log.debug("🔁 [SIGNALING] {} relayed from {} → {}", type.toUpperCase(), from, to);
+        } else {
+            log.warn("⚠️ [SIGNALING] Failed to relay {} from {} → {}", type, from, to);
         }
     }
 
     @Override
     public void afterConnectionClosed(WebSocketSession session, CloseStatus status) {
-        String email = (String) session.getAttributes().get("email");
+        wsAuthService.untrack(session);
+        outboundChannels.release(session);
+        String email = WsPrincipal.emailOf(session);
         if (email != null) {
             sessionRegistry.removeUser(email, session, status);
             log.info("🔴 [SIGNALING] {} disconnected ({})", email, status);
@@ -8,4 +8,8 @@ public class CreateMeetingRequest {
     private String title;
     // optional: list of emails to invite
     private List<String> inviteEmails;
+    // optional: "MESH" (mặc định) | "WEBINAR"
+    private String mode;
+    // optional (webinar): presenter ngoài host
+    private List<String> presenterEmails;
 }
@@ -13,4 +13,6 @@ public class MeetingResponse {
     private String hostEmail;
     private Set<String> participants;
     private String status;
+    private String mode;
+    private Set<String> presenters;
 }
\ No newline at end of file
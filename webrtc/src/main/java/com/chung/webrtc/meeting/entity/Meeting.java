@@ -35,6 +35,13 @@ public class Meeting {
     @Builder.Default
     private Set<String> participants = new HashSet<>();
 
+    /** 🎤 Webinar: chỉ presenter phát media; host luôn là presenter */
+    @ElementCollection(fetch = FetchType.EAGER)
+    @CollectionTable(name = "meeting_presenters", joinColumns = @JoinColumn(name = "meeting_id"))
+    @Column(name = "presenter_email", length = 255)
+    @Builder.Default
+    private Set<String> presenters = new HashSet<>();
+
     @Column(name = "created_at", nullable = false, updatable = false)
     private Instant createdAt;
 
@@ -42,13 +49,27 @@ public class Meeting {
     @Builder.Default
     private MeetingStatus status = MeetingStatus.ACTIVE;
 
+    @Enumerated(EnumType.STRING)
+    @Builder.Default
+    private MeetingMode mode = MeetingMode.MESH;
+
     public enum MeetingStatus {
         ACTIVE, ENDED
     }
 
+    /** MESH: mọi người là peer đầy đủ; WEBINAR: presenter ↔ viewer, viewer chỉ xem */
+    public enum MeetingMode {
+        MESH, WEBINAR
+    }
+
+    public boolean isWebinar() {
+        return mode == MeetingMode.WEBINAR;
+    }
+
     @PrePersist
     protected void onCreate() {
         if (createdAt == null) createdAt = Instant.now();
         if (status == null) status = MeetingStatus.ACTIVE;
+        if (mode == null) mode = MeetingMode.MESH;
     }
 }
\ No newline at end of file
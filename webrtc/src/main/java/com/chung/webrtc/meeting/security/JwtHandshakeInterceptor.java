@@ -1,8 +1,7 @@
 package com.chung.webrtc.meeting.security;
 
-import com.chung.webrtc.auth.service.JwtService;
-import io.jsonwebtoken.Claims;
-import io.jsonwebtoken.ExpiredJwtException;
+import com.chung.webrtc.common.websocket.WsAuthService;
+import com.chung.webrtc.common.websocket.WsPrincipal;
 import io.jsonwebtoken.JwtException;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
@@ -14,6 +13,7 @@ import org.springframework.stereotype.Component;
 import org.springframework.web.socket.WebSocketHandler;
 import org.springframework.web.socket.server.HandshakeInterceptor;
 
+import java.time.Instant;
 import java.util.Map;
 
 @Slf4j
@@ -21,7 +21,7 @@ import java.util.Map;
 @RequiredArgsConstructor
 public class JwtHandshakeInterceptor implements HandshakeInterceptor {
 
-    private final JwtService jwtService;
+    private final WsAuthService wsAuthService;
 
     @Override
     public boolean beforeHandshake(
@@ -46,25 +46,21 @@ public class JwtHandshakeInterceptor implements HandshakeInterceptor {
         }
 
         try {
-            // ✅ Parse token (accept expired)
-            Claims claims;
-            try {
-                claims = jwtService.parseClaims(token);
-            } catch (ExpiredJwtException e) {
-                log.warn("⚠️ Token expired, still allowing WebSocket: {}", e.getMessage());
-                claims = e.getClaims();
-            }
+            // ✅ Verify 1 lần (accept expired → server sẽ yêu cầu re-auth sau khi mở socket)
+            WsPrincipal principal = wsAuthService.authenticate(token);
 
-            String email = claims.getSubject();
+            String email = principal.email();
             if (email == null || email.isBlank()) {
                 log.warn("🚫 Invalid token: no subject found");
                 response.setStatusCode(HttpStatus.UNAUTHORIZED);
                 return false;
             }
+            if (principal.isExpired(Instant.now())) {
+                log.warn("⚠️ Token expired, still allowing WebSocket for {} (re-auth required)", email);
+            }
 
-            // ✅ Lưu thông tin user vào session attribute
-            attributes.put("email", email);
-            attributes.put("token", token);
+            // ✅ Principal bất biến gắn vào session, handler không parse JWT nữa
+            attributes.put(WsPrincipal.ATTRIBUTE, principal);
             log.info("✅ WebSocket handshake OK for user: {}", email);
             return true;
 
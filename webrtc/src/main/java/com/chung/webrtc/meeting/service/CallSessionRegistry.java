@@ -1,9 +1,11 @@
 package com.chung.webrtc.meeting.service;
 
+import com.chung.webrtc.common.websocket.OutboundChannelRegistry;
+import com.chung.webrtc.common.websocket.WsFrame;
+import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.stereotype.Component;
 import org.springframework.web.socket.CloseStatus;
-import org.springframework.web.socket.TextMessage;
 import org.springframework.web.socket.WebSocketSession;
 
 import java.io.IOException;
@@ -18,8 +20,11 @@ import java.util.concurrent.CopyOnWriteArraySet;
  */
 @Slf4j
 @Component
+@RequiredArgsConstructor
 public class CallSessionRegistry {
 
+    private final OutboundChannelRegistry outboundChannels;
+
     private final ConcurrentHashMap<String, CopyOnWriteArraySet<WebSocketSession>> sessions = new ConcurrentHashMap<>();
 
     /** 🔹 Đăng ký session cho user */
@@ -74,6 +79,11 @@ public class CallSessionRegistry {
 
     /** 📤 Gửi tin nhắn đến tất cả session của user */
     public boolean sendToUser(String email, String message) {
+        return sendToUser(email, WsFrame.of(message));
+    }
+
+    /** 📤 Gửi frame đã encode sẵn (relay signaling giữ nguyên byte gốc) */
+    public boolean sendToUser(String email, WsFrame frame) {
         Set<WebSocketSession> set = sessions.get(email);
         if (set == null || set.isEmpty()) {
             log.debug("⚠️ Cannot send to {}, no sessions", email);
@@ -82,13 +92,8 @@ public class CallSessionRegistry {
 
         boolean sent = false;
         for (WebSocketSession s : set) {
-            if (s != null && s.isOpen()) {
-                try {
-                    s.sendMessage(new TextMessage(message));
-                    sent = true;
-                } catch (IOException e) {
-                    log.error("❌ Error sending to {} (session={}): {}", email, s.getId(), e.getMessage());
-                }
+            if (s != null && outboundChannels.send(s, frame)) {
+                sent = true;
             }
         }
 
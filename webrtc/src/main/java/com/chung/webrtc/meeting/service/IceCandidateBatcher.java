@@ -0,0 +1,158 @@
+package com.chung.webrtc.meeting.service;
+
+import com.chung.webrtc.common.websocket.SignalRelay;
+import com.chung.webrtc.common.websocket.WsFrame;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+/**
+ * 🧊 Gom trickle ICE candidate theo (scope, from, to) thành 1 frame "ice-candidates".
+ * - Tắt mặc định (app.signaling.ice-batch.enabled=false) → relay từng candidate như cũ.
+ * - Candidate đến cách nhau < window-ms được gộp; lô luôn flush trước max-delay-ms kể từ candidate đầu
+ *   → thời gian dựng kết nối không bị kéo dài quá ngưỡng.
+ * - Offer / answer / end-call của cùng cặp peer gọi {@link #flush} trước để không vượt mặt candidate đang chờ.
+ */
+@Slf4j
+@Component
+@RequiredArgsConstructor
+public class IceCandidateBatcher {
+
+    private final MeterRegistry meterRegistry;
+
+    @Value("${app.signaling.ice-batch.enabled:false}")
+    private boolean enabled;
+
+    @Value("${app.signaling.ice-batch.window-ms:5}")
+    private long windowMs;
+
+    @Value("${app.signaling.ice-batch.max-delay-ms:20}")
+    private long maxDelayMs;
+
+    /** scope: meetingCode cho /ws/meeting, "call" cho /ws/signaling */
+    public record PeerKey(String scope, String from, String to) {}
+
+    private static final class Batch {
+        final long firstNanos;
+        final Consumer<WsFrame> sink;
+        final List<byte[]> candidates = new ArrayList<>(4);
+        long lastNanos;
+        boolean closed;
+
+        Batch(long now, Consumer<WsFrame> sink) {
+            this.firstNanos = now;
+            this.lastNanos = now;
+            this.sink = sink;
+        }
+    }
+
+    private final Map<PeerKey, Batch> pending = new ConcurrentHashMap<>();
+    private final ScheduledExecutorService flusher = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread t = new Thread(r, "ice-batcher");
+        t.setDaemon(true);
+        return t;
+    });
+
+    private DistributionSummary batchSize;
+    private Timer addedDelay;
+
+    @PostConstruct
+    void init() {
+        batchSize = DistributionSummary.builder("signaling.ice_batch.size")
+                .description("Số ICE candidate trong 1 frame ice-candidates")
+                .register(meterRegistry);
+        addedDelay = Timer.builder("signaling.ice_batch.delay")
+                .description("Độ trễ thêm vào candidate đầu tiên của lô")
+                .register(meterRegistry);
+        if (enabled) log.info("🧊 ICE batching enabled (window={}ms, maxDelay={}ms)", windowMs, maxDelayMs);
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * 📥 Thêm 1 candidate (byte gốc của giá trị "candidate") vào lô của cặp peer.
+     * sink gửi frame lô tới người nhận (registry tương ứng với endpoint).
+     */
+    public void submit(PeerKey key, byte[] candidate, Consumer<WsFrame> sink) {
+        long now = System.nanoTime();
+        while (true) {
+            Batch batch = pending.computeIfAbsent(key, k -> new Batch(now, sink));
+            synchronized (batch) {
+                // Lô vừa bị flush giữa computeIfAbsent và lock → tạo lô mới
+                if (batch.closed) continue;
+                batch.candidates.add(candidate);
+                batch.lastNanos = now;
+                if (batch.candidates.size() == 1) {
+                    flusher.schedule(() -> fire(key, batch), windowMs, TimeUnit.MILLISECONDS);
+                }
+                return;
+            }
+        }
+    }
+
+    /** ⏩ Flush ngay lô đang chờ của cặp peer (trước khi relay frame signaling khác) */
+    public void flush(PeerKey key) {
+        Batch batch = pending.get(key);
+        if (batch == null) return;
+        synchronized (batch) {
+            if (batch.closed) return;
+            close(key, batch);
+        }
+        emit(key, batch);
+    }
+
+    private void fire(PeerKey key, Batch batch) {
+        try {
+            synchronized (batch) {
+                if (batch.closed) return;
+                long now = System.nanoTime();
+                long due = Math.min(batch.lastNanos + TimeUnit.MILLISECONDS.toNanos(windowMs),
+                        batch.firstNanos + TimeUnit.MILLISECONDS.toNanos(maxDelayMs));
+                if (now < due) {
+                    // Còn candidate mới trong cửa sổ và chưa chạm max-delay → chờ thêm
+                    flusher.schedule(() -> fire(key, batch), due - now, TimeUnit.NANOSECONDS);
+                    return;
+                }
+                close(key, batch);
+            }
+            emit(key, batch);
+        } catch (Exception e) {
+            log.error("❌ ICE batch flush error {}: {}", key, e.getMessage(), e);
+        }
+    }
+
+    private void close(PeerKey key, Batch batch) {
+        batch.closed = true;
+        pending.remove(key, batch);
+    }
+
+    private void emit(PeerKey key, Batch batch) {
+        batchSize.record(batch.candidates.size());
+        addedDelay.record(System.nanoTime() - batch.firstNanos, TimeUnit.NANOSECONDS);
+        batch.sink.accept(WsFrame.of(SignalRelay.iceBatch(key.from(), key.to(), batch.candidates)));
+        log.debug("🧊 {} ICE candidates {} → {} [{}]", batch.candidates.size(), key.from(), key.to(), key.scope());
+    }
+
+    @PreDestroy
+    void shutdown() {
+        flusher.shutdownNow();
+        pending.keySet().forEach(this::flush);
+    }
+}
@@ -0,0 +1,504 @@
+package com.chung.webrtc.meeting.service;
+
+import com.chung.webrtc.common.websocket.WsFrame;
+import com.chung.webrtc.meeting.entity.Meeting;
+import com.chung.webrtc.meeting.repository.MeetingRepository;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import org.springframework.web.socket.WebSocketSession;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.stream.Collectors;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 🗂️ Trạng thái phòng họp có version (participants + cờ theo từng người như screen-share).
+ * - Người mới join nhận 1 snapshot (participant-list); người khác nhận delta có version.
+ * - Mỗi frame delta tăng version đúng 1 → client phát hiện được khoảng trống và xin resync.
+ * - Phòng yên tĩnh: join / leave phát ngay (participant-joined / participant-left).
+ *   Đang có join storm (đã có thay đổi trong window-ms vừa qua): gom lại, mỗi cửa sổ 1 frame roster-update.
+ * - Frame được enqueue trong lock của phòng → thứ tự gửi = thứ tự version
+ *   (enqueue vào outbound channel không chặn nên giữ lock là rẻ).
+ * - Webinar: state có version chỉ gồm presenter. Viewer join / leave chỉ báo cho presenter
+ *   (O(presenters)), viewer nhận webinar-state gọn; số viewer phát định kỳ, không theo từng join.
+ *   Delta roster của presenter chỉ gửi presenter; viewer nhận lại webinar-state tối đa 1 lần / cửa sổ.
+ *   Meeting chat: presenter (và người gửi) nhận ngay, viewer nhận meeting-chat-batch theo viewer-chat-window-ms.
+ * - Email presenter so sánh sau khi trim + lower-case (cả danh sách trong Meeting lẫn email của session).
+ */
+@Slf4j
+@Component
+@RequiredArgsConstructor
+public class MeetingRoomState {
+
+    private final MeetingSessionRegistry sessionRegistry;
+    private final MeetingRepository meetingRepository;
+    private final MeterRegistry meterRegistry;
+    private final ObjectMapper mapper = new ObjectMapper();
+
+    @Value("${app.meeting.roster.window-ms:100}")
+    private long windowMs;
+
+    @Value("${app.meeting.webinar.viewer-count-interval-ms:2000}")
+    private long viewerCountIntervalMs;
+
+    @Value("${app.meeting.webinar.viewer-chat-window-ms:500}")
+    private long viewerChatWindowMs;
+
+    public record Participant(String email, boolean screenSharing) {}
+
+    /** Chế độ phòng, đọc từ Meeting 1 lần khi phòng được tạo trong bộ nhớ */
+    private record RoomPolicy(boolean webinar, Set<String> presenters) {
+        static final RoomPolicy MESH = new RoomPolicy(false, Set.of());
+    }
+
+    private static final class Room {
+        // Webinar: chỉ chứa presenter đang online; viewer nằm ở viewers
+        final Map<String, Participant> participants = new LinkedHashMap<>();
+        // Thay đổi chưa phát (chỉ khi đang gom); participants đã phản ánh chúng
+        final Set<String> pendingJoined = new LinkedHashSet<>();
+        final Set<String> pendingLeft = new LinkedHashSet<>();
+        long version;
+        long lastChangeNanos;
+        boolean flushScheduled;
+        boolean closed;
+        final boolean webinar;
+        final Set<String> presenters;
+        final Set<String> viewers = new HashSet<>();
+        boolean viewerCountDirty;
+        // Viewer: roster presenter gom thành 1 webinar-state / cửa sổ, chat gom thành meeting-chat-batch
+        boolean viewerStateScheduled;
+        final List<ObjectNode> pendingViewerChat = new ArrayList<>();
+        boolean viewerChatScheduled;
+
+        Room(long quietWindowNanos, RoomPolicy policy) {
+            // Phòng mới coi như đã yên tĩnh → join đầu tiên phát ngay
+            this.lastChangeNanos = System.nanoTime() - quietWindowNanos;
+            this.webinar = policy.webinar();
+            this.presenters = policy.presenters();
+        }
+    }
+
+    private final Map<String, Room> rooms = new ConcurrentHashMap<>();
+    private final ScheduledExecutorService flusher = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread t = new Thread(r, "meeting-roster");
+        t.setDaemon(true);
+        return t;
+    });
+
+    private Counter immediateUpdates;
+    private Counter coalescedUpdates;
+    private DistributionSummary coalescedChanges;
+    private Counter viewerJoins;
+    private Counter viewerStateFrames;
+    private Counter viewerChatBatches;
+
+    @PostConstruct
+    void init() {
+        immediateUpdates = Counter.builder("meeting.roster.updates")
+                .tag("mode", "immediate")
+                .description("Delta roster phát ngay (phòng yên tĩnh)")
+                .register(meterRegistry);
+        coalescedUpdates = Counter.builder("meeting.roster.updates")
+                .tag("mode", "coalesced")
+                .description("Frame roster-update gom theo cửa sổ")
+                .register(meterRegistry);
+        coalescedChanges = DistributionSummary.builder("meeting.roster.coalesced_changes")
+                .description("Số thay đổi join / leave trong 1 frame roster-update")
+                .register(meterRegistry);
+        viewerJoins = Counter.builder("meeting.webinar.viewer_joins")
+                .description("Viewer join phòng webinar (chỉ báo cho presenter)")
+                .register(meterRegistry);
+        viewerStateFrames = Counter.builder("meeting.webinar.viewer_state_flushes")
+                .description("Lần gửi webinar-state gom cho viewer sau thay đổi roster presenter")
+                .register(meterRegistry);
+        viewerChatBatches = Counter.builder("meeting.webinar.viewer_chat_batches")
+                .description("Frame meeting-chat-batch gửi cho viewer")
+                .register(meterRegistry);
+        flusher.scheduleWithFixedDelay(this::broadcastViewerCounts,
+                viewerCountIntervalMs, viewerCountIntervalMs, TimeUnit.MILLISECONDS);
+    }
+
+    /** 🟢 Thêm participant và gửi snapshot cho session vừa join (reconnect: chỉ gửi snapshot) */
+    public void join(String meetingCode, String email, WebSocketSession session) {
+        while (true) {
+            Room room = roomFor(meetingCode);
+            synchronized (room) {
+                if (room.closed) continue;
+                if (room.webinar && !isPresenter(room, email)) {
+                    joinAsViewer(meetingCode, room, email, session);
+                    return;
+                }
+                if (room.participants.containsKey(email)) {
+                    sessionRegistry.sendToSession(session, snapshotFrame(room));
+                    return;
+                }
+                room.participants.put(email, new Participant(email, false));
+
+                if (isQuiet(room)) {
+                    room.version++;
+                    room.lastChangeNanos = System.nanoTime();
+                    sessionRegistry.sendToSession(session, snapshotFrame(room));
+                    ObjectNode msg = mapper.createObjectNode();
+                    msg.put("type", "participant-joined");
+                    msg.put("email", email);
+                    msg.put("version", room.version);
+                    broadcastRoster(meetingCode, room, WsFrame.of(mapper, msg), session);
+                    immediateUpdates.increment();
+                } else {
+                    // Snapshot đã gồm người mới; roster-update sau đó áp dụng lại cũng không sao (idempotent).
+                    // Leave rồi join lại trong cùng cửa sổ → có mặt ở cả left lẫn joined: client bỏ peer cũ rồi thêm lại
+                    sessionRegistry.sendToSession(session, snapshotFrame(room));
+                    room.pendingJoined.add(email);
+                    defer(meetingCode, room);
+                }
+                return;
+            }
+        }
+    }
+
+    /** 👀 Viewer webinar: snapshot gọn cho viewer, chỉ presenter được báo (O(presenters)) */
+    private void joinAsViewer(String meetingCode, Room room, String email, WebSocketSession session) {
+        if (room.viewers.add(email)) {
+            ObjectNode msg = mapper.createObjectNode();
+            msg.put("type", "viewer-joined");
+            msg.put("email", email);
+            notifyPresenters(meetingCode, room, WsFrame.of(mapper, msg));
+            room.viewerCountDirty = true;
+            viewerJoins.increment();
+        }
+        sessionRegistry.sendToSession(session, viewerSnapshotFrame(room));
+    }
+
+    /** 🔴 Bỏ participant (phòng trống → xóa state) */
+    public void leave(String meetingCode, String email) {
+        Room room = rooms.get(meetingCode);
+        if (room == null) return;
+        synchronized (room) {
+            if (room.closed) return;
+            boolean viewer = room.webinar && room.viewers.remove(email);
+            if (!viewer && room.participants.remove(email) == null) return;
+            if (room.participants.isEmpty() && room.viewers.isEmpty()) {
+                room.closed = true;
+                rooms.remove(meetingCode, room);
+                log.debug("🧹 Room state {} cleared", meetingCode);
+                return;
+            }
+
+            if (viewer) {
+                ObjectNode msg = mapper.createObjectNode();
+                msg.put("type", "viewer-left");
+                msg.put("email", email);
+                notifyPresenters(meetingCode, room, WsFrame.of(mapper, msg));
+                room.viewerCountDirty = true;
+                return;
+            }
+
+            if (isQuiet(room)) {
+                room.version++;
+                room.lastChangeNanos = System.nanoTime();
+                ObjectNode msg = mapper.createObjectNode();
+                msg.put("type", "participant-left");
+                msg.put("email", email);
+                msg.put("version", room.version);
+                broadcastRoster(meetingCode, room, WsFrame.of(mapper, msg), null);
+                immediateUpdates.increment();
+            } else {
+                // Join rồi leave trong cùng cửa sổ: người khác chưa từng thấy → không cần phát
+                if (!room.pendingJoined.remove(email)) room.pendingLeft.add(email);
+                defer(meetingCode, room);
+            }
+        }
+    }
+
+    /** 🖥️ Đổi cờ screen-share (luôn phát ngay, gửi cả người share để cập nhật version) */
+    public void setScreenSharing(String meetingCode, String email, boolean active) {
+        Room room = rooms.get(meetingCode);
+        if (room == null) return;
+        synchronized (room) {
+            Participant current = room.participants.get(email);
+            if (room.closed || current == null || current.screenSharing() == active) return;
+            room.participants.put(email, new Participant(email, active));
+            room.version++;
+            ObjectNode msg = mapper.createObjectNode();
+            msg.put("type", "screen-share");
+            msg.put("email", email);
+            msg.put("active", active);
+            msg.put("version", room.version);
+            broadcastRoster(meetingCode, room, WsFrame.of(mapper, msg), null);
+        }
+    }
+
+    /** 🔄 Gửi snapshot hiện tại (client lệch version xin resync) */
+    public void sendSnapshot(String meetingCode, String email, WebSocketSession session) {
+        Room room = rooms.get(meetingCode);
+        if (room == null) return;
+        synchronized (room) {
+            if (room.closed) return;
+            boolean viewer = room.webinar && room.viewers.contains(email);
+            sessionRegistry.sendToSession(session, viewer ? viewerSnapshotFrame(room) : snapshotFrame(room));
+        }
+    }
+
+    /** 🔐 Webinar: signaling chỉ đi giữa viewer và presenter (không viewer ↔ viewer) */
+    public boolean canSignal(String meetingCode, String from, String to) {
+        Room room = rooms.get(meetingCode);
+        if (room == null || !room.webinar) return true;
+        return isPresenter(room, from) || isPresenter(room, to);
+    }
+
+    /**
+     * 💬 Fan-out meeting chat cho phòng webinar.
+     * Trả về false nếu không phải webinar (caller broadcast cho cả group như cũ).
+     */
+    public boolean fanOutChat(String meetingCode, String sender, ObjectNode chat) {
+        Room room = rooms.get(meetingCode);
+        if (room == null || !room.webinar) return false;
+        synchronized (room) {
+            if (room.closed) return false;
+            WsFrame frame = WsFrame.of(mapper, chat);
+            notifyPresenters(meetingCode, room, frame);
+            // Viewer gửi: echo ngay cho chính họ, bản trong batch sẽ bị bỏ cho người gửi
+            if (!room.participants.containsKey(sender)) sessionRegistry.sendToUser(meetingCode, sender, frame);
+            if (room.viewers.isEmpty()) return true;
+            room.pendingViewerChat.add(chat);
+            if (!room.viewerChatScheduled) {
+                room.viewerChatScheduled = true;
+                flusher.schedule(() -> flushViewerChat(meetingCode, room), viewerChatWindowMs, TimeUnit.MILLISECONDS);
+            }
+            return true;
+        }
+    }
+
+    /** 💥 Meeting kết thúc (host end) → bỏ toàn bộ state */
+    public void clear(String meetingCode) {
+        Room room = rooms.remove(meetingCode);
+        if (room != null) {
+            synchronized (room) {
+                room.closed = true;
+            }
+        }
+    }
+
+    private Room roomFor(String meetingCode) {
+        Room room = rooms.get(meetingCode);
+        if (room != null) return room;
+        // Đọc DB ngoài computeIfAbsent để không giữ bin của map trong lúc query
+        RoomPolicy policy = loadPolicy(meetingCode);
+        return rooms.computeIfAbsent(meetingCode,
+                k -> new Room(TimeUnit.MILLISECONDS.toNanos(windowMs), policy));
+    }
+
+    private RoomPolicy loadPolicy(String meetingCode) {
+        try {
+            return meetingRepository.findByMeetingCode(meetingCode.trim().toLowerCase())
+                    .filter(Meeting::isWebinar)
+                    .map(m -> new RoomPolicy(true, m.getPresenters() == null ? Set.of()
+                            : m.getPresenters().stream()
+                                    .map(MeetingRoomState::normalize)
+                                    .filter(e -> e != null && !e.isEmpty())
+                                    .collect(Collectors.toUnmodifiableSet())))
+                    .orElse(RoomPolicy.MESH);
+        } catch (Exception e) {
+            log.warn("⚠️ Cannot load room policy for {}: {}", meetingCode, e.getMessage());
+            return RoomPolicy.MESH;
+        }
+    }
+
+    private static String normalize(String email) {
+        return email == null ? null : email.trim().toLowerCase(Locale.ROOT);
+    }
+
+    private static boolean isPresenter(Room room, String email) {
+        return email != null && room.presenters.contains(normalize(email));
+    }
+
+    private void notifyPresenters(String meetingCode, Room room, WsFrame frame) {
+        room.participants.keySet().forEach(presenter -> sessionRegistry.sendToUser(meetingCode, presenter, frame));
+    }
+
+    /**
+     * 📣 Delta roster có version.
+     * Mesh: cả phòng. Webinar: chỉ presenter; viewer nhận webinar-state gom theo cửa sổ.
+     */
+    private void broadcastRoster(String meetingCode, Room room, WsFrame frame, WebSocketSession exclude) {
+        if (!room.webinar) {
+            sessionRegistry.broadcast(meetingCode, frame, exclude);
+            return;
+        }
+        String exceptEmail = exclude == null ? null : sessionRegistry.getEmail(exclude);
+        room.participants.keySet().forEach(presenter -> {
+            if (!presenter.equals(exceptEmail)) sessionRegistry.sendToUser(meetingCode, presenter, frame);
+        });
+        if (room.viewers.isEmpty() || room.viewerStateScheduled) return;
+        room.viewerStateScheduled = true;
+        flusher.schedule(() -> flushViewerState(meetingCode, room), windowMs, TimeUnit.MILLISECONDS);
+    }
+
+    private void flushViewerState(String meetingCode, Room room) {
+        try {
+            synchronized (room) {
+                room.viewerStateScheduled = false;
+                if (room.closed || room.viewers.isEmpty()) return;
+                WsFrame frame = viewerSnapshotFrame(room);
+                room.viewers.forEach(viewer -> sessionRegistry.sendToUser(meetingCode, viewer, frame));
+                viewerStateFrames.increment();
+            }
+        } catch (Exception e) {
+            log.error("❌ Viewer state flush error [{}]: {}", meetingCode, e.getMessage(), e);
+        }
+    }
+
+    private void flushViewerChat(String meetingCode, Room room) {
+        try {
+            synchronized (room) {
+                room.viewerChatScheduled = false;
+                if (room.closed || room.pendingViewerChat.isEmpty()) return;
+                List<ObjectNode> batch = new ArrayList<>(room.pendingViewerChat);
+                room.pendingViewerChat.clear();
+
+                Set<String> senders = batch.stream()
+                        .map(chat -> chat.path("sender").asText(""))
+                        .collect(Collectors.toSet());
+                WsFrame shared = chatBatchFrame(meetingCode, batch, null);
+                room.viewers.forEach(viewer -> sessionRegistry.sendToUser(meetingCode, viewer,
+                        senders.contains(viewer) ? chatBatchFrame(meetingCode, batch, viewer) : shared));
+                viewerChatBatches.increment();
+            }
+        } catch (Exception e) {
+            log.error("❌ Viewer chat flush error [{}]: {}", meetingCode, e.getMessage(), e);
+        }
+    }
+
+    /** 💬 meeting-chat-batch: các tin trong cửa sổ, bỏ tin của chính viewer (đã echo ngay) */
+    private WsFrame chatBatchFrame(String meetingCode, List<ObjectNode> batch, String exceptSender) {
+        ObjectNode msg = mapper.createObjectNode();
+        msg.put("type", "meeting-chat-batch");
+        msg.put("meetingCode", meetingCode);
+        ArrayNode messages = msg.putArray("messages");
+        batch.forEach(chat -> {
+            if (exceptSender == null || !exceptSender.equals(chat.path("sender").asText(null))) messages.add(chat);
+        });
+        return WsFrame.of(mapper, msg);
+    }
+
+    /** 👥 Số viewer phát định kỳ cho cả phòng (chỉ khi có đổi) thay vì theo từng join */
+    private void broadcastViewerCounts() {
+        rooms.forEach((meetingCode, room) -> {
+            try {
+                synchronized (room) {
+                    if (!room.webinar || !room.viewerCountDirty || room.closed) return;
+                    room.viewerCountDirty = false;
+                    ObjectNode msg = mapper.createObjectNode();
+                    msg.put("type", "viewer-count");
+                    msg.put("viewerCount", room.viewers.size());
+                    sessionRegistry.broadcast(meetingCode, WsFrame.of(mapper, msg), null);
+                }
+            } catch (Exception e) {
+                log.error("❌ Viewer count broadcast error [{}]: {}", meetingCode, e.getMessage(), e);
+            }
+        });
+    }
+
+    /** Phòng yên tĩnh: không có thay đổi trong cửa sổ vừa qua và không có gì đang chờ */
+    private boolean isQuiet(Room room) {
+        return !room.flushScheduled
+                && System.nanoTime() - room.lastChangeNanos >= TimeUnit.MILLISECONDS.toNanos(windowMs);
+    }
+
+    private void defer(String meetingCode, Room room) {
+        if (room.flushScheduled) return;
+        room.flushScheduled = true;
+        flusher.schedule(() -> flush(meetingCode, room), windowMs, TimeUnit.MILLISECONDS);
+    }
+
+    private void flush(String meetingCode, Room room) {
+        try {
+            synchronized (room) {
+                room.flushScheduled = false;
+                room.lastChangeNanos = System.nanoTime();
+                if (room.closed || (room.pendingJoined.isEmpty() && room.pendingLeft.isEmpty())) return;
+
+                room.version++;
+                ObjectNode msg = mapper.createObjectNode();
+                msg.put("type", "roster-update");
+                msg.put("version", room.version);
+                // Client áp dụng left trước joined
+                ArrayNode left = msg.putArray("left");
+                room.pendingLeft.forEach(left::add);
+                ArrayNode joined = msg.putArray("joined");
+                room.pendingJoined.forEach(joined::add);
+                broadcastRoster(meetingCode, room, WsFrame.of(mapper, msg), null);
+
+                coalescedUpdates.increment();
+                coalescedChanges.record(room.pendingJoined.size() + room.pendingLeft.size());
+                log.debug("👥 [{}] roster-update v{}: +{} / -{}", meetingCode, room.version,
+                        room.pendingJoined.size(), room.pendingLeft.size());
+                room.pendingJoined.clear();
+                room.pendingLeft.clear();
+            }
+        } catch (Exception e) {
+            log.error("❌ Roster flush error [{}]: {}", meetingCode, e.getMessage(), e);
+        }
+    }
+
+    /** 📸 participant-list giữ nguyên mảng email cũ, thêm version + cờ của từng người */
+    private WsFrame snapshotFrame(Room room) {
+        ObjectNode msg = mapper.createObjectNode();
+        msg.put("type", "participant-list");
+        msg.put("version", room.version);
+        ArrayNode arr = msg.putArray("participants");
+        ObjectNode flags = msg.putObject("flags");
+        room.participants.values().forEach(p -> {
+            arr.add(p.email());
+            if (p.screenSharing()) flags.putObject(p.email()).put("screenSharing", true);
+        });
+        if (room.webinar) {
+            // Chỉ presenter nhận participant-list trong webinar → cần danh sách viewer để tạo offer
+            msg.put("mode", Meeting.MeetingMode.WEBINAR.name());
+            ArrayNode viewers = msg.putArray("viewers");
+            room.viewers.forEach(viewers::add);
+            msg.put("viewerCount", room.viewers.size());
+        }
+        return WsFrame.of(mapper, msg);
+    }
+
+    /** 👀 Snapshot gọn cho viewer: presenter đang online + cờ + số viewer */
+    private WsFrame viewerSnapshotFrame(Room room) {
+        ObjectNode msg = mapper.createObjectNode();
+        msg.put("type", "webinar-state");
+        msg.put("version", room.version);
+        ArrayNode presenters = msg.putArray("presenters");
+        ObjectNode flags = msg.putObject("flags");
+        room.participants.values().forEach(p -> {
+            presenters.add(p.email());
+            if (p.screenSharing()) flags.putObject(p.email()).put("screenSharing", true);
+        });
+        msg.put("viewerCount", room.viewers.size());
+        return WsFrame.of(mapper, msg);
+    }
+
+    @PreDestroy
+    void shutdown() {
+        flusher.shutdownNow();
+    }
+}
@@ -19,6 +19,7 @@ public class MeetingService {
 
     private final MeetingRepository meetingRepository;
     private final MeetingSessionRegistry meetingSessionRegistry;
+    private final MeetingRoomState meetingRoomState;
 
     @Value("${app.frontend.base-url:http://localhost:5173}")
     private String frontendBaseUrl;
@@ -43,9 +44,21 @@ public class MeetingService {
                 .meetingCode(code)
                 .title(Optional.ofNullable(req.getTitle()).filter(s -> !s.isBlank()).orElse("Untitled Meeting"))
                 .hostEmail(hostEmail)
+                .mode("WEBINAR".equalsIgnoreCase(req.getMode()) ? Meeting.MeetingMode.WEBINAR : Meeting.MeetingMode.MESH)
                 .build();
 
         meeting.getParticipants().add(hostEmail);
+        if (meeting.isWebinar()) {
+            meeting.getPresenters().add(hostEmail);
+            if (req.getPresenterEmails() != null) {
+                req.getPresenterEmails().stream()
+                        .filter(Objects::nonNull)
+                        .map(String::trim)
+                        .filter(s -> !s.isEmpty())
+                        .forEach(meeting.getPresenters()::add);
+            }
+            meeting.getParticipants().addAll(meeting.getPresenters());
+        }
         if (req.getInviteEmails() != null) {
             req.getInviteEmails().stream()
                     .filter(Objects::nonNull)
@@ -63,6 +76,8 @@ public class MeetingService {
                 .hostEmail(saved.getHostEmail())
                 .participants(saved.getParticipants())
                 .status(saved.getStatus().name())
+                .mode(saved.getMode().name())
+                .presenters(saved.getPresenters())
                 .build();
     }
 
@@ -122,6 +137,7 @@ public class MeetingService {
 
         // 🔻 Đóng toàn bộ WS session
         meetingSessionRegistry.closeRoom(meetingCode);
+        meetingRoomState.clear(meetingCode);
 
         log.info("🔴 Meeting {} ended by host {}", meetingCode, requesterEmail);
         return true;
@@ -1,8 +1,10 @@
 package com.chung.webrtc.meeting.service;
 
+import com.chung.webrtc.common.websocket.OutboundChannelRegistry;
+import com.chung.webrtc.common.websocket.WsFrame;
+import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.stereotype.Component;
-import org.springframework.web.socket.TextMessage;
 import org.springframework.web.socket.WebSocketSession;
 
 import java.io.IOException;
@@ -11,8 +13,11 @@ import java.util.concurrent.ConcurrentHashMap;
 
 @Slf4j
 @Component
+@RequiredArgsConstructor
 public class MeetingSessionRegistry {
 
+    private final OutboundChannelRegistry outboundChannels;
+
     /** meetingCode -> (email -> session) */
     private final Map<String, Map<String, WebSocketSession>> rooms = new ConcurrentHashMap<>();
 
@@ -36,9 +41,15 @@ public class MeetingSessionRegistry {
         log.info("✅ User {} joined meeting {}", email, meetingCode);
     }
 
-    /** 🔴 Xóa user khỏi phòng (safe & defensive) */
-    public void removeUser(WebSocketSession session) {
-        if (session == null) return;
+    /**
+     * 🔴 Xóa session khỏi phòng (safe & defensive).
+     * Chỉ gỡ mapping email → session nếu đúng là session này: reconnect đã thay session mới
+     * thì close muộn của socket cũ không được gỡ session đang sống.
+     *
+     * @return true nếu user thực sự rời phòng (không còn session nào khác đại diện cho email)
+     */
+    public boolean removeUser(WebSocketSession session) {
+        if (session == null) return false;
 
         String sessionId = session.getId();
         String meetingCode = sessionToRoom.remove(sessionId);
@@ -46,61 +57,72 @@ public class MeetingSessionRegistry {
 
         if (meetingCode == null || email == null) {
             log.warn("⚠️ removeUser called for unknown session {}", sessionId);
-            return;
+            return false;
         }
 
         Map<String, WebSocketSession> participants = rooms.get(meetingCode);
-        if (participants != null) {
-            participants.remove(email);
-            log.info("❌ {} left meeting {}", email, meetingCode);
+        if (participants == null) return true;
 
-            if (participants.isEmpty()) {
-                rooms.remove(meetingCode);
-                log.info("🧹 Removed empty room {}", meetingCode);
-            }
+        if (!participants.remove(email, session)) {
+            log.info("🔁 Stale session {} of {} closed, newer session still in meeting {}",
+                    sessionId, email, meetingCode);
+            return !participants.containsKey(email);
         }
+        log.info("❌ {} left meeting {}", email, meetingCode);
+
+        if (participants.isEmpty()) {
+            rooms.remove(meetingCode, participants);
+            log.info("🧹 Removed empty room {}", meetingCode);
+        }
+        return true;
     }
 
-    /** 🧱 Thread-safe gửi message */
-    private void safeSend(WebSocketSession session, String message) {
+    /** 🧱 Enqueue vào outbound channel của session (không chờ socket) */
+    private void safeSend(WebSocketSession session, WsFrame frame) {
         if (session == null) return;
-        synchronized (session) {
-            try {
-                if (session.isOpen()) {
-                    session.sendMessage(new TextMessage(message));
-                } else {
-                    log.debug("⚠️ Tried to send to closed session {}", session.getId());
-                    cleanupSession(session);
-                }
-            } catch (IOException e) {
-                log.warn("⚠️ Failed to send message to {}: {}", session.getId(), e.getMessage());
-                cleanupSession(session);
-            } catch (IllegalStateException e) {
-                log.warn("⚠️ WS busy for {}: {}", session.getId(), e.getMessage());
-            }
+        if (!session.isOpen()) {
+            log.debug("⚠️ Tried to send to closed session {}", session.getId());
+            cleanupSession(session);
+            return;
         }
+        outboundChannels.send(session, frame);
+    }
+
+    /** 📤 Gửi frame riêng cho 1 session (participant-list, history...) */
+    public void sendToSession(WebSocketSession session, WsFrame frame) {
+        safeSend(session, frame);
     }
 
     /** 📡 Broadcast đến tất cả trong phòng (trừ 1 người nếu có) */
     public void broadcast(String meetingCode, String message, WebSocketSession exclude) {
+        broadcast(meetingCode, WsFrame.of(message), exclude);
+    }
+
+    /** 📡 Broadcast frame đã encode sẵn (1 TextMessage dùng chung cho cả phòng) */
+    public void broadcast(String meetingCode, WsFrame frame, WebSocketSession exclude) {
         Map<String, WebSocketSession> participants = rooms.get(meetingCode);
         if (participants == null || participants.isEmpty()) return;
 
         participants.forEach((email, session) -> {
             if (!session.equals(exclude)) {
-                safeSend(session, message);
+                safeSend(session, frame);
             }
         });
     }
 
     /** 🎯 Gửi tin nhắn riêng cho 1 người theo email */
     public void sendToUser(String meetingCode, String toEmail, String message) {
+        sendToUser(meetingCode, toEmail, WsFrame.of(message));
+    }
+
+    /** 🎯 Gửi frame đã encode sẵn cho 1 người (relay offer / answer / ICE) */
+    public void sendToUser(String meetingCode, String toEmail, WsFrame frame) {
         WebSocketSession target = Optional.ofNullable(rooms.get(meetingCode))
                 .map(map -> map.get(toEmail))
                 .orElse(null);
 
         if (target != null && target.isOpen()) {
-            safeSend(target, message);
+            safeSend(target, frame);
             log.debug("📨 Sent message to {} in [{}]", toEmail, meetingCode);
         } else {
             log.debug("⚠️ Cannot send to {}, not connected or closed", toEmail);
@@ -1,5 +1,8 @@
 package com.chung.webrtc.meeting.socket;
 
+import com.chung.webrtc.common.websocket.OutboundChannelRegistry;
+import com.chung.webrtc.common.websocket.WsAuthService;
+import com.chung.webrtc.common.websocket.WsPrincipal;
 import com.chung.webrtc.meeting.service.CallService;
 import com.chung.webrtc.meeting.service.CallSessionRegistry;
 import com.fasterxml.jackson.databind.JsonNode;
@@ -19,13 +22,16 @@ public class CallSocketHandler extends TextWebSocketHandler {
 
     private final CallService callService;
     private final CallSessionRegistry sessionRegistry;
+    private final OutboundChannelRegistry outboundChannels;
+    private final WsAuthService wsAuthService;
     private final ObjectMapper mapper = new ObjectMapper();
 
     @Override
     public void afterConnectionEstablished(WebSocketSession session) {
-        String email = (String) session.getAttributes().get("email");
+        String email = WsPrincipal.emailOf(session);
         if (email != null) {
             sessionRegistry.registerUser(email, session);
+            wsAuthService.track(session);
             log.info("✅ User {} connected to /ws/call", email);
         } else {
             log.warn("⚠️ WebSocket connection without username");
@@ -36,46 +42,39 @@ public class CallSocketHandler extends TextWebSocketHandler {
     protected void handleTextMessage(WebSocketSession session, TextMessage message) {
         try {
             JsonNode json = mapper.readTree(message.getPayload());
+            if (wsAuthService.handleReauth(session, json)) return;
             String type = json.has("type") ? json.get("type").asText() : null;
             if (type == null) return;
 
+            // Danh tính luôn lấy từ principal của session; email / from trong payload bị bỏ qua
+            String from = WsPrincipal.emailOf(session);
+            if (from == null) {
+                log.warn("⚠️ [CALL] {} from unauthenticated session {}", type, session.getId());
+                return;
+            }
+            String to = json.path("to").asText(null);
+
             switch (type) {
                 case "join" -> {
-                    String email = json.has("email")
-                            ? json.get("email").asText()
-                            : json.has("from") ? json.get("from").asText() : null;
-
-                    if (email != null) {
-                        sessionRegistry.registerUser(email, session);
-                        log.info("👋 {} joined call socket manually", email);
-                    } else {
-                        log.warn("⚠️ [CALL] join message missing email/from");
-                    }
+                    sessionRegistry.registerUser(from, session);
+                    log.info("👋 {} joined call socket manually", from);
                 }
 
                 case "call", "start-call" -> {
-                    String from = json.path("from").asText(null);
-                    String to = json.path("to").asText(null);
-                    if (from != null && to != null) callService.startCall(from, to);
-                    else log.warn("⚠️ [CALL] call/start-call missing fields: {}", json);
+                    if (to != null) callService.startCall(from, to);
+                    else log.warn("⚠️ [CALL] call/start-call missing 'to' from {}", from);
                 }
 
                 case "accept-call" -> {
-                    String from = json.path("from").asText(null);
-                    String to = json.path("to").asText(null);
-                    callService.acceptCall(from, to);
+                    if (to != null) callService.acceptCall(from, to);
                 }
 
                 case "reject-call" -> {
-                    String from = json.path("from").asText(null);
-                    String to = json.path("to").asText(null);
-                    callService.rejectCall(from, to);
+                    if (to != null) callService.rejectCall(from, to);
                 }
 
                 case "hangup" -> {
-                    String from = json.path("from").asText(null);
-                    String to = json.path("to").asText(null);
-                    callService.hangupCall(from, to);
+                    if (to != null) callService.hangupCall(from, to);
                 }
 
                 default -> log.debug("ℹ️ Ignored message type {} (handled elsewhere)", type);
@@ -88,7 +87,9 @@ public class CallSocketHandler extends TextWebSocketHandler {
 
     @Override
     public void afterConnectionClosed(WebSocketSession session, CloseStatus status) {
-        String email = (String) session.getAttributes().get("email");
+        wsAuthService.untrack(session);
+        outboundChannels.release(session);
+        String email = WsPrincipal.emailOf(session);
         if (email == null) return;
 
         sessionRegistry.removeUser(email, session, status);
@@ -1,11 +1,18 @@
 package com.chung.webrtc.meeting.socket;
 
-import com.chung.webrtc.auth.service.JwtService;
 import com.chung.webrtc.chat.entity.Message;
 import com.chung.webrtc.chat.service.ChatGroupService;
 import com.chung.webrtc.chat.service.ChatSessionRegistry;
+import com.chung.webrtc.common.websocket.OutboundChannelRegistry;
+import com.chung.webrtc.common.websocket.SignalRelay;
+import com.chung.webrtc.common.websocket.WsAuthService;
+import com.chung.webrtc.common.websocket.WsCodec;
+import com.chung.webrtc.common.websocket.WsFrame;
+import com.chung.webrtc.common.websocket.WsPrincipal;
 import com.chung.webrtc.meeting.entity.MeetingTempMessage;
+import com.chung.webrtc.meeting.service.IceCandidateBatcher;
 import com.chung.webrtc.meeting.service.MeetingChatTempService;
+import com.chung.webrtc.meeting.service.MeetingRoomState;
 import com.chung.webrtc.meeting.service.MeetingSessionRegistry;
 import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.ObjectMapper;
@@ -14,6 +21,7 @@ import com.fasterxml.jackson.databind.node.ObjectNode;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.stereotype.Component;
+import org.springframework.web.socket.BinaryMessage;
 import org.springframework.web.socket.CloseStatus;
 import org.springframework.web.socket.TextMessage;
 import org.springframework.web.socket.WebSocketSession;
@@ -29,25 +37,56 @@ import java.util.Set;
 @RequiredArgsConstructor
 public class MeetingSocketHandler extends TextWebSocketHandler {
 
-    private final JwtService jwtService;
+    private final WsAuthService wsAuthService;
     private final MeetingSessionRegistry sessionRegistry;
+    private final MeetingRoomState roomState;
     private final ChatGroupService chatGroupService;
     private final ChatSessionRegistry chatSessionRegistry;
     private final MeetingChatTempService meetingChatTempService;
+    private final OutboundChannelRegistry outboundChannels;
+    private final IceCandidateBatcher iceBatcher;
     private final ObjectMapper mapper = new ObjectMapper();
 
+    private static final Set<String> SIGNAL_TYPES = Set.of("offer", "answer", "ice-candidate");
+
     @Override
     public void afterConnectionEstablished(WebSocketSession session) {
+        wsAuthService.track(session);
         log.info("🔗 [WS] Connection opened: {}", session.getId());
     }
 
     @Override
     protected void handleTextMessage(WebSocketSession session, TextMessage message) {
         try {
-            JsonNode msg = mapper.readTree(message.getPayload());
+            byte[] payload = message.asBytes();
+            // ⚡ offer / answer / ICE: chỉ đọc field định tuyến rồi relay nguyên byte gốc
+            SignalRelay.Route route = SignalRelay.peek(payload);
+            if (route != null && SIGNAL_TYPES.contains(route.type())) {
+                relaySignal(session, payload, route);
+                return;
+            }
+            dispatch(session, mapper.readTree(payload));
+        } catch (Exception e) {
+            log.error("❌ Error parsing message: {}", e.getMessage(), e);
+        }
+    }
+
+    /** 📦 Sub-protocol cbor.v1 (offer / answer / ICE nhỏ hơn, parse rẻ hơn) */
+    @Override
+    protected void handleBinaryMessage(WebSocketSession session, BinaryMessage message) {
+        try {
+            dispatch(session, WsCodec.read(message));
+        } catch (Exception e) {
+            log.error("❌ Error parsing binary message: {}", e.getMessage(), e);
+        }
+    }
+
+    private void dispatch(WebSocketSession session, JsonNode msg) {
+        try {
+            if (wsAuthService.handleReauth(session, msg)) return;
             String type = msg.path("type").asText(null);
             if (type == null || type.isBlank()) {
-                log.warn("⚠️ Missing type field: {}", message.getPayload());
+                log.warn("⚠️ Missing type field: {}", msg);
                 return;
             }
 
@@ -58,6 +97,7 @@ public class MeetingSocketHandler extends TextWebSocketHandler {
                 case "get-meeting-history" -> handleMeetingHistory(session);
                 case "screen-share" -> handleScreenShare(session, msg);
                 case "leave" -> handleLeave(session);
+                case "resync" -> handleResync(session);
 
                 // ⚡️ File P2P metadata signaling (for DataChannel)
                 case "file-offer" -> handleFileOffer(session, msg);
@@ -74,7 +114,7 @@ public class MeetingSocketHandler extends TextWebSocketHandler {
 
     private void handleJoin(WebSocketSession session, JsonNode msg) {
         String meetingCode = msg.path("meetingCode").asText(null);
-        String email = jwtService.extractEmailFromSession(session);
+        String email = WsPrincipal.emailOf(session);
 
         if (email == null || meetingCode == null || meetingCode.isBlank()) {
             log.warn("🚫 Invalid join: missing meetingCode or email");
@@ -83,64 +123,74 @@ public class MeetingSocketHandler extends TextWebSocketHandler {
         }
 
         session.getAttributes().put("meetingCode", meetingCode);
-        session.getAttributes().put("email", email);
 
         // Đăng ký user
         sessionRegistry.addUserToRoom(meetingCode, email, session);
         chatSessionRegistry.register(email, session);
         chatSessionRegistry.addToGroup(meetingCode, email);
 
-        // Gửi danh sách participants và thông báo join
-        sendParticipantListToUser(session, meetingCode);
-        broadcastParticipantList(meetingCode);
-
-        ObjectNode joinMsg = mapper.createObjectNode();
-        joinMsg.put("type", "participant-joined");
-        joinMsg.put("email", email);
-        sessionRegistry.broadcast(meetingCode, joinMsg.toString(), session);
+        // Người mới nhận 1 snapshot; người khác nhận delta (ngay, hoặc gom theo cửa sổ khi join storm)
+        roomState.join(meetingCode, email, session);
 
         log.info("🟢 [{}] {} joined meeting", meetingCode, email);
     }
 
-    private void sendParticipantListToUser(WebSocketSession session, String meetingCode) {
-        try {
-            Set<String> participants = sessionRegistry.getParticipants(meetingCode);
-            ObjectNode msg = mapper.createObjectNode();
-            msg.put("type", "participant-list");
-            ArrayNode arr = msg.putArray("participants");
-            participants.forEach(arr::add);
-            session.sendMessage(new TextMessage(msg.toString()));
-        } catch (Exception e) {
-            log.error("❌ Failed to send participant list", e);
-        }
+    /** 🔄 Client phát hiện lệch version → gửi lại snapshot */
+    private void handleResync(WebSocketSession session) {
+        String meetingCode = sessionRegistry.getMeetingCode(session);
+        if (meetingCode == null) return;
+        roomState.sendSnapshot(meetingCode, sessionRegistry.getEmail(session), session);
+        log.debug("🔄 [{}] Resync snapshot → {}", meetingCode, sessionRegistry.getEmail(session));
     }
 
-    private void broadcastParticipantList(String meetingCode) {
-        try {
-            Set<String> participants = sessionRegistry.getParticipants(meetingCode);
-            ObjectNode msg = mapper.createObjectNode();
-            msg.put("type", "participant-list");
-            ArrayNode arr = msg.putArray("participants");
-            participants.forEach(arr::add);
-            sessionRegistry.broadcast(meetingCode, msg.toString(), null);
-        } catch (Exception e) {
-            log.error("❌ Error broadcasting participants", e);
+    private void handleSignaling(WebSocketSession session, JsonNode msg) {
+        String meetingCode = sessionRegistry.getMeetingCode(session);
+        String from = sessionRegistry.getEmail(session);
+        String to = msg.path("to").asText(null);
+
+        if (meetingCode == null || from == null || to == null) {
+            log.warn("⚠️ Invalid signaling message");
+            return;
+        }
+
+        if (!roomState.canSignal(meetingCode, from, to)) {
+            log.debug("🚫 [{}] Webinar: signaling {} → {} blocked (viewer ↔ viewer)", meetingCode, from, to);
+            return;
         }
+
+        // msg vừa parse riêng cho frame này → sửa trực tiếp, không cần deepCopy
+        ((ObjectNode) msg).put("from", from);
+        sessionRegistry.sendToUser(meetingCode, to, WsFrame.of(mapper, msg));
     }
 
-    private void handleSignaling(WebSocketSession session, JsonNode msg) {
+    /** ⚡ Fast path cho frame text: không dựng JsonNode, chỉ chèn "from" vào byte gốc */
+    private void relaySignal(WebSocketSession session, byte[] payload, SignalRelay.Route route) {
         String meetingCode = sessionRegistry.getMeetingCode(session);
         String from = sessionRegistry.getEmail(session);
-        String to = msg.path("to").asText(null);
+        String to = route.to();
 
         if (meetingCode == null || from == null || to == null) {
             log.warn("⚠️ Invalid signaling message");
             return;
         }
 
-        ObjectNode relay = msg.deepCopy();
-        relay.put("from", from);
-        sessionRegistry.sendToUser(meetingCode, to, relay.toString());
+        if (!roomState.canSignal(meetingCode, from, to)) {
+            log.debug("🚫 [{}] Webinar: signaling {} → {} blocked (viewer ↔ viewer)", meetingCode, from, to);
+            return;
+        }
+
+        if (iceBatcher.isEnabled()) {
+            IceCandidateBatcher.PeerKey key = new IceCandidateBatcher.PeerKey(meetingCode, from, to);
+            byte[] candidate = "ice-candidate".equals(route.type()) ? SignalRelay.candidate(payload, route) : null;
+            if (candidate != null) {
+                iceBatcher.submit(key, candidate, frame -> sessionRegistry.sendToUser(meetingCode, to, frame));
+                return;
+            }
+            // offer / answer không được vượt mặt candidate đang chờ của cùng cặp peer
+            iceBatcher.flush(key);
+        }
+
+        sessionRegistry.sendToUser(meetingCode, to, WsFrame.of(SignalRelay.withFrom(payload, route, from)));
     }
 
     /** 💬 Chat trong cuộc họp */
@@ -161,7 +211,10 @@ public class MeetingSocketHandler extends TextWebSocketHandler {
         node.put("message", content);
         node.put("timestamp", Optional.ofNullable(saved.getTimestamp()).orElse(Instant.now()).toString());
 
-        chatSessionRegistry.broadcastToGroup(meetingCode, node.toString());
+        // Webinar: viewer nhận chat gom theo cửa sổ thay vì từng tin
+        if (!roomState.fanOutChat(meetingCode, sender, node)) {
+            chatSessionRegistry.broadcastToGroup(meetingCode, WsFrame.of(mapper, node));
+        }
         log.info("💬 [{}] {}: {}", meetingCode, sender, content);
     }
 
@@ -183,7 +236,7 @@ public class MeetingSocketHandler extends TextWebSocketHandler {
                 item.put("timestamp", Optional.ofNullable(m.getTimestamp()).orElse(Instant.now()).toString());
             });
 
-            session.sendMessage(new TextMessage(hist.toString()));
+            sessionRegistry.sendToSession(session, WsFrame.of(mapper, hist));
             log.info("📜 [{}] Sent {} messages history", meetingCode, history.size());
         } catch (Exception e) {
             log.error("❌ Failed to send meeting history", e);
@@ -195,13 +248,10 @@ public class MeetingSocketHandler extends TextWebSocketHandler {
         String meetingCode = sessionRegistry.getMeetingCode(session);
         String email = sessionRegistry.getEmail(session);
         boolean active = msg.path("active").asBoolean(false);
+        if (meetingCode == null || email == null) return;
 
-        ObjectNode node = mapper.createObjectNode();
-        node.put("type", "screen-share");
-        node.put("email", email);
-        node.put("active", active);
-
-        sessionRegistry.broadcast(meetingCode, node.toString(), session);
+        // Cờ screen-share là 1 phần state có version → gửi cho cả người share (chỉ để cập nhật version)
+        roomState.setScreenSharing(meetingCode, email, active);
         log.info("🖥️ [{}] {} {}", meetingCode, email, active ? "started screen share" : "stopped screen share");
     }
 
@@ -263,20 +313,20 @@ public class MeetingSocketHandler extends TextWebSocketHandler {
         String email = sessionRegistry.getEmail(session);
         if (meetingCode == null || email == null) return;
 
-        sessionRegistry.removeUser(session);
+        boolean left = sessionRegistry.removeUser(session);
         chatSessionRegistry.unregister(email, session);
-        chatSessionRegistry.removeFromGroup(meetingCode, email);
+        // Socket cũ đóng sau khi user đã reconnect → user vẫn trong phòng, không phát participant-left
+        if (!left) return;
 
-        ObjectNode leaveMsg = mapper.createObjectNode();
-        leaveMsg.put("type", "participant-left");
-        leaveMsg.put("email", email);
-        sessionRegistry.broadcast(meetingCode, leaveMsg.toString(), null);
-        broadcastParticipantList(meetingCode);
+        chatSessionRegistry.removeFromGroup(meetingCode, email);
+        roomState.leave(meetingCode, email);
     }
 
     @Override
     public void afterConnectionClosed(WebSocketSession session, CloseStatus status) {
         handleLeave(session);
+        wsAuthService.untrack(session);
+        outboundChannels.release(session);
         log.info("🔌 [WS] Disconnected: {} ({})", session.getId(), status);
     }
 }
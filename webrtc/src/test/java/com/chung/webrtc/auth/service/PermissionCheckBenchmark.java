@@ -0,0 +1,100 @@
+package com.chung.webrtc.auth.service;
+
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+import org.springframework.security.core.GrantedAuthority;
+import org.springframework.security.core.authority.SimpleGrantedAuthority;
+
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+/**
+ * ⏱️ So sánh kiểm tra quyền kiểu cũ (stream authorities + upper-case + HashSet mỗi lần)
+ * với bitset compile sẵn trong JwtPrincipal.
+ * Chạy: mvn test-compile rồi chạy main() của class này (classpath test).
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class PermissionCheckBenchmark {
+
+    /** Số authority của 1 user (role + permission) */
+    @Param({"4", "16", "64"})
+    private int authorityCount;
+
+    private List<GrantedAuthority> authorities;
+    private PermissionRegistry registry;
+    private PermissionBits bits;
+    private String[] anyOf;
+    private String[] allOf;
+
+    @Setup
+    public void setup() {
+        List<String> names = new ArrayList<>();
+        names.add("ROLE_USER");
+        for (int i = 1; i < authorityCount; i++) names.add("PERMISSION_" + i);
+        names.set(names.size() - 1, "JOIN_MEETING");
+
+        authorities = names.stream().map(SimpleGrantedAuthority::new).collect(Collectors.toList());
+        registry = new PermissionRegistry(null);
+        for (int i = 0; i < 128; i++) registry.intern("SEEDED_" + i);
+        bits = registry.compile(names);
+
+        anyOf = new String[]{"CREATE_MEETING", "VIEW_MEETING", "join_meeting"};
+        allOf = new String[]{"ROLE_USER", "JOIN_MEETING"};
+    }
+
+    @Benchmark
+    public boolean checkPermissionStream() {
+        return authorities.stream().anyMatch(a -> a.getAuthority().equalsIgnoreCase("JOIN_MEETING"));
+    }
+
+    @Benchmark
+    public boolean checkPermissionBits() {
+        return bits.contains(registry.lookup("JOIN_MEETING"));
+    }
+
+    @Benchmark
+    public boolean hasAnyPermissionStream() {
+        Set<String> userPerms = authorities.stream()
+                .map(a -> a.getAuthority().toUpperCase())
+                .collect(Collectors.toSet());
+        return Arrays.stream(anyOf).map(String::toUpperCase).anyMatch(userPerms::contains);
+    }
+
+    @Benchmark
+    public boolean hasAnyPermissionBits() {
+        for (String permission : anyOf) {
+            if (bits.contains(registry.lookup(permission))) return true;
+        }
+        return false;
+    }
+
+    @Benchmark
+    public boolean hasAllPermissionsStream() {
+        Set<String> userPerms = authorities.stream()
+                .map(a -> a.getAuthority().toUpperCase())
+                .collect(Collectors.toSet());
+        return Arrays.stream(allOf).map(String::toUpperCase).allMatch(userPerms::contains);
+    }
+
+    @Benchmark
+    public boolean hasAllPermissionsBits() {
+        for (String permission : allOf) {
+            if (!bits.contains(registry.lookup(permission))) return false;
+        }
+        return true;
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        new Runner(new OptionsBuilder()
+                .include(PermissionCheckBenchmark.class.getSimpleName())
+                .build()).run();
+    }
+}
@@ -0,0 +1,84 @@
+package com.chung.webrtc.common.websocket;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * ⏱️ So sánh relay signaling kiểu cũ (readTree + deepCopy + put from + toString)
+ * với fast path SignalRelay (peek streaming + ghép byte).
+ * Chỉ số cần xem: gc.alloc.rate.norm (byte cấp phát / frame) từ GCProfiler.
+ * Chạy: mvn test-compile rồi chạy main() của class này (classpath test).
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class SignalRelayBenchmark {
+
+    private static final String FROM = "alice@example.com";
+
+    /** offer: SDP vài KB; ice: 1 candidate ~200 byte */
+    @Param({"offer", "ice"})
+    private String frameKind;
+
+    private final ObjectMapper mapper = new ObjectMapper();
+    private byte[] payload;
+
+    @Setup
+    public void setup() throws IOException {
+        ObjectNode frame = mapper.createObjectNode();
+        if ("offer".equals(frameKind)) {
+            StringBuilder sdp = new StringBuilder("v=0\r\no=- 4611731400430051336 2 IN IP4 127.0.0.1\r\ns=-\r\nt=0 0\r\n");
+            for (int i = 0; i < 40; i++) {
+                sdp.append("a=rtpmap:").append(96 + i).append(" VP8/90000\r\n")
+                        .append("a=rtcp-fb:").append(96 + i).append(" nack pli\r\n");
+            }
+            frame.put("type", "offer");
+            frame.put("to", "bob@example.com");
+            frame.putObject("offer").put("type", "offer").put("sdp", sdp.toString());
+        } else {
+            frame.put("type", "ice-candidate");
+            frame.put("to", "bob@example.com");
+            frame.putObject("candidate")
+                    .put("candidate", "candidate:842163049 1 udp 1677729535 203.0.113.7 54400 typ srflx "
+                            + "raddr 192.168.1.20 rport 54400 generation 0 ufrag EsAw network-cost 999")
+                    .put("sdpMid", "0")
+                    .put("sdpMLineIndex", 0);
+        }
+        payload = mapper.writeValueAsBytes(frame);
+    }
+
+    @Benchmark
+    public byte[] relayTree() throws IOException {
+        JsonNode msg = mapper.readTree(payload);
+        String to = msg.path("to").asText(null);
+        ObjectNode relay = msg.deepCopy();
+        relay.put("from", FROM);
+        return to == null ? null : relay.toString().getBytes(StandardCharsets.UTF_8);
+    }
+
+    @Benchmark
+    public byte[] relayStreaming() throws IOException {
+        SignalRelay.Route route = SignalRelay.peek(payload);
+        return route.to() == null ? null : SignalRelay.withFrom(payload, route, FROM);
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        new Runner(new OptionsBuilder()
+                .include(SignalRelayBenchmark.class.getSimpleName())
+                .addProfiler(GCProfiler.class)
+                .build()).run();
+    }
+}
@@ -0,0 +1,69 @@
+package com.chung.webrtc.common.websocket;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.jupiter.api.Test;
+
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * 🛡️ Fast path relay không được để client giả mạo "from".
+ */
+class SignalRelayTest {
+
+    private static final String VERIFIED = "alice@example.com";
+    private final ObjectMapper mapper = new ObjectMapper();
+
+    private static byte[] bytes(String json) {
+        return json.getBytes(StandardCharsets.UTF_8);
+    }
+
+    @Test
+    void overwritesClientFrom() throws Exception {
+        byte[] payload = bytes("{\"type\":\"offer\",\"to\":\"bob@example.com\",\"from\":\"mallory@example.com\",\"offer\":{\"sdp\":\"v=0\"}}");
+        SignalRelay.Route route = SignalRelay.peek(payload);
+
+        assertNotNull(route);
+        JsonNode relayed = mapper.readTree(SignalRelay.withFrom(payload, route, VERIFIED));
+        assertEquals(VERIFIED, relayed.get("from").asText());
+        assertEquals("bob@example.com", relayed.get("to").asText());
+    }
+
+    @Test
+    void nestedToWithForgedFromFallsBackToTreePath() throws Exception {
+        byte[] payload = bytes("{\"type\":\"offer\",\"to\":{\"x\":{\"y\":1}},\"from\":\"mallory@example.com\"}");
+        assertNull(SignalRelay.peek(payload));
+    }
+
+    @Test
+    void nestedTypeIsRejected() throws Exception {
+        assertNull(SignalRelay.peek(bytes("{\"type\":[\"offer\"],\"to\":\"bob@example.com\",\"from\":\"mallory@example.com\"}")));
+    }
+
+    @Test
+    void duplicateRoutingFieldsAreRejected() throws Exception {
+        assertNull(SignalRelay.peek(bytes("{\"type\":\"offer\",\"to\":\"bob@example.com\",\"from\":\"x\",\"from\":\"mallory@example.com\"}")));
+        assertNull(SignalRelay.peek(bytes("{\"type\":\"offer\",\"to\":\"bob@example.com\",\"to\":\"carol@example.com\"}")));
+        assertNull(SignalRelay.peek(bytes("{\"type\":\"offer\",\"type\":\"answer\",\"to\":\"bob@example.com\"}")));
+    }
+
+    @Test
+    void trailingDataIsRejected() throws Exception {
+        assertNull(SignalRelay.peek(bytes("{\"type\":\"offer\",\"to\":\"bob@example.com\"} {\"from\":\"mallory@example.com\"}")));
+    }
+
+    @Test
+    void insertsFromWhenMissingAndKeepsCandidateBytes() throws Exception {
+        byte[] payload = bytes("{\"type\":\"ice-candidate\",\"to\":\"bob@example.com\",\"candidate\":{\"candidate\":\"c\",\"sdpMid\":\"0\"}}");
+        SignalRelay.Route route = SignalRelay.peek(payload);
+
+        assertNotNull(route);
+        assertEquals(-1, route.fromStart());
+        JsonNode relayed = mapper.readTree(SignalRelay.withFrom(payload, route, VERIFIED));
+        assertEquals(VERIFIED, relayed.get("from").asText());
+        assertEquals("{\"candidate\":\"c\",\"sdpMid\":\"0\"}",
+                new String(SignalRelay.candidate(payload, route), StandardCharsets.UTF_8));
+    }
+}